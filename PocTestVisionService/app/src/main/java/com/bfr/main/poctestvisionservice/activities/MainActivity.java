@@ -2,11 +2,9 @@ package com.bfr.main.poctestvisionservice.activities;
 
 import android.Manifest;
 import android.app.Activity;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
@@ -30,13 +28,13 @@ import android.widget.Toast;
 
 import com.bfr.main.poctestvisionservice.R;
 import com.bfr.main.poctestvisionservice.models.ObjectExample;
+import com.bfr.main.poctestvisionservice.utils.DetectionResultsReader;
+import com.bfr.main.poctestvisionservice.utils.StreamFrameReader;
+import com.bfr.main.visionservice.IFrameListener;
 import com.bfr.main.visionservice.IVisionService;
 import com.newtronlabs.sharedmemory.IRemoteSharedMemory;
 import com.newtronlabs.sharedmemory.RemoteMemoryAdapter;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.RandomAccessFile;
 import java.util.Arrays;
 
@@ -62,7 +60,8 @@ import java.util.Arrays;
  *      + getObjet : pour récupérer l'objet exemple parcelable fourni par le service VisionService. [utilisation de mémoire partagée + stockage locale + AIDL]
  * ---------------------------------------------------------------------------------------------------------------------------------------------------------------
  *
- *  Elle présente aussi deux rubriques qui affichent les informations des tags détectés.
+ *  Elle présente aussi deux rubriques qui affichent les informations des tags détectés, lues dans la région de mémoire
+ *  partagée [CV-Detection-Results] (DetectionResultsReader) à côté de la frame lue dans le buffer circulaire (StreamFrameReader).
  *
  */
 public class MainActivity extends Activity {
@@ -82,10 +81,12 @@ public class MainActivity extends Activity {
     private ImageView imageViewGetStreamGrandAngle;
     private TextView errorTextGetStreamGrandAngle;
     private IRemoteSharedMemory remoteMemoryOfStreamFramesGrandAngle;
+    private StreamFrameReader streamFrameReaderGrandAngle;
         //zoom
     private ImageView imageViewGetStreamZoom;
     private TextView errorTextGetStreamZoom;
     private IRemoteSharedMemory remoteMemoryOfStreamFramesZoom;
+    private StreamFrameReader streamFrameReaderZoom;
 
     //GetImage :
 
@@ -114,10 +115,14 @@ public class MainActivity extends Activity {
 
     //Infos Tags :
 
+    private IRemoteSharedMemory remoteMemoryOfDetectionResults;
+    private DetectionResultsReader detectionResultsReader;
         //grand-angle
+    private DetectionResultsReader.Section detectionResultsGrandAngle;
     private ScrollView scrollerGrandAngle;
     private TextView messageViewGrandAngle;
         //zoom
+    private DetectionResultsReader.Section detectionResultsZoom;
     private ScrollView scrollerZoom;
     private TextView messageViewZoom;
 
@@ -217,145 +222,155 @@ public class MainActivity extends Activity {
 
                 String regionName_cv_resulting_frame = getString(R.string.name_region_shared_memory_cv_resulting_frame);
                 remoteMemoryOfCvResultingFrame = RemoteMemoryAdapter.getDefaultAdapter().getSharedMemory(MainActivity.this, visionServiceAppId, regionName_cv_resulting_frame);
+
+                String regionName_cv_detection_results = getString(R.string.name_region_shared_memory_cv_detection_results);
+                remoteMemoryOfDetectionResults = RemoteMemoryAdapter.getDefaultAdapter().getSharedMemory(MainActivity.this, visionServiceAppId, regionName_cv_detection_results);
             }
         }).start();
 
     }
 
     /**
-     * Déconnexion du service externe VisionService et désinscription des broadcastReceiver
+     * Désabonnement des notifications de frames et déconnexion du service externe VisionService
      */
     @Override
     protected void onDestroy() {
         super.onDestroy();
         try{
+            if (mVisionService != null) {
+                mVisionService.unregisterFrameListener(frameListenerGrandAngle);
+                mVisionService.unregisterFrameListener(frameListenerZoom);
+            }
             if (mConnectionVisionService != null) {
                 unbindService(mConnectionVisionService);
             }
-            unregisterReceiver(receiverNewFrameGrandAngle);
-            unregisterReceiver(receiverNewFrameZoom);
-            unregisterReceiver(receiverTagDetectedGrandAngle);
-            unregisterReceiver(receiverTagDetectedZoom);
         }
         catch (Exception ignored){}
     }
 
 
     /**
-     *  les BroadcastReceivers :
+     *  les callbacks de notification de frames (IFrameListener) :
      */
 
     /**
-     *  Receiver de notification de détection de tag (caméra grand-angle)
-     *   - Lecture du JSON et affichage
+     *  Callback oneway appelé par le service après chaque frame grand-angle traitée :
+     *   - affichage de la nouvelle frame
+     *   - affichage des informations des tags s'il y en a
      */
-    private BroadcastReceiver receiverTagDetectedGrandAngle = new BroadcastReceiver() {
+    private IFrameListener frameListenerGrandAngle = new IFrameListener.Stub() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (mVisionService != null){
-                try {
-                    //récupération du JSON sous format de string
-                    String tagsInfosString = mVisionService.getTagsInfos("grand-angle");
-
-                    //reconstruction de l'objet JSON
-                    if(tagsInfosString != null){
-                        JSONObject tagsInfosObj = new JSONObject(tagsInfosString);
-
-                        //récupération des informations de tags
-                        int numberOfTags = (int) tagsInfosObj.get("numberOfTags");
-                        JSONArray arrayTags  = (JSONArray) tagsInfosObj.get("tags");
-
-                        //affichage du nombre de tags détectés
-                        appendColoredText(messageViewGrandAngle, "\n\nNumber of detected Markers : "+numberOfTags , Color.RED);
-
-                        //affichage des valeurs lues sur chaque tag
-                        for (int k=0; k<numberOfTags; k++) {
-                            messageViewGrandAngle.append("\nRead values in marker " + k + " : " + arrayTags.getJSONObject(k).get("value").toString());
-                        }
+        public void onFrameReady(String camera, long sequence, long timestampNs, int numberOfTags, int coalescedFrames) {
+            runOnUiThread(displayNewFrameGrandAngle);
+            if(numberOfTags > 0) runOnUiThread(displayTagsInfosGrandAngle);
+        }
+    };
 
-                        //scroll automatique
-                        scrollerGrandAngle.post(new Runnable() {
-                            public void run() {
-                                scrollerGrandAngle.smoothScrollTo(0, messageViewGrandAngle.getBottom());
-                            }
-                        });
+    /**
+     *  Callback oneway appelé par le service après chaque frame zoom traitée :
+     *   - affichage de la nouvelle frame
+     *   - affichage des informations des tags s'il y en a
+     */
+    private IFrameListener frameListenerZoom = new IFrameListener.Stub() {
+        @Override
+        public void onFrameReady(String camera, long sequence, long timestampNs, int numberOfTags, int coalescedFrames) {
+            runOnUiThread(displayNewFrameZoom);
+            if(numberOfTags > 0) runOnUiThread(displayTagsInfosZoom);
+        }
+    };
 
-                        Log.i(TAG,"Objet JSON - tagsInfos (GrandAngle) : "+tagsInfosString);
-                    }
+    /**
+     *  Affichage des informations des tags détectés (caméra grand-angle)
+     *   - Lecture des enregistrements binaires de la région [CV-Detection-Results] et affichage
+     */
+    private Runnable displayTagsInfosGrandAngle = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                //lecture d'une copie cohérente de la section de la caméra
+                if(detectionResultsReader == null) detectionResultsReader = new DetectionResultsReader(remoteMemoryOfDetectionResults);
+                if(detectionResultsGrandAngle == null) detectionResultsGrandAngle = detectionResultsReader.newSection();
+                if(!detectionResultsReader.read(DetectionResultsReader.CAMERA_GRAND_ANGLE, detectionResultsGrandAngle)) return;
+
+                //affichage du nombre de tags détectés
+                int numberOfTags = 0;
+                for (int k=0; k<detectionResultsGrandAngle.recordCount; k++) {
+                    if(detectionResultsGrandAngle.kinds[k] == DetectionResultsReader.KIND_TAG) numberOfTags++;
+                }
+                appendColoredText(messageViewGrandAngle, "\n\nNumber of detected Markers : "+numberOfTags+" (frame "+detectionResultsGrandAngle.frameSequence+")" , Color.RED);
 
-                } catch (Exception e) {
-                    Log.e(TAG,"Erreur pendant l'appel de la fonction getTagsInfos(\"grand-angle\") du service Vision : "+e);
+                //affichage des valeurs lues sur chaque tag
+                for (int k=0, marker=0; k<detectionResultsGrandAngle.recordCount; k++) {
+                    if(detectionResultsGrandAngle.kinds[k] != DetectionResultsReader.KIND_TAG) continue;
+                    messageViewGrandAngle.append("\nRead values in marker " + marker++ + " : " + detectionResultsGrandAngle.ids[k]);
                 }
+
+                //scroll automatique
+                scrollerGrandAngle.post(new Runnable() {
+                    public void run() {
+                        scrollerGrandAngle.smoothScrollTo(0, messageViewGrandAngle.getBottom());
+                    }
+                });
             }
-            else {
-                Log.e(TAG,"mVisionService is null");
+            catch (Exception e) {
+                Log.e(TAG, "Erreur lors de la lecture des résultats de détection depuis la mémoire partagée (grand-angle) : "+e);
             }
         }
     };
 
     /**
-     *  Receiver de notification de détection de tag (caméra zoom)
-     *   - Lecture du JSON et affichage
+     *  Affichage des informations des tags détectés (caméra zoom)
+     *   - Lecture des enregistrements binaires de la région [CV-Detection-Results] et affichage
      */
-    private BroadcastReceiver receiverTagDetectedZoom = new BroadcastReceiver() {
+    private Runnable displayTagsInfosZoom = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (mVisionService != null){
-                try {
-                    //récupération du JSON sous format de string
-                    String tagsInfosString = mVisionService.getTagsInfos("zoom");
-
-                    //reconstruction de l'objet JSON
-                    if(tagsInfosString != null){
-                        JSONObject tagsInfosObj = new JSONObject(tagsInfosString);
-
-                        //récupération des informations de tags
-                        int numberOfTags = (int) tagsInfosObj.get("numberOfTags");
-                        JSONArray arrayTags  = (JSONArray) tagsInfosObj.get("tags");
-
-                        //affichage du nombre de tags détectés
-                        appendColoredText(messageViewZoom, "\n\nNumber of detected Markers : "+numberOfTags , Color.RED);
-
-                        //affichage des valeurs lues sur chaque tag
-                        for (int k=0; k<numberOfTags; k++) {
-                            messageViewZoom.append("\nRead values in marker " + k + " : " + arrayTags.getJSONObject(k).get("value").toString());
-                        }
+        public void run() {
+            try {
+                //lecture d'une copie cohérente de la section de la caméra
+                if(detectionResultsReader == null) detectionResultsReader = new DetectionResultsReader(remoteMemoryOfDetectionResults);
+                if(detectionResultsZoom == null) detectionResultsZoom = detectionResultsReader.newSection();
+                if(!detectionResultsReader.read(DetectionResultsReader.CAMERA_ZOOM, detectionResultsZoom)) return;
+
+                //affichage du nombre de tags détectés
+                int numberOfTags = 0;
+                for (int k=0; k<detectionResultsZoom.recordCount; k++) {
+                    if(detectionResultsZoom.kinds[k] == DetectionResultsReader.KIND_TAG) numberOfTags++;
+                }
+                appendColoredText(messageViewZoom, "\n\nNumber of detected Markers : "+numberOfTags+" (frame "+detectionResultsZoom.frameSequence+")" , Color.RED);
 
-                        //scroll automatique
-                        scrollerZoom.post(new Runnable() {
-                            public void run() {
-                                scrollerZoom.smoothScrollTo(0, messageViewZoom.getBottom());
-                            }
-                        });
+                //affichage des valeurs lues sur chaque tag
+                for (int k=0, marker=0; k<detectionResultsZoom.recordCount; k++) {
+                    if(detectionResultsZoom.kinds[k] != DetectionResultsReader.KIND_TAG) continue;
+                    messageViewZoom.append("\nRead values in marker " + marker++ + " : " + detectionResultsZoom.ids[k]);
+                }
 
-                        Log.i(TAG,"Objet JSON - tagsInfos (Zoom) : "+tagsInfosString);
+                //scroll automatique
+                scrollerZoom.post(new Runnable() {
+                    public void run() {
+                        scrollerZoom.smoothScrollTo(0, messageViewZoom.getBottom());
                     }
-
-                } catch (Exception e) {
-                    Log.e(TAG,"Erreur pendant l'appel de la fonction getTagsInfos(\"zoom\") du service Vision : "+e);
-                }
+                });
             }
-            else {
-                Log.e(TAG,"mVisionService is null");
+            catch (Exception e) {
+                Log.e(TAG, "Erreur lors de la lecture des résultats de détection depuis la mémoire partagée (zoom) : "+e);
             }
         }
     };
 
     /**
-     *  Receiver de notification de stream grand-angle : nouvelle frame grand-angle écrite sur la mémoire partagée.
+     *  Nouvelle frame grand-angle écrite sur la mémoire partagée.
      *   - Lecture du byte[] et affichage de la frame
      */
-    private BroadcastReceiver receiverNewFrameGrandAngle = new BroadcastReceiver() {
+    private Runnable displayNewFrameGrandAngle = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void run() {
             try {
-                //lecture
-                final byte[] frameGrandAngleBytes = new byte[remoteMemoryOfStreamFramesGrandAngle.getSize()];
-                remoteMemoryOfStreamFramesGrandAngle.readBytes(frameGrandAngleBytes, 0, 0, frameGrandAngleBytes.length);
+                //lecture de la dernière frame brute du buffer circulaire
+                if(streamFrameReaderGrandAngle == null) streamFrameReaderGrandAngle = new StreamFrameReader(remoteMemoryOfStreamFramesGrandAngle);
+                Bitmap bitmapFrameGrandAngleStream = streamFrameReaderGrandAngle.readLatestFrame();
 
                 //affichage
-                Bitmap bitmapFrameGrandAngleStream = BitmapFactory.decodeByteArray(frameGrandAngleBytes, 0, frameGrandAngleBytes.length);
-                imageViewGetStreamGrandAngle.setImageBitmap(bitmapFrameGrandAngleStream);
+                if(bitmapFrameGrandAngleStream != null) imageViewGetStreamGrandAngle.setImageBitmap(bitmapFrameGrandAngleStream);
             }
             catch (Exception e) {
                 Log.e(TAG, "Erreur lors de la lecture depuis la mémoire partagée ("+remoteMemoryOfStreamFramesGrandAngle.getRegionName()+"): "+e);
@@ -365,20 +380,19 @@ public class MainActivity extends Activity {
     };
 
     /**
-     *  Receiver de notification de stream zoom : nouvelle frame zoom écrite sur la mémoire partagée.
+     *  Nouvelle frame zoom écrite sur la mémoire partagée.
      *   - Lecture du byte[] et affichage de la frame
      */
-    private BroadcastReceiver receiverNewFrameZoom = new BroadcastReceiver() {
+    private Runnable displayNewFrameZoom = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
+        public void run() {
             try {
-                //lecture
-                final byte[] frameZoomBytes = new byte[remoteMemoryOfStreamFramesZoom.getSize()];
-                remoteMemoryOfStreamFramesZoom.readBytes(frameZoomBytes, 0, 0, frameZoomBytes.length);
+                //lecture de la dernière frame brute du buffer circulaire
+                if(streamFrameReaderZoom == null) streamFrameReaderZoom = new StreamFrameReader(remoteMemoryOfStreamFramesZoom);
+                Bitmap bitmapFrameZoomStream = streamFrameReaderZoom.readLatestFrame();
 
                 //affichage
-                Bitmap bitmapFrameZoomStream = BitmapFactory.decodeByteArray(frameZoomBytes, 0, frameZoomBytes.length);
-                imageViewGetStreamZoom.setImageBitmap(bitmapFrameZoomStream);
+                if(bitmapFrameZoomStream != null) imageViewGetStreamZoom.setImageBitmap(bitmapFrameZoomStream);
             }
             catch (Exception e) {
                 Log.e(TAG, "Erreur lors de la lecture depuis la mémoire partagée ("+remoteMemoryOfStreamFramesZoom.getRegionName()+"): "+e);
@@ -395,8 +409,8 @@ public class MainActivity extends Activity {
      * La fonction BtnStartStreamGrandAngle() est executée suite au clic sur le bouton 'startStream' de la rubrique Grand Angle.
      * Elle fait appel à la méthode [startFrameStream("grand-angle")] du service externe pour que le service lance
      * l'écriture des byte[] des frames grand-angle sur la mémoire partagée.
-     * Elle permet aussi de s'enregistrer au broadcast qui notifie la présence d'une nouvelle frame grand-angle
-     * et au broadcast qui notifie la détection de tags grand-angle
+     * Elle permet aussi de s'abonner aux notifications de nouvelles frames grand-angle (IFrameListener),
+     * qui indiquent aussi le nombre de tags détectés
      */
     public void BtnStartStreamGrandAngle(final View view) {
 
@@ -406,18 +420,13 @@ public class MainActivity extends Activity {
         imageViewGetStreamGrandAngle.setImageBitmap(null);
         errorTextGetStreamGrandAngle.setText("");
 
-        /*
-         * Enregistrement au broadcast qui notifie la présence d'une nouvelle frame grand-angle et au broadcast qui notifie la détection de tags grand-angle
-         */
-        registerReceiver(receiverNewFrameGrandAngle, new IntentFilter("NEW_FRAME_OPENCV_IS_WRITTEN_GRAND_ANGLE"));
-        registerReceiver(receiverTagDetectedGrandAngle, new IntentFilter("TAG_DETECTED_GRAND_ANGLE"));
-
         /*
          * Appel de la méthode du service externe [startFrameStream("grand-angle")] pour que le service lance
          * l'écriture des byte[] des frames grand-angle sur la mémoire partagée.
          */
         if (mVisionService != null){
             try {
+                mVisionService.registerFrameListener("grand-angle", frameListenerGrandAngle);
                 mVisionService.startFrameStream("grand-angle");
             } catch (RemoteException e) {
                 Log.e(TAG,"Erreur pendant l'appel de la fonction startFrameStream(\"grand-angle\") du service Vision : "+e);
@@ -434,8 +443,8 @@ public class MainActivity extends Activity {
      * La fonction BtnStartStreamZoom() est executée suite au clic sur le bouton 'startStream' de la rubrique Zoom.
      * Elle fait appel à la méthode [startFrameStream("zoom")] du service externe pour que le service lance
      * l'écriture des byte[] des frames zoom sur la mémoire partagée.
-     * Elle permet aussi de s'enregistrer au broadcast qui notifie la présence d'une nouvelle frame zoom
-     * et au broadcast qui notifie la détection de tags zoom
+     * Elle permet aussi de s'abonner aux notifications de nouvelles frames zoom (IFrameListener),
+     * qui indiquent aussi le nombre de tags détectés
      */
     public void BtnStartStreamZoom(final View view) {
 
@@ -445,18 +454,13 @@ public class MainActivity extends Activity {
         imageViewGetStreamZoom.setImageBitmap(null);
         errorTextGetStreamZoom.setText("");
 
-        /*
-         * Enregistrement au broadcast qui notifie la présence d'une nouvelle frame zoom et au broadcast qui notifie la détection de tags zoom
-         */
-        registerReceiver(receiverNewFrameZoom, new IntentFilter("NEW_FRAME_OPENCV_IS_WRITTEN_ZOOM"));
-        registerReceiver(receiverTagDetectedZoom, new IntentFilter("TAG_DETECTED_ZOOM"));
-
         /*
          * Appel de la méthode du service externe [startFrameStream("zoom")] pour que le service lance
          * l'écriture des byte[] des frames zoom sur la mémoire partagée.
          */
         if (mVisionService != null){
             try {
+                mVisionService.registerFrameListener("zoom", frameListenerZoom);
                 mVisionService.startFrameStream("zoom");
             } catch (RemoteException e) {
                 Log.e(TAG,"Erreur pendant l'appel de la fonction startFrameStream(\"zoom\") du service Vision : "+e);
@@ -473,20 +477,10 @@ public class MainActivity extends Activity {
      * La fonction BtnStopStreamGrandAngle() est executée suite au clic sur le bouton 'stopStream' de la rubrique Grand Angle.
      * Elle fait appel à la méthode [stopFrameStream("grand-angle")] du service externe pour que le service arrête
      * l'écriture des byte[] des frames grand-angle sur la mémoire partagée.
-     * Elle permet aussi de se désinscrire du broadcast qui notifie la présence d'une nouvelle frame grand-angle
-     * et du broadcast qui notifie la détection de tags grand-angle
+     * Elle permet aussi de se désabonner des notifications de nouvelles frames grand-angle (IFrameListener)
      */
     public void BtnStopStreamGrandAngle(View view) {
 
-        /*
-         * Désinscription des broadcastReceiver
-         */
-        try{
-            unregisterReceiver(receiverNewFrameGrandAngle);
-            unregisterReceiver(receiverTagDetectedGrandAngle);
-        }
-        catch (Exception ignored){}
-
         /*
          * initialisations
          */
@@ -499,6 +493,7 @@ public class MainActivity extends Activity {
          */
         if (mVisionService != null){
             try {
+                mVisionService.unregisterFrameListener(frameListenerGrandAngle);
                 mVisionService.stopFrameStream("grand-angle");
             } catch (RemoteException e) {
                 Log.e(TAG,"Erreur pendant l'appel de la fonction stopFrameStream(\"grand-angle\") du service Vision : "+e);
@@ -515,20 +510,10 @@ public class MainActivity extends Activity {
      * La fonction BtnStopStreamZoom() est executée suite au clic sur le bouton 'stopStream' de la rubrique Zoom.
      * Elle fait appel à la méthode [stopFrameStream("zoom")] du service externe pour que le service arrête
      * l'écriture des byte[] des frames zoom sur la mémoire partagée.
-     * Elle permet aussi de se désinscrire du broadcast qui notifie la présence d'une nouvelle frame zoom
-     * et du broadcast qui notifie la détection de tags zoom
+     * Elle permet aussi de se désabonner des notifications de nouvelles frames zoom (IFrameListener)
      */
     public void BtnStopStreamZoom(View view) {
 
-        /*
-         * Désinscription des broadcastReceiver
-         */
-        try{
-            unregisterReceiver(receiverNewFrameZoom);
-            unregisterReceiver(receiverTagDetectedZoom);
-        }
-        catch (Exception ignored){}
-
         /*
          * initialisations
          */
@@ -541,6 +526,7 @@ public class MainActivity extends Activity {
          */
         if (mVisionService != null){
             try {
+                mVisionService.unregisterFrameListener(frameListenerZoom);
                 mVisionService.stopFrameStream("zoom");
             } catch (RemoteException e) {
                 Log.e(TAG,"Erreur pendant l'appel de la fonction stopFrameStream(\"zoom\") du service Vision : "+e);
@@ -0,0 +1,149 @@
+package com.bfr.main.poctestvisionservice.utils;
+
+import com.newtronlabs.sharedmemory.IRemoteSharedMemory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * La classe DetectionResultsReader est le lecteur de référence des résultats de détection écrits par le service VisionService
+ * dans la région [CV-Detection-Results] (voir la classe DetectionResultsRegion du service pour l'organisation de la région).
+ *
+ * Lecture seqlock d'une section :
+ *  1- lire version v1 ; si v1 est impair, une écriture est en cours : recommencer.
+ *  2- barrière mémoire, copier l'en-tête de section puis les enregistrements.
+ *  3- barrière mémoire, relire version v2 ; si v2 != v1, la copie est incohérente : recommencer.
+ * Les résultats ne sont décodés qu'à partir de la copie validée.
+ */
+public class DetectionResultsReader {
+
+    private static final int REGION_MAGIC = 0x42465244;
+    private static final int LAYOUT_VERSION = 1;
+    private static final int REGION_HEADER_SIZE = 64;
+    private static final int SECTION_HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 48;
+    private static final int POINTS_PER_RECORD = 8;
+    private static final int MAX_ATTEMPTS = 100;
+
+    public static final int CAMERA_GRAND_ANGLE = 0;
+    public static final int CAMERA_ZOOM = 1;
+
+    public static final int KIND_TAG = 1;
+    public static final int KIND_FACE = 2;
+    public static final int KIND_OBJECT = 3;
+
+    /**
+     * Copie cohérente d'une section : les recordCount premières cases des tableaux sont valides.
+     */
+    public static class Section {
+        public long version;
+        public long frameSequence;
+        public long timestampNs;
+        public int recordCount;
+        public final int[] kinds;
+        public final int[] ids;
+        public final float[] scores;
+        public final float[] points; // POINTS_PER_RECORD valeurs par enregistrement : 4 coins (x,y) ou x1,y1,x2,y2
+
+        Section(int maxRecords) {
+            kinds = new int[maxRecords];
+            ids = new int[maxRecords];
+            scores = new float[maxRecords];
+            points = new float[maxRecords * POINTS_PER_RECORD];
+        }
+    }
+
+    private final IRemoteSharedMemory remoteMemory;
+    private final int sectionCount;
+    private final int sectionSize;
+    private final int maxRecords;
+
+    private final byte[] versionBytes = new byte[8];
+    private final ByteBuffer version = ByteBuffer.wrap(versionBytes).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] sectionBytes;
+    private final ByteBuffer section;
+
+    /**
+     * @param remoteMemory : la région [CV-Detection-Results] du service
+     * @throws IOException : si l'en-tête de la région ne peut pas être lu ou ne correspond pas à ce lecteur
+     */
+    public DetectionResultsReader(IRemoteSharedMemory remoteMemory) throws IOException {
+        this.remoteMemory = remoteMemory;
+        byte[] regionHeaderBytes = new byte[REGION_HEADER_SIZE];
+        remoteMemory.readBytes(regionHeaderBytes, 0, 0, REGION_HEADER_SIZE);
+        ByteBuffer regionHeader = ByteBuffer.wrap(regionHeaderBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (regionHeader.getInt(0) != REGION_MAGIC || regionHeader.getInt(4) != LAYOUT_VERSION
+                || regionHeader.getInt(16) != RECORD_SIZE) {
+            throw new IOException("Région de résultats de détection inconnue");
+        }
+        this.sectionCount = regionHeader.getInt(8);
+        this.sectionSize = regionHeader.getInt(12);
+        this.maxRecords = (sectionSize - SECTION_HEADER_SIZE) / RECORD_SIZE;
+        this.sectionBytes = new byte[sectionSize];
+        this.section = ByteBuffer.wrap(sectionBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * La fonction newSection() permet de créer une copie de section dimensionnée pour cette région (à réutiliser).
+     */
+    public Section newSection() {
+        return new Section(maxRecords);
+    }
+
+    /**
+     * La fonction read() permet de lire une copie cohérente des derniers résultats d'une caméra.
+     * @param camera : CAMERA_GRAND_ANGLE ou CAMERA_ZOOM
+     * @param out : la copie à remplir (voir newSection())
+     * @return : true si out contient une copie cohérente, false si aucune copie cohérente n'a été obtenue en MAX_ATTEMPTS tentatives
+     */
+    public synchronized boolean read(int camera, Section out) throws IOException {
+        if (camera < 0 || camera >= sectionCount) return false;
+        int sectionOffset = REGION_HEADER_SIZE + camera * sectionSize;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long v1 = readVersion(sectionOffset);
+            if ((v1 & 1) != 0) { // écriture en cours
+                Thread.yield();
+                continue;
+            }
+            MemoryFence.full(); // la version est lue avant le contenu
+
+            remoteMemory.readBytes(sectionBytes, sectionOffset + 8, 8, SECTION_HEADER_SIZE - 8);
+            int recordCount = Math.max(0, Math.min(section.getInt(24), maxRecords)); // peut être incohérent avant validation
+            if (recordCount > 0) {
+                remoteMemory.readBytes(sectionBytes, sectionOffset + SECTION_HEADER_SIZE, SECTION_HEADER_SIZE, recordCount * RECORD_SIZE);
+            }
+            MemoryFence.full(); // le contenu est lu avant la seconde lecture de la version
+
+            if (readVersion(sectionOffset) == v1) {
+                decode(v1, recordCount, out);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long readVersion(int sectionOffset) throws IOException {
+        remoteMemory.readBytes(versionBytes, sectionOffset, 0, versionBytes.length);
+        return version.getLong(0);
+    }
+
+    /**
+     * Décodage de la copie validée
+     */
+    private void decode(long sectionVersion, int recordCount, Section out) {
+        out.version = sectionVersion;
+        out.frameSequence = section.getLong(8);
+        out.timestampNs = section.getLong(16);
+        out.recordCount = recordCount;
+        for (int k = 0; k < recordCount; k++) {
+            int record = SECTION_HEADER_SIZE + k * RECORD_SIZE;
+            out.kinds[k] = section.getInt(record);
+            out.ids[k] = section.getInt(record + 4);
+            out.scores[k] = section.getFloat(record + 8);
+            for (int c = 0; c < POINTS_PER_RECORD; c++) {
+                out.points[k * POINTS_PER_RECORD + c] = section.getFloat(record + 16 + 4 * c);
+            }
+        }
+    }
+}
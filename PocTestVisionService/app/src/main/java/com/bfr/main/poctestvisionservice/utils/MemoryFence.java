@@ -0,0 +1,25 @@
+package com.bfr.main.poctestvisionservice.utils;
+
+/**
+ * La classe MemoryFence fournit une barrière mémoire complète entre deux lectures d'une région de mémoire partagée
+ * écrite par le service (même barrière que la classe MemoryFence du service) : IRemoteSharedMemory.readBytes() n'est
+ * qu'une copie mémoire, sans aucune garantie d'ordre sur ARM.
+ *
+ * VarHandle.fullFence() n'existe qu'à partir de l'API 33 : la barrière est obtenue par une écriture volatile suivie
+ * d'une lecture volatile.
+ */
+final class MemoryFence {
+
+    private static volatile int fence;
+
+    private MemoryFence() {
+    }
+
+    /**
+     * La fonction full() permet de garantir que les lectures faites avant l'appel sont terminées avant celles faites après.
+     */
+    static void full() {
+        fence = 0;
+        if (fence != 0) throw new IllegalStateException(); // lecture volatile, jamais vraie
+    }
+}
@@ -0,0 +1,115 @@
+package com.bfr.main.poctestvisionservice.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.newtronlabs.sharedmemory.IRemoteSharedMemory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * La classe StreamFrameReader permet de lire la dernière frame (brute ou encodée en JPEG / PNG) écrite par le service VisionService
+ * dans le buffer circulaire d'une région de streaming [Stream-Frames-*].
+ * (voir la classe FrameRingBuffer du service pour l'organisation de la région et le protocole de lecture)
+ * Les lectures de l'en-tête, des pixels et de la séquence de contrôle sont séparées par des barrières mémoire,
+ * et un en-tête incohérent (taille hors du slot) est rejeté avant toute allocation.
+ */
+public class StreamFrameReader {
+
+    private static final int REGION_MAGIC = 0x42465253;
+    private static final int REGION_HEADER_SIZE = 64;
+    private static final int SLOT_HEADER_SIZE = 64;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int PIXEL_FORMAT_RGBA = 1;
+    private static final int PIXEL_FORMAT_RGB = 2;
+    private static final int PIXEL_FORMAT_GRAY = 3;
+    private static final int PIXEL_FORMAT_NV21 = 4;
+    private static final int PIXEL_FORMAT_JPEG = 5;
+    private static final int PIXEL_FORMAT_PNG = 6;
+
+    private final IRemoteSharedMemory remoteMemory;
+    private final byte[] headerBytes = new byte[Math.max(REGION_HEADER_SIZE, SLOT_HEADER_SIZE)];
+    private final ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] payload = new byte[0];
+    private int[] pixels = new int[0];
+
+    public StreamFrameReader(IRemoteSharedMemory remoteMemory) {
+        this.remoteMemory = remoteMemory;
+    }
+
+    /**
+     * La fonction readLatestFrame() permet de lire la dernière frame complète du buffer circulaire.
+     * @return : la frame sous format de Bitmap, ou null si aucune frame cohérente n'a pu être lue.
+     */
+    public Bitmap readLatestFrame() throws IOException {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            remoteMemory.readBytes(headerBytes, 0, 0, REGION_HEADER_SIZE);
+            if (header.getInt(0) != REGION_MAGIC) return null;
+            int slotCount = header.getInt(8);
+            int slotSize = header.getInt(12);
+            long latestSequence = header.getLong(16);
+            if (latestSequence <= 0 || slotCount <= 0 || slotSize <= SLOT_HEADER_SIZE) return null;
+            MemoryFence.full(); // latestSequence est lue avant l'en-tête du slot
+
+            int slotOffset = REGION_HEADER_SIZE + (int) ((latestSequence - 1) % slotCount) * slotSize;
+            remoteMemory.readBytes(headerBytes, slotOffset, 0, SLOT_HEADER_SIZE);
+            if (header.getLong(0) != latestSequence) continue;
+            int width = header.getInt(16);
+            int height = header.getInt(20);
+            int pixelFormat = header.getInt(28);
+            int payloadLength = header.getInt(32);
+            if (payloadLength < 0 || payloadLength > slotSize - SLOT_HEADER_SIZE || width <= 0 || height <= 0) continue;
+            MemoryFence.full(); // l'en-tête est lu avant les pixels
+
+            if (payload.length < payloadLength) payload = new byte[payloadLength];
+            remoteMemory.readBytes(payload, slotOffset + SLOT_HEADER_SIZE, 0, payloadLength);
+            MemoryFence.full(); // les pixels sont lus avant la séquence de contrôle
+
+            // Vérification que le slot n'a pas été écrasé pendant la copie
+            remoteMemory.readBytes(headerBytes, slotOffset, 0, 8);
+            if (header.getLong(0) != latestSequence) continue;
+
+            return toBitmap(width, height, pixelFormat, payloadLength);
+        }
+        return null;
+    }
+
+    private Bitmap toBitmap(int width, int height, int pixelFormat, int payloadLength) {
+        if (pixelFormat == PIXEL_FORMAT_JPEG || pixelFormat == PIXEL_FORMAT_PNG) {
+            return BitmapFactory.decodeByteArray(payload, 0, payloadLength); // fichier complet (stream_encoding, streams JPEG)
+        }
+        int bytesPerPixel = pixelFormat == PIXEL_FORMAT_RGBA ? 4 : pixelFormat == PIXEL_FORMAT_RGB ? 3 : 1;
+        int expectedLength = pixelFormat == PIXEL_FORMAT_NV21 ? width * height * 3 / 2 : width * height * bytesPerPixel;
+        if (payloadLength < expectedLength) return null;
+        if (pixels.length < width * height) pixels = new int[width * height];
+        for (int i = 0; i < width * height; i++) {
+            int r, g, b;
+            switch (pixelFormat) {
+                case PIXEL_FORMAT_RGBA: r = payload[4*i] & 0xFF; g = payload[4*i+1] & 0xFF; b = payload[4*i+2] & 0xFF; break;
+                case PIXEL_FORMAT_RGB: r = payload[3*i] & 0xFF; g = payload[3*i+1] & 0xFF; b = payload[3*i+2] & 0xFF; break;
+                case PIXEL_FORMAT_GRAY: r = g = b = payload[i] & 0xFF; break;
+                case PIXEL_FORMAT_NV21: {
+                    // plan Y, puis plan VU entrelacé sous-échantillonné 2x2 (BT.601)
+                    int x = i % width, y = i / width;
+                    int vu = width * height + (y / 2) * width + (x & ~1);
+                    int luma = (payload[i] & 0xFF) - 16;
+                    int v = (payload[vu] & 0xFF) - 128, u = (payload[vu + 1] & 0xFF) - 128;
+                    r = clamp((298 * luma + 409 * v + 128) >> 8);
+                    g = clamp((298 * luma - 100 * u - 208 * v + 128) >> 8);
+                    b = clamp((298 * luma + 516 * u + 128) >> 8);
+                    break;
+                }
+                default: return null;
+            }
+            pixels[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        return Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
@@ -0,0 +1,52 @@
+package com.bfr.main.visionservice;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.opencv.android.OpenCVLoader;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * La classe BenchmarkTest regroupe ce que partagent les tests de mesure : OpenCV est chargé avant chaque test,
+ * et les mesures sont affichées dans logcat sous le tag donné par le test.
+ * Les temps ne sont jamais vérifiés par des assertions (ils dépendent de l'appareil et de sa charge) : seuls les
+ * résultats et les allocations le sont.
+ */
+public abstract class BenchmarkTest {
+
+    private final String tag;
+
+    /**
+     * @param tag : le tag logcat des mesures du test
+     */
+    protected BenchmarkTest(String tag) {
+        this.tag = tag;
+    }
+
+    @Before
+    public void loadOpenCv() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    /**
+     * La fonction log() permet d'afficher une ligne de mesures dans logcat.
+     */
+    protected void log(String message) {
+        Log.i(tag, message);
+    }
+
+    /**
+     * @return : la valeur avec decimals décimales
+     */
+    protected static String format(double value, int decimals) {
+        return String.format("%." + decimals + "f", value);
+    }
+
+    /**
+     * @return : l'accélération d'une mesure par rapport à la mesure de référence, " (accélération xN.NN)"
+     */
+    protected static String speedup(double reference, double measured) {
+        return " (accélération x" + format(reference / measured, 2) + ")";
+    }
+}
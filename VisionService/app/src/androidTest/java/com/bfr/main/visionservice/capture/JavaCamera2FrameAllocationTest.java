@@ -0,0 +1,194 @@
+package com.bfr.main.visionservice.capture;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.ImageWriter;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.JavaCamera2View;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Vérifie que la conversion des frames Camera2 (JavaCamera2Frame réutilisée) n'alloue rien sur le tas Java
+ * en régime établi : seul le tableau renvoyé par Image.getPlanes() (copie défensive du framework) est toléré.
+ * Vérifie aussi les valeurs converties : un motif YUV connu est écrit dans l'ImageWriter, dans l'ordre mémoire
+ * des plans de chrominance choisi par le framework (I420, NV12 ou NV21), et comparé à la conversion I420 d'OpenCV.
+ */
+@RunWith(AndroidJUnit4.class)
+public class JavaCamera2FrameAllocationTest {
+
+    private static final int WIDTH = 1184;
+    private static final int HEIGHT = 800;
+    private static final int WARMUP_FRAMES = 5;
+    private static final int MEASURED_FRAMES = 50;
+
+    private ImageReader reader;
+    private ImageWriter writer;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+        reader = ImageReader.newInstance(WIDTH, HEIGHT, ImageFormat.YUV_420_888, 2);
+        writer = ImageWriter.newInstance(reader.getSurface(), 2);
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void steadyStateFrameLoopDoesNotAllocate() {
+        JavaCamera2View.JavaCamera2Frame frame = new JavaCamera2View.JavaCamera2Frame();
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            Image image = nextImage();
+            frame.setImage(image);
+            frame.gray();
+            frame.rgba();
+            image.close();
+        }
+
+        int maxFrameAllocations = 0;
+        int maxPlanesAllocations = 0;
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            Image image = nextImage();
+
+            // référence : allocations du framework pour un appel à getPlanes()
+            int planesAllocations = countAllocations(image, null);
+            maxPlanesAllocations = Math.max(maxPlanesAllocations, planesAllocations);
+
+            int frameAllocations = countAllocations(image, frame);
+            maxFrameAllocations = Math.max(maxFrameAllocations, frameAllocations);
+
+            Mat rgba = frame.rgba();
+            assertEquals(CvType.CV_8UC4, rgba.type());
+            assertEquals(WIDTH, rgba.cols());
+            assertEquals(HEIGHT, rgba.rows());
+            assertEquals(HEIGHT, frame.gray().rows());
+            image.close();
+        }
+
+        assertTrue("Allocations par frame : " + maxFrameAllocations + " (getPlanes() seul : " + maxPlanesAllocations + ")",
+                maxFrameAllocations <= maxPlanesAllocations);
+        frame.release();
+    }
+
+    @Test
+    public void convertedPixelsMatchWrittenYuv() {
+        JavaCamera2View.JavaCamera2Frame frame = new JavaCamera2View.JavaCamera2Frame();
+        byte[] i420 = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        for (int i = 0; i < 2; i++) { // 2 frames : la seconde réutilise l'ordre des plans déterminé sur la première
+            Image input = writer.dequeueInputImage();
+            writePattern(input, i, i420);
+            writer.queueInputImage(input);
+            Image image = acquireImage();
+            frame.setImage(image);
+
+            Mat expectedRgba = new Mat();
+            Mat yuv = new Mat(HEIGHT * 3 / 2, WIDTH, CvType.CV_8UC1);
+            yuv.put(0, 0, i420);
+            Imgproc.cvtColor(yuv, expectedRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+
+            assertSameBytes("plan Y", yuv.submat(0, HEIGHT, 0, WIDTH), frame.gray());
+            assertSameBytes("RGBA", expectedRgba, frame.rgba());
+            yuv.release();
+            expectedRgba.release();
+            image.close();
+        }
+        frame.release();
+    }
+
+    /**
+     * Ecrit un motif YUV (différent pour chaque frame et pour chaque échantillon de chrominance, pour qu'un décalage
+     * U/V se voie) dans les plans de l'image, en respectant leurs pas, et le recopie en I420 dans i420.
+     */
+    private static void writePattern(Image image, int seed, byte[] i420) {
+        Image.Plane[] planes = image.getPlanes();
+        int offset = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                byte value = (byte) (x + 3 * y + seed);
+                planes[0].getBuffer().put(y * planes[0].getRowStride() + x * planes[0].getPixelStride(), value);
+                i420[offset++] = value;
+            }
+        }
+        for (int p = 1; p <= 2; p++) {
+            ByteBuffer buffer = planes[p].getBuffer();
+            for (int y = 0; y < HEIGHT / 2; y++) {
+                for (int x = 0; x < WIDTH / 2; x++) {
+                    byte value = (byte) (p == 1 ? 16 + 5 * x + y + seed : 240 - 3 * x - 7 * y - seed);
+                    buffer.put(y * planes[p].getRowStride() + x * planes[p].getPixelStride(), value);
+                    i420[offset++] = value;
+                }
+            }
+        }
+    }
+
+    private static void assertSameBytes(String what, Mat expected, Mat actual) {
+        assertEquals(what + " : taille", expected.size(), actual.size());
+        assertEquals(what + " : type", expected.type(), actual.type());
+        int rowLength = (int) (expected.cols() * expected.elemSize());
+        byte[] expectedRow = new byte[rowLength];
+        byte[] actualRow = new byte[rowLength];
+        for (int y = 0; y < expected.rows(); y++) {
+            expected.row(y).reshape(1, 1).get(0, 0, expectedRow);
+            actual.row(y).reshape(1, 1).get(0, 0, actualRow);
+            assertArrayEquals(what + " : ligne " + y, expectedRow, actualRow);
+        }
+    }
+
+    /**
+     * Compte les allocations du thread courant pendant la conversion d'une frame
+     * (ou pendant un simple appel à getPlanes() si frame est null).
+     */
+    private static int countAllocations(Image image, JavaCamera2View.JavaCamera2Frame frame) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        if (frame == null) {
+            image.getPlanes();
+        } else {
+            frame.setImage(image);
+            frame.gray();
+            frame.rgba();
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Ecrit une image YUV dans le reader et l'acquiert
+     */
+    private Image nextImage() {
+        Image input = writer.dequeueInputImage();
+        writer.queueInputImage(input);
+        return acquireImage();
+    }
+
+    private Image acquireImage() {
+        Image image = null;
+        long deadline = SystemClock.elapsedRealtime() + 1000;
+        while (image == null && SystemClock.elapsedRealtime() < deadline) {
+            image = reader.acquireNextImage();
+            if (image == null) SystemClock.sleep(1);
+        }
+        assertNotNull("Aucune image reçue de l'ImageWriter", image);
+        return image;
+    }
+}
@@ -0,0 +1,164 @@
+package com.bfr.main.visionservice.models;
+
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.bfr.main.visionservice.BenchmarkTest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare l'envoi des résultats de tags via DetectionResults (tableaux de primitives) et via le JSON de getTagsInfos() :
+ * taille du Parcel et temps d'un aller-retour (construction + écriture dans le Parcel + relecture côté client).
+ *
+ * Deux variantes JSON sont mesurées : celle de getTagsInfos() (id + valeur) et la même enrichie des coins,
+ * pour comparer à contenu égal.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectionResultsBenchmarkTest extends BenchmarkTest {
+
+    private static final String TAG = "DetectionResultsBenchmark";
+
+    private static final int[] TAG_COUNTS = {1, 10, 50};
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 2000;
+
+    public DetectionResultsBenchmarkTest() {
+        super(TAG);
+    }
+
+    @Test
+    public void packedRoundTripPreservesResults() {
+        int[] ids = randomIds(5);
+        float[] corners = randomCorners(5);
+        DetectionResults results = packed(ids, corners);
+
+        Parcel parcel = Parcel.obtain();
+        results.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        DetectionResults copy = DetectionResults.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        assertEquals("zoom", copy.getCamera());
+        assertEquals(42, copy.getFrameSequence());
+        assertEquals(123456789L, copy.getTimestampNs());
+        assertArrayEquals(ids, copy.getTagIds());
+        assertArrayEquals(corners, copy.getTagCorners(), 0f);
+        assertEquals(0, copy.getNumberOfFaces());
+    }
+
+    @Test
+    public void packedParcelIsSmallerThanJson() throws Exception {
+        for (int count : TAG_COUNTS) {
+            int[] ids = randomIds(count);
+            float[] corners = randomCorners(count);
+
+            int packedSize = packedRoundTrip(ids, corners);
+            int jsonSize = jsonRoundTrip(ids, corners, false);
+            int jsonCornersSize = jsonRoundTrip(ids, corners, true);
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                packedRoundTrip(ids, corners);
+                jsonRoundTrip(ids, corners, false);
+                jsonRoundTrip(ids, corners, true);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) packedRoundTrip(ids, corners);
+            double packedUs = (System.nanoTime() - start) / 1e3 / MEASURED_ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) jsonRoundTrip(ids, corners, false);
+            double jsonUs = (System.nanoTime() - start) / 1e3 / MEASURED_ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) jsonRoundTrip(ids, corners, true);
+            double jsonCornersUs = (System.nanoTime() - start) / 1e3 / MEASURED_ITERATIONS;
+
+            log(count + " tags : DetectionResults " + packedSize + " octets / " + format(packedUs, 1) + " us"
+                    + " | JSON getTagsInfos " + jsonSize + " octets / " + format(jsonUs, 1) + " us"
+                    + " | JSON + coins " + jsonCornersSize + " octets / " + format(jsonCornersUs, 1) + " us"
+                    + speedup(jsonCornersUs, packedUs));
+
+            assertTrue("Parcel DetectionResults (" + packedSize + ") plus grand que le JSON à contenu égal (" + jsonCornersSize + ")",
+                    packedSize < jsonCornersSize);
+        }
+    }
+
+    /**
+     * Aller-retour DetectionResults : construction, écriture, relecture
+     * @return : la taille du Parcel
+     */
+    private static int packedRoundTrip(int[] ids, float[] corners) {
+        Parcel parcel = Parcel.obtain();
+        packed(ids, corners).writeToParcel(parcel, 0);
+        int size = parcel.dataSize();
+        parcel.setDataPosition(0);
+        DetectionResults copy = DetectionResults.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+        assertEquals(ids.length, copy.getNumberOfTags());
+        return size;
+    }
+
+    /**
+     * Aller-retour JSON (comme getTagsInfos()) : construction, toString, écriture du String, relecture et parsing
+     * @return : la taille du Parcel
+     */
+    private static int jsonRoundTrip(int[] ids, float[] corners, boolean withCorners) throws Exception {
+        JSONObject tagsInfos = new JSONObject();
+        JSONArray arrayTags = new JSONArray();
+        tagsInfos.put("numberOfTags", ids.length);
+        for (int k = 0; k < ids.length; k++) {
+            JSONObject tag = new JSONObject();
+            tag.put("id", k);
+            tag.put("value", (double) ids[k]);
+            if (withCorners) {
+                JSONArray tagCorners = new JSONArray();
+                for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c++) {
+                    tagCorners.put((double) corners[k * DetectionResults.CORNERS_PER_TAG + c]);
+                }
+                tag.put("corners", tagCorners);
+            }
+            arrayTags.put(tag);
+        }
+        tagsInfos.put("tags", arrayTags);
+
+        Parcel parcel = Parcel.obtain();
+        parcel.writeString(tagsInfos.toString());
+        int size = parcel.dataSize();
+        parcel.setDataPosition(0);
+        JSONObject copy = new JSONObject(parcel.readString());
+        parcel.recycle();
+        assertEquals(ids.length, copy.getInt("numberOfTags"));
+        return size;
+    }
+
+    private static DetectionResults packed(int[] ids, float[] corners) {
+        DetectionResults results = new DetectionResults("zoom", 42, 123456789L);
+        float[] scores = new float[ids.length];
+        for (int k = 0; k < scores.length; k++) scores[k] = 1f;
+        results.setTags(ids, corners, scores);
+        return results;
+    }
+
+    private static int[] randomIds(int count) {
+        Random random = new Random(count);
+        int[] ids = new int[count];
+        for (int k = 0; k < count; k++) ids[k] = random.nextInt(587); // DICT_APRILTAG_36h11 : 587 valeurs
+        return ids;
+    }
+
+    private static float[] randomCorners(int count) {
+        Random random = new Random(31 * count);
+        float[] corners = new float[count * DetectionResults.CORNERS_PER_TAG];
+        for (int c = 0; c < corners.length; c++) corners[c] = random.nextFloat() * 1184f;
+        return corners;
+    }
+}
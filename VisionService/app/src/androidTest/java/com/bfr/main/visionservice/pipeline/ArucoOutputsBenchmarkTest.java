@@ -0,0 +1,142 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.bfr.main.visionservice.BenchmarkTest;
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare la lecture des sorties de Aruco.detectMarkers() élément par élément (ids.get(k, 0)[0] et 8 corners.get(k).get(0, c)[i]
+ * par tag, comme l'ancien code des activités et de getTagsInfos()) et par ArucoOutputs (un get() pour les valeurs, un par tag
+ * pour les coins, dans des tableaux réutilisés) : temps par frame et allocations par frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ArucoOutputsBenchmarkTest extends BenchmarkTest {
+
+    private static final String TAG = "ArucoOutputsBenchmark";
+
+    private static final int[] TAG_COUNTS = {1, 10, 50};
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 2000;
+
+    private final int[] ids = new int[64];
+    private final float[] corners = new float[64 * DetectionResults.CORNERS_PER_TAG];
+
+    public ArucoOutputsBenchmarkTest() {
+        super(TAG);
+    }
+
+    @Test
+    public void bulkReadMatchesPerElementRead() {
+        List<Mat> tagCorners = new ArrayList<>();
+        Mat tagIds = new Mat();
+        detectionOutputs(10, tagCorners, tagIds);
+
+        assertEquals(10, ArucoOutputs.readIds(tagIds, ids));
+        assertEquals(10, ArucoOutputs.readCorners(tagCorners, corners, tagCorners.size()));
+        for (int k = 0; k < 10; k++) {
+            assertEquals((int) tagIds.get(k, 0)[0], ids[k]);
+            for (int c = 0; c < DetectionResults.CORNERS_PER_TAG / 2; c++) {
+                assertEquals(tagCorners.get(k).get(0, c)[0], corners[k * DetectionResults.CORNERS_PER_TAG + 2 * c], 0);
+                assertEquals(tagCorners.get(k).get(0, c)[1], corners[k * DetectionResults.CORNERS_PER_TAG + 2 * c + 1], 0);
+            }
+        }
+    }
+
+    @Test
+    public void bulkReadDoesNotAllocate() {
+        for (int count : TAG_COUNTS) {
+            List<Mat> tagCorners = new ArrayList<>();
+            Mat tagIds = new Mat();
+            detectionOutputs(count, tagCorners, tagIds);
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                perElementRead(tagCorners, tagIds);
+                bulkRead(tagCorners, tagIds);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) perElementRead(tagCorners, tagIds);
+            double perElementUs = (System.nanoTime() - start) / 1e3 / MEASURED_ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) bulkRead(tagCorners, tagIds);
+            double bulkUs = (System.nanoTime() - start) / 1e3 / MEASURED_ITERATIONS;
+
+            int perElementAllocations = countAllocations(tagCorners, tagIds, false);
+            int bulkAllocations = countAllocations(tagCorners, tagIds, true);
+
+            log(count + " tags : élément par élément " + format(perElementUs, 1) + " us / " + perElementAllocations + " allocations"
+                    + " | ArucoOutputs " + format(bulkUs, 1) + " us / " + bulkAllocations + " allocations"
+                    + speedup(perElementUs, bulkUs));
+
+            assertEquals("ArucoOutputs alloue pendant la lecture de " + count + " tags", 0, bulkAllocations);
+        }
+    }
+
+    /**
+     * Lecture comme l'ancien code : un get(row, col) par valeur et par coin, chacun alloue un double[]
+     */
+    private float perElementRead(List<Mat> tagCorners, Mat tagIds) {
+        float sum = 0;
+        for (int k = 0; k < tagCorners.size(); k++) {
+            sum += (int) tagIds.get(k, 0)[0];
+            for (int c = 0; c < DetectionResults.CORNERS_PER_TAG / 2; c++) {
+                sum += (float) tagCorners.get(k).get(0, c)[0];
+                sum += (float) tagCorners.get(k).get(0, c)[1];
+            }
+        }
+        return sum;
+    }
+
+    private float bulkRead(List<Mat> tagCorners, Mat tagIds) {
+        int count = ArucoOutputs.readIds(tagIds, ids);
+        ArucoOutputs.readCorners(tagCorners, corners, count);
+        float sum = 0;
+        for (int k = 0; k < count; k++) sum += ids[k];
+        for (int c = 0; c < count * DetectionResults.CORNERS_PER_TAG; c++) sum += corners[c];
+        return sum;
+    }
+
+    /**
+     * Compte les allocations du thread courant pendant une lecture
+     */
+    private int countAllocations(List<Mat> tagCorners, Mat tagIds, boolean bulk) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        if (bulk) bulkRead(tagCorners, tagIds);
+        else perElementRead(tagCorners, tagIds);
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Sorties de Aruco.detectMarkers() simulées : une Mat 1x4 CV_32FC2 de coins par tag, une Mat Nx1 CV_32S de valeurs
+     */
+    private static void detectionOutputs(int count, List<Mat> tagCorners, Mat tagIds) {
+        Random random = new Random(count);
+        int[] values = new int[count];
+        float[] points = new float[DetectionResults.CORNERS_PER_TAG];
+        for (int k = 0; k < count; k++) {
+            values[k] = random.nextInt(587); // DICT_APRILTAG_36h11 : 587 valeurs
+            for (int c = 0; c < points.length; c++) points[c] = random.nextFloat() * 1184f;
+            Mat corner = new Mat(1, DetectionResults.CORNERS_PER_TAG / 2, CvType.CV_32FC2);
+            corner.put(0, 0, points);
+            tagCorners.add(corner);
+        }
+        tagIds.create(count, 1, CvType.CV_32S);
+        tagIds.put(0, 0, values);
+    }
+}
@@ -0,0 +1,157 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.bfr.main.visionservice.capture.FileFrameSource;
+import com.bfr.main.visionservice.capture.FrameSource;
+import com.bfr.main.visionservice.models.DetectionResults;
+import com.bfr.main.visionservice.services.FrameNotifier;
+import com.bfr.main.visionservice.services.ResultNotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fait tourner le pipeline d'une caméra (FramePipeline) sur des frames enregistrées rejouées par FileFrameSource,
+ * exactement comme sur les frames de la caméra : les tags des frames synthétiques (écrites en PNG dans le cache de l'application)
+ * doivent tous être retrouvés dans l'historique des détections, frame par frame.
+ * Les étages s'exécutent sur le thread de la source (Executor direct) pour que chaque frame soit traitée.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FileFrameSourcePipelineTest {
+
+    private static final String TAG = "FileFrameSourcePipeline";
+
+    private static final int SYNTHETIC_FRAMES = 12;
+    private static final long TIMEOUT_S = 60;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Listener qui transmet les frames au pipeline et signale l'arrêt de la source
+     */
+    private static class StoppedListener implements FrameSource.Listener {
+        final FrameSource.Listener pipeline;
+        final CountDownLatch stopped = new CountDownLatch(1);
+        int frames;
+
+        StoppedListener(FrameSource.Listener pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public void onSourceStarted(int width, int height) {
+            if (pipeline != null) pipeline.onSourceStarted(width, height);
+        }
+
+        @Override
+        public Mat onFrame(CameraBridgeViewBase.CvCameraViewFrame frame, long timestampNs) {
+            frames++;
+            return pipeline != null ? pipeline.onFrame(frame, timestampNs) : null;
+        }
+
+        @Override
+        public void onSourceStopped() {
+            if (pipeline != null) pipeline.onSourceStopped();
+            stopped.countDown();
+        }
+    }
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+        directory = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "file_frame_source_test");
+        deleteDirectory();
+        assertTrue(directory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void pipelineFindsEachTagOfRecordedFrames() throws Exception {
+        List<Mat> frames = new ArrayList<>();
+        List<int[]> ids = new ArrayList<>();
+        List<float[]> corners = new ArrayList<>();
+        for (int f = 0; f < SYNTHETIC_FRAMES; f++) {
+            TagFrames.syntheticFrame(f, frames, ids, corners);
+            assertTrue(Imgcodecs.imwrite(new File(directory, String.format("frame_%03d.png", f)).getPath(), frames.get(f)));
+        }
+
+        FramePipeline pipeline = new FramePipeline("grand-angle", 0, null, null, new FrameNotifier(), new ResultNotifier(),
+                new DetectionHistory(TimeUnit.HOURS.toNanos(1), SYNTHETIC_FRAMES, 64),
+                new TagDetector(1, 0, 1, false, 0, null, 1, 0), // scan complet à chaque frame
+                LatestFrameMailbox.DropPolicy.DROP_OLDEST, LatestFrameMailbox.DropPolicy.DROP_OLDEST, DIRECT, DIRECT);
+        StoppedListener listener = new StoppedListener(pipeline);
+        FileFrameSource source = new FileFrameSource(directory, 0, false); // aussi vite que possible
+
+        long start = System.nanoTime();
+        assertTrue(source.start(listener));
+        assertTrue("la lecture des frames ne s'est pas terminée", listener.stopped.await(TIMEOUT_S, TimeUnit.SECONDS));
+        double msPerFrame = (System.nanoTime() - start) / 1e6 / SYNTHETIC_FRAMES;
+        Log.i(TAG, SYNTHETIC_FRAMES + " frames : " + String.format("%.2f", msPerFrame) + " ms/frame (lecture PNG, conversion, détection)");
+
+        assertEquals(SYNTHETIC_FRAMES, listener.frames);
+        DetectionResults[] results = pipeline.getDetectionHistory().getSince("grand-angle", 0);
+        assertEquals("frames sans détection", SYNTHETIC_FRAMES, results.length);
+        for (int f = 0; f < SYNTHETIC_FRAMES; f++) {
+            DetectionResults result = results[f];
+            assertEquals(f + 1, result.getFrameSequence());
+            int[] found = result.getTagIds().clone();
+            int[] expected = ids.get(f).clone();
+            Arrays.sort(found);
+            Arrays.sort(expected);
+            assertArrayEquals("tags de la frame " + f, expected, found);
+        }
+    }
+
+    @Test
+    public void loopStopsWhenNoFrameIsReadable() throws Exception {
+        FileOutputStream corrupted = new FileOutputStream(new File(directory, "corrupted.png"));
+        corrupted.write(new byte[]{1, 2, 3, 4});
+        corrupted.close();
+
+        StoppedListener listener = new StoppedListener(null);
+        FileFrameSource source = new FileFrameSource(directory, 0, true);
+        assertTrue(source.start(listener));
+        assertTrue("la lecture en boucle d'un dossier illisible ne s'arrête pas", listener.stopped.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(0, listener.frames);
+        assertFalse(source.isRunning());
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+}
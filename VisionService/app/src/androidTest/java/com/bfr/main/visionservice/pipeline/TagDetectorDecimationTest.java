@@ -0,0 +1,151 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.bfr.main.visionservice.BenchmarkTest;
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare le scan complet de TagDetector à pleine résolution et sur l'image réduite (facteurs 2 et 4) avec affinage des coins :
+ * temps moyen par frame (accélération) et écart moyen / maximal des coins.
+ *      - frames synthétiques : tags dessinés puis tournés, l'écart est mesuré par rapport aux coins exacts.
+ *      - frames enregistrées (file_frame_source_path/grand-angle et /zoom, si présentes sur l'appareil) : l'écart est mesuré
+ *        par rapport à la détection pleine résolution.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TagDetectorDecimationTest extends BenchmarkTest {
+
+    private static final String TAG = "TagDetectorDecimation";
+
+    private static final int[] DECIMATIONS = {1, 2, 4};
+    private static final int SYNTHETIC_FRAMES = 12;
+    private static final int REPEATS = 5;
+
+    /**
+     * Résultat d'une configuration sur tout le jeu de frames
+     */
+    private static class Report {
+        double msPerFrame;
+        int found;
+        int expected;
+        double meanCornerError;
+        double maxCornerError;
+    }
+
+    public TagDetectorDecimationTest() {
+        super(TAG);
+    }
+
+    @Test
+    public void decimatedScanFindsSyntheticTagsWithSubPixelCorners() {
+        List<Mat> frames = new ArrayList<>();
+        List<float[]> truths = new ArrayList<>();
+        List<int[]> truthIds = new ArrayList<>();
+        for (int f = 0; f < SYNTHETIC_FRAMES; f++) TagFrames.syntheticFrame(f, frames, truthIds, truths);
+
+        Report fullResolution = null;
+        for (int decimation : DECIMATIONS) {
+            Report report = run(frames, truthIds, truths, decimation);
+            log("synthétique", decimation, report, fullResolution);
+            if (decimation == 1) fullResolution = report;
+
+            if (decimation > 2) continue; // x4 : les plus petits tags ne sont plus lisibles, réservé à la caméra zoom
+            assertEquals("tags manqués avec la réduction x" + decimation, report.expected, report.found);
+            assertTrue("coins moins précis que 1 px avec la réduction x" + decimation + " : " + report.meanCornerError,
+                    report.meanCornerError < 1.0);
+        }
+    }
+
+    @Test
+    public void decimatedScanOnRecordedFrames() {
+        boolean recorded = false;
+        for (String camera : new String[]{"grand-angle", "zoom"}) {
+            List<Mat> frames = TagFrames.recordedFrames(camera);
+            if (frames.isEmpty()) continue;
+            recorded = true;
+
+            // référence : la détection pleine résolution
+            List<int[]> referenceIds = new ArrayList<>();
+            List<float[]> referenceCorners = new ArrayList<>();
+            TagDetector reference = new TagDetector(1, 0, 1, false, 0, null, 1, 0);
+            for (Mat frame : frames) {
+                List<Mat> corners = new ArrayList<>();
+                Mat ids = new Mat();
+                reference.detect(frame, corners, ids);
+                referenceIds.add(TagFrames.toIds(ids));
+                referenceCorners.add(TagFrames.toCorners(corners));
+            }
+
+            Report fullResolution = null;
+            for (int decimation : DECIMATIONS) {
+                Report report = run(frames, referenceIds, referenceCorners, decimation);
+                log(camera + " (" + frames.size() + " frames)", decimation, report, fullResolution);
+                if (decimation == 1) fullResolution = report;
+            }
+        }
+        Assume.assumeTrue("aucune frame enregistrée (file_frame_source_path)", recorded);
+    }
+
+    /**
+     * Scan complet de toutes les frames (REPEATS fois) avec un facteur de réduction, comparé aux coins attendus
+     */
+    private static Report run(List<Mat> frames, List<int[]> expectedIds, List<float[]> expectedCorners, int decimation) {
+        TagDetector detector = new TagDetector(1, 0, decimation, false, 0, null, 1, 0); // scan complet à chaque frame
+        List<Mat> corners = new ArrayList<>();
+        Mat ids = new Mat();
+        Report report = new Report();
+
+        for (Mat frame : frames) detector.detect(frame, corners, ids); // warmup
+        long start = System.nanoTime();
+        for (int r = 0; r < REPEATS; r++) {
+            for (Mat frame : frames) detector.detect(frame, corners, ids);
+        }
+        report.msPerFrame = (System.nanoTime() - start) / 1e6 / (REPEATS * frames.size());
+
+        double errorSum = 0;
+        int errorCount = 0;
+        for (int f = 0; f < frames.size(); f++) {
+            detector.detect(frames.get(f), corners, ids);
+            int[] foundIds = TagFrames.toIds(ids);
+            float[] foundCorners = TagFrames.toCorners(corners);
+            int[] wantedIds = expectedIds.get(f);
+            float[] wantedCorners = expectedCorners.get(f);
+            report.expected += wantedIds.length;
+            for (int w = 0; w < wantedIds.length; w++) {
+                for (int k = 0; k < foundIds.length; k++) {
+                    if (foundIds[k] != wantedIds[w]) continue;
+                    report.found++;
+                    for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+                        double dx = foundCorners[k * DetectionResults.CORNERS_PER_TAG + c] - wantedCorners[w * DetectionResults.CORNERS_PER_TAG + c];
+                        double dy = foundCorners[k * DetectionResults.CORNERS_PER_TAG + c + 1] - wantedCorners[w * DetectionResults.CORNERS_PER_TAG + c + 1];
+                        double error = Math.sqrt(dx * dx + dy * dy);
+                        errorSum += error;
+                        errorCount++;
+                        report.maxCornerError = Math.max(report.maxCornerError, error);
+                    }
+                    break;
+                }
+            }
+        }
+        report.meanCornerError = errorCount > 0 ? errorSum / errorCount : 0;
+        return report;
+    }
+
+    private void log(String frameSet, int decimation, Report report, Report fullResolution) {
+        log(frameSet + " x" + decimation + " : " + format(report.msPerFrame, 2) + " ms/frame"
+                + (fullResolution != null ? speedup(fullResolution.msPerFrame, report.msPerFrame) : "")
+                + " | tags " + report.found + "/" + report.expected
+                + " | écart des coins moyen " + format(report.meanCornerError, 3) + " px"
+                + " max " + format(report.maxCornerError, 3) + " px");
+    }
+}
@@ -0,0 +1,136 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.bfr.main.visionservice.BenchmarkTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mesure la mise à l'échelle du scan complet découpé en tuiles de TagDetector, de 1 à N threads (N = nombre de coeurs) :
+ * temps moyen par frame, accélération par rapport à 1 thread et nombre de tags trouvés (les doublons des zones de
+ * chevauchement doivent être fusionnés). Les tuiles tournent sur un VisionWorkerPool, comme dans le service.
+ *      - frames synthétiques : les tags de chaque frame doivent être trouvés une seule fois, quel que soit le nombre de threads.
+ *      - frames enregistrées (file_frame_source_path/grand-angle et /zoom, si présentes sur l'appareil) : mesures seules.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TagDetectorTilingBenchmarkTest extends BenchmarkTest {
+
+    private static final String TAG = "TagDetectorTiling";
+
+    private static final int SYNTHETIC_FRAMES = 12;
+    private static final int REPEATS = 5;
+    private static final int MAX_TAG_SIZE = 240;
+
+    private VisionWorkerPool workerPool;
+
+    public TagDetectorTilingBenchmarkTest() {
+        super(TAG);
+    }
+
+    @Before
+    public void setUp() {
+        workerPool = new VisionWorkerPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @After
+    public void tearDown() {
+        workerPool.shutdown();
+    }
+
+    @Test
+    public void tiledScanScalesAndFindsEachSyntheticTagOnce() {
+        List<Mat> frames = new ArrayList<>();
+        List<int[]> ids = new ArrayList<>();
+        List<float[]> corners = new ArrayList<>();
+        for (int f = 0; f < SYNTHETIC_FRAMES; f++) {
+            TagFrames.syntheticFrame(f, frames, ids, corners);
+            Arrays.sort(ids.get(f));
+        }
+
+        double singleThreadMs = 0;
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads++) {
+            TagDetector detector = newDetector(threads);
+            double ms = msPerFrame(detector, frames);
+            if (threads == 1) singleThreadMs = ms;
+            List<int[]> found = detectIds(detector, frames);
+            log("synthétique", threads, ms, singleThreadMs, found);
+
+            for (int f = 0; f < SYNTHETIC_FRAMES; f++) {
+                assertArrayEquals("tags perdus ou en double dans la frame " + f + " avec " + threads + " thread(s)",
+                        ids.get(f), found.get(f));
+            }
+        }
+    }
+
+    @Test
+    public void tiledScanScalingOnRecordedFrames() {
+        for (String camera : new String[]{"grand-angle", "zoom"}) {
+            List<Mat> frames = TagFrames.recordedFrames(camera);
+            if (frames.isEmpty()) {
+                log(camera + " : aucune frame enregistrée (file_frame_source_path)");
+                continue;
+            }
+            double singleThreadMs = 0;
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads++) {
+                TagDetector detector = newDetector(threads);
+                double ms = msPerFrame(detector, frames);
+                if (threads == 1) singleThreadMs = ms;
+                log(camera + " (" + frames.size() + " frames)", threads, ms, singleThreadMs, detectIds(detector, frames));
+            }
+        }
+    }
+
+    /**
+     * Détecteur en scan complet à chaque frame, à pleine résolution, découpé pour threads threads (appelant compris)
+     */
+    private TagDetector newDetector(int threads) {
+        BudgetedExecutor tileBudget = threads > 1 ? workerPool.newBudget("tags-" + threads, threads - 1) : null;
+        return new TagDetector(1, 0, 1, false, 0, tileBudget, threads, MAX_TAG_SIZE);
+    }
+
+    private static double msPerFrame(TagDetector detector, List<Mat> frames) {
+        List<Mat> corners = new ArrayList<>();
+        Mat ids = new Mat();
+        for (Mat frame : frames) detector.detect(frame, corners, ids); // warmup
+        long start = System.nanoTime();
+        for (int r = 0; r < REPEATS; r++) {
+            for (Mat frame : frames) detector.detect(frame, corners, ids);
+        }
+        return (System.nanoTime() - start) / 1e6 / (REPEATS * frames.size());
+    }
+
+    /**
+     * @return : les valeurs (triées) des tags trouvés dans chaque frame
+     */
+    private static List<int[]> detectIds(TagDetector detector, List<Mat> frames) {
+        List<Mat> corners = new ArrayList<>();
+        Mat ids = new Mat();
+        List<int[]> found = new ArrayList<>(frames.size());
+        for (Mat frame : frames) {
+            detector.detect(frame, corners, ids);
+            int[] frameIds = TagFrames.toIds(ids);
+            Arrays.sort(frameIds);
+            found.add(frameIds);
+        }
+        return found;
+    }
+
+    private void log(String frameSet, int threads, double ms, double singleThreadMs, List<int[]> ids) {
+        int found = 0;
+        for (int[] frameIds : ids) found += frameIds.length;
+        log(frameSet + " " + threads + " thread(s) : " + format(ms, 2) + " ms/frame"
+                + speedup(singleThreadMs, ms)
+                + " | tags " + found);
+    }
+}
@@ -0,0 +1,98 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.support.test.InstrumentationRegistry;
+
+import com.bfr.main.visionservice.R;
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import org.opencv.aruco.Aruco;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Jeux de frames des tests de TagDetector : frames synthétiques (coins exacts connus) et frames enregistrées sur l'appareil.
+ */
+class TagFrames {
+
+    static final int WIDTH = 1184;
+    static final int HEIGHT = 800;
+
+    /**
+     * Frame synthétique : tags de tailles variées sur fond blanc, tournés d'un angle non entier, légèrement flous.
+     * Les coins exacts suivent la convention d'Aruco (bord extérieur de la bordure noire, ordre horaire depuis le coin haut-gauche).
+     */
+    static void syntheticFrame(int index, List<Mat> frames, List<int[]> ids, List<float[]> corners) {
+        int[] sizes = {64, 96, 128, 160, 200};
+        Mat canvas = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1, new Scalar(255));
+        int[] frameIds = new int[sizes.length];
+        float[] frameCorners = new float[sizes.length * DetectionResults.CORNERS_PER_TAG];
+        Mat marker = new Mat();
+
+        int x = 60 + 7 * index;
+        for (int k = 0; k < sizes.length; k++) {
+            int size = sizes[k];
+            int y = 150 + (37 * (index + k)) % (HEIGHT - 300 - size);
+            frameIds[k] = (index * sizes.length + k) % 587;
+            Aruco.drawMarker(Aruco.getPredefinedDictionary(Aruco.DICT_APRILTAG_36h11), frameIds[k], size, marker, 1);
+            marker.copyTo(canvas.submat(y, y + size, x, x + size));
+            float[] square = {x - 0.5f, y - 0.5f, x + size - 0.5f, y - 0.5f, x + size - 0.5f, y + size - 0.5f, x - 0.5f, y + size - 0.5f};
+            System.arraycopy(square, 0, frameCorners, k * DetectionResults.CORNERS_PER_TAG, DetectionResults.CORNERS_PER_TAG);
+            x += size + 24;
+        }
+
+        Mat rotation = Imgproc.getRotationMatrix2D(new Point(WIDTH / 2.0, HEIGHT / 2.0), 3.7 * (index % 5) - 7.3, 1.0);
+        double[] m = new double[6];
+        rotation.get(0, 0, m);
+        Mat frame = new Mat();
+        Imgproc.warpAffine(canvas, frame, rotation, new Size(WIDTH, HEIGHT), Imgproc.INTER_LINEAR, Core.BORDER_CONSTANT, new Scalar(255));
+        Imgproc.GaussianBlur(frame, frame, new Size(3, 3), 0.8);
+        for (int c = 0; c < frameCorners.length; c += 2) {
+            float cx = frameCorners[c], cy = frameCorners[c + 1];
+            frameCorners[c] = (float) (m[0] * cx + m[1] * cy + m[2]);
+            frameCorners[c + 1] = (float) (m[3] * cx + m[4] * cy + m[5]);
+        }
+
+        frames.add(frame);
+        ids.add(frameIds);
+        corners.add(frameCorners);
+    }
+
+    /**
+     * Frames enregistrées d'une caméra (file_frame_source_path/camera), en niveaux de gris ; liste vide si absentes
+     */
+    static List<Mat> recordedFrames(String camera) {
+        String root = InstrumentationRegistry.getInstrumentation().getTargetContext().getString(R.string.file_frame_source_path);
+        List<Mat> frames = new ArrayList<>();
+        File[] files = new File(root, camera).listFiles();
+        if (files == null) return frames;
+        Arrays.sort(files);
+        for (File file : files) {
+            Mat frame = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+            if (!frame.empty()) frames.add(frame);
+        }
+        return frames;
+    }
+
+    static int[] toIds(Mat ids) {
+        int[] values = new int[ids.rows()];
+        ArucoOutputs.readIds(ids, values);
+        return values;
+    }
+
+    static float[] toCorners(List<Mat> corners) {
+        float[] values = new float[corners.size() * DetectionResults.CORNERS_PER_TAG];
+        ArucoOutputs.readCorners(corners, values, corners.size());
+        return values;
+    }
+}
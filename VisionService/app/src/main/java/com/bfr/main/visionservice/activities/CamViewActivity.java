@@ -0,0 +1,181 @@
+package com.bfr.main.visionservice.activities;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.WindowManager;
+
+import com.bfr.main.visionservice.R;
+import com.bfr.main.visionservice.application.VisionServiceApplication;
+import com.bfr.main.visionservice.capture.CameraBridgeFrameSource;
+import com.bfr.main.visionservice.observer.IDBObserver;
+import com.bfr.main.visionservice.pipeline.FramePipeline;
+
+import org.opencv.android.BaseLoaderCallback;
+import org.opencv.android.CameraActivity;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.LoaderCallbackInterface;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * La classe CamViewActivity représente l'activité de camera fournie par openCV via CameraActivity, pour la caméra
+ * "grand-angle" ou "zoom" passée en extra [EXTRA_CAMERA]. Une instance est ouverte par caméra : les deux caméras peuvent tourner en même temps.
+ * Nous utilisons cette activité pour récupérer la frame openCV : la vue openCV est la source de frames (CameraBridgeFrameSource)
+ * du pipeline de la caméra (FramePipeline)
+ * Cette activité se lance de façon transparente sur les autres applications
+ * (n'est pas visible + absence de focus pour ne pas bloquer les touches sur les autres applications)
+ */
+public class CamViewActivity extends CameraActivity implements IDBObserver {
+
+    private static final String TAG = "SERVICE_VISION_CamViewActivity";
+
+    public static final String EXTRA_CAMERA = "camera"; // Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+    public static final String MESSAGE_FINISH = "finishCam:"; // message IDBObserver pour fermer l'activité d'une caméra [finishCam:<camera>]
+
+    private CameraBridgeViewBase mOpenCvCameraView;
+    private VisionServiceApplication application;
+    private String camera;
+    private FramePipeline framePipeline;
+    private CameraBridgeFrameSource frameSource; // la vue openCV comme source de frames du pipeline de la caméra
+    private View decorView;
+
+    /**
+     * Callback d'initialisation openCV
+     */
+    private BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
+        @Override
+        public void onManagerConnected(int status) {
+            switch (status) {
+                case LoaderCallbackInterface.SUCCESS: {
+                    Log.i(TAG, "OpenCV loaded successfully!");
+                    //Choix de caméra (selon la version du robot) puis activation du preview
+                    mOpenCvCameraView.setCameraIndex(application.getCameraIndex(camera));
+                    frameSource.start(framePipeline);
+                }
+                break;
+                default: {
+                    super.onManagerConnected(status);
+                }
+                break;
+            }
+        }
+    };
+
+    /**
+     * Initialisations
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        //Désactivation du focus sur l'activité pour ne pas bloquer les touches sur les autres applications
+        getWindow().addFlags( WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                | WindowManager.LayoutParams.FLAG_NOT_TOUCH_MODAL
+                | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE
+                | WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON
+        );
+
+        //Liaison au layout
+        setContentView(R.layout.activity_cam_view);
+
+        //Récupération du contexte d'Application + du pipeline de la caméra
+        application = (VisionServiceApplication) getApplicationContext();
+        camera = getIntent().getStringExtra(EXTRA_CAMERA);
+        framePipeline = camera != null ? application.getFramePipeline(camera) : null;
+        if(framePipeline == null){
+            Log.e(TAG, "Caméra inconnue : " + camera);
+            finish();
+            return;
+        }
+
+        //cacher les barres systemUI
+        application.hideSystemUI(this);
+        decorView=getWindow().getDecorView();
+        decorView.setOnSystemUiVisibilityChangeListener(new View.OnSystemUiVisibilityChangeListener() {
+            @Override
+            public void onSystemUiVisibilityChange(int visibility) {
+                if(visibility==0){
+                    decorView.setSystemUiVisibility(application.hideSystemUI(CamViewActivity.this));
+                }
+            }
+        });
+
+        //Enregistrement de l'Observer (pour recevoir les notifications)
+        application.registerObserver(this);
+
+        // configure camera listener
+        mOpenCvCameraView = (CameraBridgeViewBase) findViewById(R.id.CameraView);
+        mOpenCvCameraView.setVisibility(CameraBridgeViewBase.VISIBLE);
+        //Politique de dessin du preview (l'activité est invisible : par défaut les frames ne sont pas dessinées)
+        int previewRenderMaxFps = Integer.parseInt(getString(R.string.preview_render_max_fps));
+        if(previewRenderMaxFps > 0) mOpenCvCameraView.setRenderPolicy(CameraBridgeViewBase.RENDER_MAX_FPS, previewRenderMaxFps);
+        else mOpenCvCameraView.setRenderPolicy(CameraBridgeViewBase.RENDER_NEVER, 0);
+        frameSource = new CameraBridgeFrameSource(mOpenCvCameraView);
+
+    }
+
+    /**
+     *  Lancement d'initialisation openCV
+     */
+    @Override
+    public void onResume() {
+        super.onResume();
+        if(framePipeline == null) return;
+        // OpenCV est chargé une seule fois pour le processus (voir StartupOrchestrator)
+        application.getStartup().ensureOpenCvLoaded();
+        mLoaderCallback.onManagerConnected(LoaderCallbackInterface.SUCCESS);
+    }
+
+    /**
+     * Désinscription de l'Observer
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        application.removeObserver(this);
+    }
+
+
+    /**
+     * Implementation des méthodes openCV
+     */
+
+    @Override
+    protected List<? extends CameraBridgeViewBase> getCameraViewList() {
+        if(mOpenCvCameraView == null) return Collections.emptyList();
+        return Collections.singletonList(mOpenCvCameraView);
+    }
+
+
+    /**
+     * Implementation de méthode IDBObserver
+     */
+
+    @Override
+    public void update(String message) throws IOException {
+        if(message != null){
+
+            // Fermer l'activité de cette caméra
+            if(message.equals(MESSAGE_FINISH + camera)){
+                finish();
+            }
+
+        }
+    }
+
+
+    /**
+     *  Cacher les barres systemUI
+     */
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus) {
+            application.hideSystemUI(this);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.bfr.main.visionservice.application;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bfr.main.visionservice.pipeline.FramePipeline;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * La classe CameraSessionManager gère le cycle de vie de la capture de chaque caméra par comptage des utilisateurs :
+ *      - acquire() : un utilisateur a besoin de la caméra (streaming, stream négocié, capture en attente, ...).
+ *                    La capture est démarrée si elle ne tourne pas déjà.
+ *      - release() : l'utilisateur n'en a plus besoin. Quand il n'y a plus d'utilisateur, la caméra reste ouverte
+ *                    pendant camera_idle_timeout_ms (veille "chaude") puis est arrêtée, sauf si un utilisateur revient entre-temps.
+ *
+ * La veille évite de repayer l'ouverture de la caméra à chaque capture rapprochée ; le délai règle le compromis
+ * entre consommation et latence de capture. Le temps jusqu'à la première frame de chaque démarrage est mesuré (dump()).
+ *
+ * Une source peut aussi s'arrêter d'elle-même (caméra déconnectée, fin des fichiers, activité fermée) : onSourceStopped()
+ * termine alors la session, et le prochain acquire() redémarre la capture.
+ */
+public class CameraSessionManager {
+
+    private static final String TAG = "SERVICE_VISION_CameraSessions";
+
+    /**
+     * Etat et compteurs de la session d'une caméra
+     */
+    private static class Session {
+        int users;
+        boolean running;
+        ScheduledFuture<?> idleStop; // arrêt programmé à la fin de la veille
+        CompletableFuture<Long> firstFrame; // attente de la première frame du démarrage en cours
+        int expectedStops; // arrêts demandés par stop() dont la source n'a pas encore notifié la fin
+
+        long coldStarts;
+        long warmHits; // utilisateurs arrivés pendant la veille (caméra encore ouverte)
+        long idleStops;
+        long sourceStops; // arrêts de la source non demandés
+        long lastFirstFrameMs = -1;
+        long totalFirstFrameMs;
+        long measuredStarts;
+    }
+
+    private final VisionServiceApplication application;
+    private final long idleTimeoutMs;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, Session> sessions = new HashMap<>();
+
+    /**
+     * @param application : l'application, qui démarre / arrête effectivement les sources (startFrameSource / stopFrameSource)
+     * @param idleTimeoutMs : la durée de la veille après le départ du dernier utilisateur (0 = arrêt immédiat)
+     */
+    public CameraSessionManager(VisionServiceApplication application, long idleTimeoutMs) {
+        this.application = application;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    private Session getSession(String camera) {
+        Session session = sessions.get(camera);
+        if (session == null) {
+            session = new Session();
+            sessions.put(camera, session);
+        }
+        return session;
+    }
+
+    /**
+     * La fonction acquire() permet de déclarer un utilisateur de la caméra, et de démarrer sa capture si besoin.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @return : - true : si la capture tourne (ou a été démarrée)
+     *           - false : si erreur
+     */
+    public synchronized boolean acquire(final String camera) {
+        final FramePipeline pipeline = application.getFramePipeline(camera);
+        if (pipeline == null) return false;
+        final Session session = getSession(camera);
+        session.users++;
+
+        if (session.idleStop != null) {
+            session.idleStop.cancel(false);
+            session.idleStop = null;
+            if (session.running) session.warmHits++;
+        }
+        if (session.running) return true;
+
+        /*
+         * Démarrage à froid : mesure du temps jusqu'à la première frame
+         */
+        final long startNs = SystemClock.elapsedRealtimeNanos();
+        session.firstFrame = pipeline.nextFrame();
+        session.firstFrame.thenAccept(new Consumer<Long>() {
+            @Override
+            public void accept(Long arrivalNs) {
+                long firstFrameMs = (arrivalNs - startNs) / 1000000;
+                synchronized (CameraSessionManager.this) {
+                    session.lastFirstFrameMs = firstFrameMs;
+                    session.totalFirstFrameMs += firstFrameMs;
+                    session.measuredStarts++;
+                }
+                Log.i(TAG, "Première frame " + camera + " après " + firstFrameMs + " ms");
+            }
+        });
+        session.coldStarts++;
+        session.running = application.startFrameSource(camera);
+        if (!session.running) {
+            Log.e(TAG, "Erreur lors du démarrage de la capture " + camera);
+            cancelFirstFrame(pipeline, session);
+        }
+        return session.running;
+    }
+
+    /**
+     * La fonction release() permet de retirer un utilisateur de la caméra.
+     * Après le départ du dernier utilisateur, la capture est arrêtée à la fin de la veille.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     */
+    public synchronized void release(final String camera) {
+        final Session session = sessions.get(camera);
+        if (session == null || session.users == 0) {
+            Log.e(TAG, "release() sans acquire() pour la caméra " + camera);
+            return;
+        }
+        if (--session.users > 0 || !session.running) return;
+
+        if (idleTimeoutMs <= 0) {
+            stop(camera, session);
+            return;
+        }
+        session.idleStop = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CameraSessionManager.this) {
+                    if (session.users == 0 && session.running) stop(camera, session);
+                }
+            }
+        }, idleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arrêt de la capture (appelé sous le verrou)
+     */
+    private void stop(String camera, Session session) {
+        session.idleStop = null;
+        session.running = false;
+        session.expectedStops++;
+        session.idleStops++;
+        cancelFirstFrame(application.getFramePipeline(camera), session);
+        Log.i(TAG, "Arrêt de la capture " + camera + " (plus d'utilisateur)");
+        application.stopFrameSource(camera);
+    }
+
+    /**
+     * Abandon de la mesure du temps jusqu'à la première frame si elle n'est pas arrivée (appelé sous le verrou) :
+     * l'attente ne doit pas être complétée par la première frame d'un démarrage suivant
+     */
+    private void cancelFirstFrame(FramePipeline pipeline, Session session) {
+        if (session.firstFrame == null) return;
+        if (!session.firstFrame.isDone()) pipeline.cancelFrameWait(session.firstFrame);
+        session.firstFrame = null;
+    }
+
+    /**
+     * La fonction onSourceStopped() permet de signaler l'arrêt de la source d'une caméra (voir FramePipeline.setSourceStoppedCallback()).
+     * Un arrêt non demandé par stop() termine la session ; un arrêt demandé est seulement décompté.
+     * Traité sur le thread du gestionnaire : la source peut signaler son arrêt pendant un stop() appelé sous le verrou
+     * (FileFrameSource attend la fin de son thread de lecture, qui notifie l'arrêt).
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     */
+    public void onSourceStopped(final String camera) {
+        timer.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CameraSessionManager.this) {
+                    Session session = getSession(camera);
+                    if (session.expectedStops > 0) {
+                        session.expectedStops--;
+                        return;
+                    }
+                    if (!session.running) return;
+                    Log.e(TAG, "Arrêt inattendu de la capture " + camera + " : le prochain utilisateur la redémarrera");
+                    session.running = false;
+                    session.sourceStops++;
+                    if (session.idleStop != null) {
+                        session.idleStop.cancel(false);
+                        session.idleStop = null;
+                    }
+                    cancelFirstFrame(application.getFramePipeline(camera), session);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return : le nombre d'utilisateurs actuels de la caméra
+     */
+    public synchronized int getUsers(String camera) {
+        Session session = sessions.get(camera);
+        return session == null ? 0 : session.users;
+    }
+
+    /**
+     * La fonction dump() permet d'afficher l'état des sessions et les temps jusqu'à la première frame
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("CameraSessionManager : idleTimeoutMs=" + idleTimeoutMs);
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            writer.println("  [" + entry.getKey() + "] users=" + session.users
+                    + " running=" + session.running
+                    + " idle=" + (session.idleStop != null)
+                    + " coldStarts=" + session.coldStarts
+                    + " warmHits=" + session.warmHits
+                    + " idleStops=" + session.idleStops
+                    + " sourceStops=" + session.sourceStops
+                    + " firstFrameMs(last/avg)=" + session.lastFirstFrameMs + "/"
+                    + (session.measuredStarts > 0 ? session.totalFirstFrameMs / session.measuredStarts : -1));
+        }
+    }
+}
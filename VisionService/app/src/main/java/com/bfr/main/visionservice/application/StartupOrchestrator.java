@@ -0,0 +1,114 @@
+package com.bfr.main.visionservice.application;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bfr.main.visionservice.pipeline.FramePipeline;
+
+import org.opencv.android.OpenCVLoader;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * La classe StartupOrchestrator organise le démarrage à froid du service et en garde la trace :
+ *      - les bibliothèques natives (OpenCV) sont chargées une seule fois pour tout le processus (ensureOpenCvLoaded()),
+ *        au lieu d'un OpenCVLoader.initDebug() à chaque onResume des activités caméra.
+ *      - les tâches indépendantes du démarrage tournent en parallèle sur l'Executor de démarrage (supplyAsync()).
+ *      - les étapes (mark()) sont datées depuis le démarrage du processus, jusqu'à la première frame
+ *        et au premier résultat de détection de chaque caméra (dump() : adb shell dumpsys activity service ...).
+ */
+public class StartupOrchestrator {
+
+    private static final String TAG = "SERVICE_VISION_Startup";
+
+    private final Executor executor;
+    private final long processStartMs = Process.getStartElapsedRealtime();
+    private final List<String> milestones = new ArrayList<>();
+    private final List<Long> milestonesMs = new ArrayList<>(); // temps depuis le démarrage du processus
+    private boolean openCvLoaded = false;
+
+    /**
+     * @param executor : l'Executor des tâches de démarrage
+     */
+    public StartupOrchestrator(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * La fonction mark() permet de dater une étape du démarrage (en ms depuis le démarrage du processus).
+     */
+    public void mark(String milestone) {
+        long sinceProcessStartMs = SystemClock.elapsedRealtime() - processStartMs;
+        synchronized (milestones) {
+            milestones.add(milestone);
+            milestonesMs.add(sinceProcessStartMs);
+        }
+        Log.i(TAG, "+" + sinceProcessStartMs + " ms : " + milestone);
+    }
+
+    /**
+     * La fonction ensureOpenCvLoaded() permet de charger les bibliothèques natives d'OpenCV, une seule fois par processus.
+     * @return : true si OpenCV est chargé
+     */
+    public synchronized boolean ensureOpenCvLoaded() {
+        if (!openCvLoaded) {
+            openCvLoaded = OpenCVLoader.initDebug();
+            if (!openCvLoaded) Log.e(TAG, "Erreur lors du chargement d'OpenCV");
+        }
+        return openCvLoaded;
+    }
+
+    /**
+     * La fonction supplyAsync() permet de lancer une tâche de démarrage sur l'Executor de démarrage ; sa fin est datée.
+     * @param milestone : le nom de l'étape
+     * @param task : la tâche
+     * @return : le future du résultat de la tâche
+     */
+    public <T> CompletableFuture<T> supplyAsync(final String milestone, final Supplier<T> task) {
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            @Override
+            public T get() {
+                T result = task.get();
+                mark(milestone);
+                return result;
+            }
+        }, executor);
+    }
+
+    /**
+     * La fonction traceFirstResults() permet de dater la première frame et le premier résultat de détection d'une caméra.
+     */
+    public void traceFirstResults(final FramePipeline pipeline) {
+        pipeline.nextFrame().thenAccept(new Consumer<Long>() {
+            @Override
+            public void accept(Long arrivalNs) {
+                mark("firstFrame:" + pipeline.getCamera());
+            }
+        });
+        pipeline.nextDetection().thenAccept(new Consumer<Long>() {
+            @Override
+            public void accept(Long publishedNs) {
+                mark("firstDetection:" + pipeline.getCamera());
+            }
+        });
+    }
+
+    /**
+     * La fonction dump() permet d'afficher la trace du démarrage
+     */
+    public void dump(PrintWriter writer) {
+        synchronized (milestones) {
+            writer.println("Startup : " + milestones.size() + " étape(s) depuis le démarrage du processus");
+            for (int i = 0; i < milestones.size(); i++) {
+                writer.println("  +" + milestonesMs.get(i) + " ms : " + milestones.get(i));
+            }
+        }
+    }
+}
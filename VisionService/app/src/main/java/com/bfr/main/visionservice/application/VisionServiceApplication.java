@@ -2,29 +2,67 @@ package com.bfr.main.visionservice.application;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.RemoteException;
 import android.util.Log;
 import android.view.View;
 
 import com.bfr.main.visionservice.R;
+import com.bfr.main.visionservice.activities.CamViewActivity;
+import com.bfr.main.visionservice.models.StreamSpec;
+import com.bfr.main.visionservice.capture.Camera2FrameSource;
+import com.bfr.main.visionservice.capture.FileFrameSource;
+import com.bfr.main.visionservice.capture.FrameSource;
 import com.bfr.main.visionservice.observer.IDBObserver;
+import com.bfr.main.visionservice.pipeline.BudgetedExecutor;
+import com.bfr.main.visionservice.pipeline.DetectionHistory;
+import com.bfr.main.visionservice.pipeline.EncodedFrame;
+import com.bfr.main.visionservice.pipeline.EncodingFormat;
+import com.bfr.main.visionservice.pipeline.FramePipeline;
+import com.bfr.main.visionservice.pipeline.LatestFrameMailbox;
+import com.bfr.main.visionservice.pipeline.StreamGroup;
+import com.bfr.main.visionservice.pipeline.TagDetector;
+import com.bfr.main.visionservice.pipeline.VisionWorkerPool;
+import com.bfr.main.visionservice.services.CaptureCoordinator;
+import com.bfr.main.visionservice.services.FrameNotifier;
+import com.bfr.main.visionservice.services.ResultNotifier;
+import com.bfr.main.visionservice.sharedmemory.DetectionResultsRegion;
+import com.bfr.main.visionservice.sharedmemory.FrameRingBuffer;
 import com.newtronlabs.sharedmemory.SharedMemoryProducer;
 import com.newtronlabs.sharedmemory.prod.memory.ISharedMemory;
 
-import org.opencv.core.Mat;
-
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.PrintWriter;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 
 /**
  * La classe VisionServiceApplication est la classe Application, utilisée pour la sauvegarde des variables globales.
  *
- * Dès sa création, trois régions de mémoire partagée sont alloués :
+ * Dès sa création, trois régions de mémoire partagée sont alloués (pendant le chargement d'OpenCV, voir StartupOrchestrator) :
  *  --> une pour le streaming des images de camera Grand-Angle.
  *  --> une pour le streaming des images de camera Zoom.
- *  --> une pour l'image résultante du traitment par CV.
+ *  --> une pour les résultats binaires de détection de chaque frame (voir DetectionResultsRegion).
+ * La région de l'image résultante du traitment par CV n'est allouée qu'à sa première écriture.
+ * Les régions de streaming sont organisées en buffers circulaires de frames brutes (voir FrameRingBuffer).
+ *
+ * Elle possède un pipeline de traitement des frames (FramePipeline) par caméra, alimenté soit par l'activité
+ * CamViewActivity [frame_source = "camera_bridge"], soit par une source headless possédée par le service [frame_source = "camera2" ou "file"].
+ * Les pipelines des deux caméras peuvent tourner en même temps : leurs étages partagent un même pool de threads
+ * (VisionWorkerPool) dans lequel chaque caméra a un budget CPU.
  *
  * Elle fournie aussi les fonctions :
+ *  - startFrameSource() , stopFrameSource() : pour démarrer / arrêter la capture d'une caméra
+ *    (appelées par CameraSessionManager : les utilisateurs d'une caméra passent par getCameraSessions().acquire() / release()).
+ *  - startStream() , stopStream() : pour les streams négociés par les clients (résolution, cadence, format : voir StreamGroup).
  *  - writeCvResultingFrameInSharedMemory() : pour écrire le byte[] de l'image résultante du traitment par CV sur la mémoire partagée.
  *  - registerObserver() , removeObserver() , notifyObservers() : pour la gestion des notifications entre les classes du projet [pattern Observer]
  *
@@ -33,163 +71,444 @@ public class VisionServiceApplication extends Application {
 
     private static final String TAG = "SERVICE_VISION_Application";
 
-    private List<IDBObserver> observers = new ArrayList<>();
+    private final List<IDBObserver> observers = new CopyOnWriteArrayList<>(); // modifiée par les activités (thread UI), parcourue depuis les threads du service
 
-    private ISharedMemory sharedMemoryOfStreamFramesGrandAngle; // l'objet de mémoire partagée [région Stream-Frames-GrandAngle], utilisé pour écrire les byte[] des frames Grand-Angle
-    private ISharedMemory sharedMemoryOfStreamFramesZoom; // l'objet de mémoire partagée [région Stream-Frames-Zoom], utilisé pour écrire les byte[] des frames Zoom
-    private ISharedMemory sharedMemoryOfCvResultingFrame; // l'objet de mémoire partagée, utilisé pour écrire le byte[] de l'image résultante du traitement par CV
+    private final FrameNotifier frameNotifier = new FrameNotifier(); // notification directe des clients abonnés à chaque frame traitée
+    private final ResultNotifier resultNotifier = new ResultNotifier(); // envoi des résultats de détection aux clients abonnés
 
-    private boolean isFrameGrandAngleCaptured; // Indique si l'image Grand-Angle est prise ou pas encore
-    private Mat frameGrandAngle; // L'image Grand-Angle capturée sous format de Mat
+    public static final String[] CAMERAS = {"grand-angle", "zoom"}; // l'index d'une caméra est aussi sa section dans DetectionResultsRegion
 
-    private boolean isFrameZoomCaptured; // Indique si l'image Zoom est prise ou pas encore
-    private Mat frameZoom; // L'image Zoom capturée sous format de Mat
-
-    private List<Mat> arucoCornersGrandAngle;
-    private Mat arucoIdsGrandAngle;
+    private ISharedMemory sharedMemoryOfCvResultingFrame; // l'objet de mémoire partagée, utilisé pour écrire le byte[] de l'image résultante du traitement par CV
+    private ISharedMemory sharedMemoryOfCvDetectionResults; // l'objet de mémoire partagée [région CV-Detection-Results], utilisé pour écrire les résultats binaires de détection
+    private DetectionResultsRegion detectionResultsRegion; // enregistrements binaires des résultats de détection [région CV-Detection-Results]
 
-    private List<Mat> arucoCornersZoom;
-    private Mat arucoIdsZoom;
+    private VisionWorkerPool workerPool; // pool de threads partagé par les étages des pipelines des deux caméras
+    private final Map<String, FramePipeline> framePipelines = new HashMap<>(); // traitement des frames + dernier état de chaque caméra
+    private final Map<String, FrameSource> frameSources = new HashMap<>(); // source headless des frames de chaque caméra (vide en mode camera_bridge)
+    private EncodingFormat captureEncoding; // format d'encodage des images capturées [capture_encoding]
+    private BudgetedExecutor captureExecutor; // encodage + livraison des captures (hors threads des pipelines et threads binder)
+    private StartupOrchestrator startup; // chargement d'OpenCV, tâches et trace du démarrage
+    private CameraSessionManager cameraSessions; // démarrage / arrêt des caméras selon leurs utilisateurs, avec veille
+    private CaptureCoordinator captureCoordinator; // regroupement des demandes de capture concurrentes d'une même caméra
+    private final ScheduledExecutorService captureTimer = Executors.newSingleThreadScheduledExecutor(); // timeouts des captures asynchrones
+    private final Map<IBinder, IBinder.DeathRecipient> streamClients = new HashMap<>(); // clients des streams négociés, retirés à leur mort
 
 
     /**
      * Getters and Setters
      */
 
-    public ISharedMemory getSharedMemoryOfStreamFramesGrandAngle() {
-        return sharedMemoryOfStreamFramesGrandAngle;
-    }
-
-    public void setSharedMemoryOfStreamFramesGrandAngle(ISharedMemory sharedMemoryOfStreamFramesGrandAngle) {
-        this.sharedMemoryOfStreamFramesGrandAngle = sharedMemoryOfStreamFramesGrandAngle;
-    }
-
-    public ISharedMemory getSharedMemoryOfStreamFramesZoom() {
-        return sharedMemoryOfStreamFramesZoom;
+    public FrameNotifier getFrameNotifier() {
+        return frameNotifier;
     }
 
-    public void setSharedMemoryOfStreamFramesZoom(ISharedMemory sharedMemoryOfStreamFramesZoom) {
-        this.sharedMemoryOfStreamFramesZoom = sharedMemoryOfStreamFramesZoom;
+    public ResultNotifier getResultNotifier() {
+        return resultNotifier;
     }
 
     public ISharedMemory getSharedMemoryOfCvResultingFrame() {
-        return sharedMemoryOfCvResultingFrame;
+        return ensureCvResultingFrameRegion();
     }
 
     public void setSharedMemoryOfCvResultingFrame(ISharedMemory sharedMemoryOfCvResultingFrame) {
         this.sharedMemoryOfCvResultingFrame = sharedMemoryOfCvResultingFrame;
     }
 
-    public boolean isFrameGrandAngleCaptured() {
-        return isFrameGrandAngleCaptured;
+    public ISharedMemory getSharedMemoryOfCvDetectionResults() {
+        return sharedMemoryOfCvDetectionResults;
     }
 
-    public void setFrameGrandAngleCaptured(boolean frameGrandAngleCaptured) {
-        isFrameGrandAngleCaptured = frameGrandAngleCaptured;
+    public DetectionResultsRegion getDetectionResultsRegion() {
+        return detectionResultsRegion;
     }
 
-    public Mat getFrameGrandAngle() {
-        return frameGrandAngle;
+    public VisionWorkerPool getWorkerPool() {
+        return workerPool;
     }
 
-    public void setFrameGrandAngle(Mat frameGrandAngle) {
-        this.frameGrandAngle = frameGrandAngle;
+    public EncodingFormat getCaptureEncoding() {
+        return captureEncoding;
     }
 
-    public boolean isFrameZoomCaptured() {
-        return isFrameZoomCaptured;
+    public BudgetedExecutor getCaptureExecutor() {
+        return captureExecutor;
     }
 
-    public void setFrameZoomCaptured(boolean frameZoomCaptured) {
-        isFrameZoomCaptured = frameZoomCaptured;
+    public StartupOrchestrator getStartup() {
+        return startup;
     }
 
-    public Mat getFrameZoom() {
-        return frameZoom;
+    public CameraSessionManager getCameraSessions() {
+        return cameraSessions;
     }
 
-    public void setFrameZoom(Mat frameZoom) {
-        this.frameZoom = frameZoom;
+    public CaptureCoordinator getCaptureCoordinator() {
+        return captureCoordinator;
     }
 
-    public List<Mat> getArucoCornersGrandAngle() {
-        return arucoCornersGrandAngle;
+    public ScheduledExecutorService getCaptureTimer() {
+        return captureTimer;
     }
 
-    public void setArucoCornersGrandAngle(List<Mat> arucoCornersGrandAngle) {
-        this.arucoCornersGrandAngle = arucoCornersGrandAngle;
+    /**
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @return : le pipeline de la caméra, ou null si la caméra est inconnue
+     */
+    public FramePipeline getFramePipeline(String camera) {
+        return framePipelines.get(camera);
     }
 
-    public Mat getArucoIdsGrandAngle() {
-        return arucoIdsGrandAngle;
+
+    /**
+     * Initialisations + Allocation de régions de mémoire partagée (voir StartupOrchestrator pour la trace du démarrage)
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        /*
+         * Pool de threads partagé par les pipelines des caméras [chaque caméra avec son budget CPU cpu_budget_threads_*],
+         * qui exécute aussi les tâches du démarrage
+         */
+        this.workerPool = new VisionWorkerPool(Integer.parseInt(getString(R.string.worker_pool_threads)));
+        this.startup = new StartupOrchestrator(workerPool.newBudget("startup", workerPool.getThreadCount()));
+        startup.mark("application");
+
+        /*
+         * Chargement des bibliothèques natives d'OpenCV (une seule fois pour le processus), en parallèle des allocations
+         */
+        CompletableFuture<Boolean> openCvLoaded = startup.supplyAsync("opencv", new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return startup.ensureOpenCvLoaded();
+            }
+        });
+
+        /*
+         * Allocation de [size_MB_region_shared_memory_cv_detection_results]MB de mémoire partagée pour les résultats binaires de détection
+         * NB : la région de l'image résultante du traitement par CV n'est allouée qu'au premier getObjectExample()
+         */
+        int sizeInBytes_cv_detection_results = Integer.parseInt(getString(R.string.size_MB_region_shared_memory_cv_detection_results))*(1024*1024);
+        String regionName_cv_detection_results = getString(R.string.name_region_shared_memory_cv_detection_results);
+        try {
+            this.sharedMemoryOfCvDetectionResults = SharedMemoryProducer.getInstance().allocate(regionName_cv_detection_results, sizeInBytes_cv_detection_results);
+            this.detectionResultsRegion = new DetectionResultsRegion(sharedMemoryOfCvDetectionResults, sizeInBytes_cv_detection_results);
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName_cv_detection_results + " , "+sizeInBytes_cv_detection_results + ") : " + e);
+        }
+        startup.mark("region:" + regionName_cv_detection_results);
+
+        /*
+         * Allocation des régions de streaming de chaque caméra (toujours sur ce thread : SharedMemoryProducer n'est pas
+         * documenté comme thread-safe), pendant le chargement d'OpenCV
+         */
+        int nbSlotsRingBuffer = Integer.parseInt(getString(R.string.nb_slots_ring_buffer_stream_frames));
+        FrameRingBuffer[] frameRingBuffers = new FrameRingBuffer[CAMERAS.length];
+        for (int i = 0; i < CAMERAS.length; i++) {
+            String camera = CAMERAS[i];
+            String regionName = getCameraString(camera, R.string.name_region_shared_memory_stream_frames_grand_angle, R.string.name_region_shared_memory_stream_frames_zoom);
+            frameRingBuffers[i] = allocateStreamRegion(regionName,
+                    Integer.parseInt(getCameraString(camera, R.string.size_MB_region_shared_memory_stream_frames_grand_angle, R.string.size_MB_region_shared_memory_stream_frames_zoom)), nbSlotsRingBuffer);
+            startup.mark("region:" + regionName);
+        }
+
+        /*
+         * Création des pipelines de traitement des frames : un par caméra, tous sur le même pool de threads.
+         * Les pipelines créent des Mat : OpenCV doit être chargé.
+         */
+        if(!openCvLoaded.join()) Log.e(TAG, "OpenCV n'est pas chargé : les pipelines ne pourront pas traiter de frames");
+        LatestFrameMailbox.DropPolicy detectionDropPolicy = LatestFrameMailbox.DropPolicy.valueOf(getString(R.string.pipeline_detection_drop_policy).toUpperCase());
+        LatestFrameMailbox.DropPolicy streamDropPolicy = LatestFrameMailbox.DropPolicy.valueOf(getString(R.string.pipeline_stream_drop_policy).toUpperCase());
+        EncodingFormat streamEncoding = EncodingFormat.parse(getString(R.string.stream_encoding));
+        this.captureEncoding = EncodingFormat.parse(getString(R.string.capture_encoding));
+        this.captureExecutor = workerPool.newBudget("capture", 1);
+        this.cameraSessions = new CameraSessionManager(this, Long.parseLong(getString(R.string.camera_idle_timeout_ms)));
+        this.captureCoordinator = new CaptureCoordinator(this, Long.parseLong(getString(R.string.capture_timeout_ms)),
+                Integer.parseInt(getString(R.string.capture_max_pending)));
+
+        for (int i = 0; i < CAMERAS.length; i++) {
+            final String camera = CAMERAS[i];
+            int cpuBudget = Integer.parseInt(getCameraString(camera, R.string.cpu_budget_threads_grand_angle, R.string.cpu_budget_threads_zoom));
+            BudgetedExecutor budget = workerPool.newBudget(camera, cpuBudget);
+            DetectionHistory detectionHistory = new DetectionHistory(Long.parseLong(getString(R.string.detection_history_seconds)) * 1000000000L,
+                    Integer.parseInt(getString(R.string.detection_history_max_frames)), Integer.parseInt(getString(R.string.detection_history_max_tags)));
+            // les tuiles sont traitées dans le budget CPU de la caméra : l'étage de détection en occupe déjà un thread
+            int tileThreads = Math.min(cpuBudget, Integer.parseInt(getCameraString(camera, R.string.tag_detection_tile_threads_grand_angle, R.string.tag_detection_tile_threads_zoom)));
+            TagDetector tagDetector = new TagDetector(Integer.parseInt(getString(R.string.tag_detection_full_scan_interval)),
+                    Float.parseFloat(getString(R.string.tag_detection_roi_margin)),
+                    Integer.parseInt(getCameraString(camera, R.string.tag_detection_decimation_grand_angle, R.string.tag_detection_decimation_zoom)),
+                    Boolean.parseBoolean(getCameraString(camera, R.string.tag_tracking_grand_angle, R.string.tag_tracking_zoom)),
+                    Float.parseFloat(getString(R.string.tag_tracking_max_forward_backward_error)),
+                    budget, tileThreads, Integer.parseInt(getString(R.string.tag_detection_max_tag_size)));
+            framePipelines.put(camera, new FramePipeline(camera, i, frameRingBuffers[i], detectionResultsRegion, frameNotifier, resultNotifier, detectionHistory, tagDetector,
+                    detectionDropPolicy, streamDropPolicy, budget, budget));
+            framePipelines.get(camera).setStreamEncoding(streamEncoding);
+            framePipelines.get(camera).setSourceStoppedCallback(new Runnable() {
+                @Override
+                public void run() {
+                    cameraSessions.onSourceStopped(camera);
+                }
+            });
+            startup.traceFirstResults(framePipelines.get(camera));
+        }
+        startup.mark("ready");
+
     }
 
-    public void setArucoIdsGrandAngle(Mat arucoIdsGrandAngle) {
-        this.arucoIdsGrandAngle = arucoIdsGrandAngle;
+    /**
+     * la fonction getCameraString() permet de récupérer la ressource string propre à une caméra.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     */
+    private String getCameraString(String camera, int grandAngleId, int zoomId) {
+        return getString(camera.equals("zoom") ? zoomId : grandAngleId);
     }
 
-    public List<Mat> getArucoCornersZoom() {
-        return arucoCornersZoom;
+    /**
+     * Allocation d'une région de mémoire partagée pour le streaming d'une caméra, organisée en buffer circulaire de frames brutes
+     * @return : le buffer circulaire, ou null si erreur
+     */
+    private FrameRingBuffer allocateStreamRegion(String regionName, int sizeMB, int nbSlots) {
+        int sizeInBytes = sizeMB*(1024*1024);
+        try {
+            ISharedMemory sharedMemory = SharedMemoryProducer.getInstance().allocate(regionName, sizeInBytes);
+            return new FrameRingBuffer(sharedMemory, sizeInBytes, nbSlots);
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName + " , "+sizeInBytes + ") : " + e);
+            return null;
+        }
     }
 
-    public void setArucoCornersZoom(List<Mat> arucoCornersZoom) {
-        this.arucoCornersZoom = arucoCornersZoom;
+    /**
+     * la fonction dump() permet d'afficher les compteurs des pipelines, du pool de threads et des notifications
+     */
+    public void dump(PrintWriter writer) {
+        startup.dump(writer);
+        for (String camera : CAMERAS) {
+            framePipelines.get(camera).dump(writer);
+        }
+        workerPool.dump(writer);
+        frameNotifier.dump(writer);
+        resultNotifier.dump(writer);
+        captureCoordinator.dump(writer);
+        cameraSessions.dump(writer);
     }
 
-    public Mat getArucoIdsZoom() {
-        return arucoIdsZoom;
+    /**
+     * la fonction isHeadlessFrameSource() permet de savoir si les frames sont capturées par le service lui-même
+     * [frame_source = "camera2" ou "file"] ou par l'activité CamViewActivity [frame_source = "camera_bridge"].
+     */
+    public boolean isHeadlessFrameSource() {
+        return !getString(R.string.frame_source).equals("camera_bridge");
     }
 
-    public void setArucoIdsZoom(Mat arucoIdsZoom) {
-        this.arucoIdsZoom = arucoIdsZoom;
+    /**
+     * la fonction getCameraIndex() permet de récupérer l'index de la caméra selon la version du robot.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     */
+    public int getCameraIndex(String camera) {
+        boolean robot42 = getString(R.string.robot_version).equals("4.2");
+        if(camera.equals("zoom")) return robot42 ? 0 : 1; //pour le robot 4.2 la caméra zoom correspond au 0
+        else return robot42 ? 1 : 0; //pour le robot 4.2 la caméra grand-angle correspond au 1
     }
 
+    /**
+     * la fonction startFrameSource() permet de démarrer la capture des frames d'une caméra :
+     *  - en mode headless, la source possédée par le service est démarrée.
+     *  - en mode camera_bridge, l'activité CamViewActivity de la caméra est ouverte.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @return : - true : si la capture est démarrée
+     *           - false : si erreur
+     */
+    public synchronized boolean startFrameSource(String camera) {
+        FramePipeline pipeline = getFramePipeline(camera);
+        if(pipeline == null) return false;
+
+        if(!isHeadlessFrameSource()) {
+            Intent intent = new Intent(this, CamViewActivity.class);
+            intent.putExtra(CamViewActivity.EXTRA_CAMERA, camera);
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            startActivity(intent);
+            return true;
+        }
+
+        FrameSource source = frameSources.get(camera);
+        if(source == null) {
+            if(getString(R.string.frame_source).equals("file")) {
+                source = new FileFrameSource(new File(getString(R.string.file_frame_source_path), camera),
+                        Double.parseDouble(getString(R.string.file_frame_source_fps)), true);
+            }
+            else {
+                source = new Camera2FrameSource(this, getCameraIndex(camera),
+                        Integer.parseInt(getString(R.string.frame_source_max_width)),
+                        Integer.parseInt(getString(R.string.frame_source_max_height)));
+            }
+            frameSources.put(camera, source);
+        }
+        return source.start(pipeline);
+    }
 
     /**
-     * Initialisations + Allocation de régions de mémoire partagée
+     * la fonction stopFrameSource() permet d'arrêter la capture des frames d'une caméra (source headless ou activité).
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
      */
-    @Override
-    public void onCreate() {
-        super.onCreate();
+    public synchronized void stopFrameSource(String camera) {
+        if(!isHeadlessFrameSource()) {
+            notifyObservers(CamViewActivity.MESSAGE_FINISH + camera);
+            return;
+        }
+        FrameSource source = frameSources.get(camera);
+        if(source != null) source.stop();
+    }
 
-        isFrameGrandAngleCaptured = false;
-        isFrameZoomCaptured = false;
+    /**
+     * la fonction startStream() permet à un client de recevoir un stream négocié (résolution, cadence, format) d'une caméra.
+     * Les clients qui demandent la même spécification partagent le même groupe : une seule conversion par frame
+     * et une seule région de mémoire partagée, allouée à la première demande et libérée au départ du dernier client.
+     * Chaque client d'un groupe est un utilisateur de la caméra (voir CameraSessionManager).
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param spec : la spécification du stream
+     * @param client : le binder du client (sa mort le retire du stream)
+     * @return : le nom de la région de mémoire partagée du stream, ou null si erreur
+     */
+    public String startStream(String camera, StreamSpec spec, IBinder client) {
+        if(client == null || getFramePipeline(camera) == null) return null;
+        // La caméra est acquise avant le verrou de l'application (ordre des verrous : CameraSessionManager puis application) :
+        // un stopStream() concurrent qui retire ce client relâche donc toujours une caméra déjà acquise.
+        cameraSessions.acquire(camera);
+        String regionName = null;
+        boolean added = false;
+        // le groupe ne doit pas être retiré par stopStream() entre sa recherche et l'ajout du client
+        synchronized (this) {
+            StreamGroup group = getOrCreateStreamGroup(camera, spec);
+            if(group != null) {
+                regionName = group.getRegionName();
+                added = group.addClient(client);
+                if(added && !watchStreamClient(client)) {
+                    group.removeClient(client);
+                    removeStreamGroupIfEmpty(getFramePipeline(camera), group);
+                    added = false;
+                    regionName = null;
+                }
+            }
+        }
+        // demande refusée, client déjà dans le groupe ou client mort : la caméra n'a pas d'utilisateur de plus
+        if(!added) cameraSessions.release(camera);
+        return regionName;
+    }
 
-        /*
-         * Allocation de [size_MB_region_shared_memory_stream_frames_grand_angle]MB de mémoire partagée pour le streaming GrandAngle
-         */
-        int sizeInBytes_stream_frames_grandAngle = Integer.parseInt(getString(R.string.size_MB_region_shared_memory_stream_frames_grand_angle))*(1024*1024);
-        String regionName_stream_frames_grandAngle = getString(R.string.name_region_shared_memory_stream_frames_grand_angle);
-        try {
-            this.sharedMemoryOfStreamFramesGrandAngle = SharedMemoryProducer.getInstance().allocate(regionName_stream_frames_grandAngle, sizeInBytes_stream_frames_grandAngle);
-        } catch (Exception e) {
-            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName_stream_frames_grandAngle + " , "+sizeInBytes_stream_frames_grandAngle + ") : " + e);
+    /**
+     * Recherche du groupe d'une spécification de stream, ou création du groupe et de sa région de mémoire partagée
+     * @return : le groupe, ou null si la demande est invalide ou refusée
+     */
+    private synchronized StreamGroup getOrCreateStreamGroup(String camera, StreamSpec spec) {
+        FramePipeline pipeline = getFramePipeline(camera);
+        if(pipeline == null || spec == null || !spec.isValid()) {
+            Log.e(TAG, "Demande de stream invalide (" + camera + " , " + spec + ")");
+            return null;
         }
 
+        StreamGroup group = pipeline.getStreamGroup(spec);
+        if(group != null) return group;
 
-        /*
-         * Allocation de [size_MB_region_shared_memory_stream_frames_zoom]MB de mémoire partagée pour le streaming Zoom
-         */
-        int sizeInBytes_stream_frames_zoom = Integer.parseInt(getString(R.string.size_MB_region_shared_memory_stream_frames_zoom))*(1024*1024);
-        String regionName_stream_frames_zoom = getString(R.string.name_region_shared_memory_stream_frames_zoom);
+        if(pipeline.getStreamGroups().size() >= Integer.parseInt(getString(R.string.stream_max_specs_per_camera))) {
+            Log.e(TAG, "Nombre maximal de streams atteint pour la caméra " + camera + " (" + spec + " refusé)");
+            return null;
+        }
+        String regionName = getCameraString(camera, R.string.name_region_shared_memory_stream_frames_grand_angle, R.string.name_region_shared_memory_stream_frames_zoom) + "-" + spec;
+        int width = spec.getWidth() > 0 ? spec.getWidth() : Integer.parseInt(getString(R.string.frame_source_max_width));
+        int height = spec.getHeight() > 0 ? spec.getHeight() : Integer.parseInt(getString(R.string.frame_source_max_height));
+        int nbSlots = Integer.parseInt(getString(R.string.nb_slots_ring_buffer_stream_frames));
+        int sizeInBytes = FrameRingBuffer.REGION_HEADER_SIZE + nbSlots * (FrameRingBuffer.SLOT_HEADER_SIZE + width * height * 4);
         try {
-            this.sharedMemoryOfStreamFramesZoom = SharedMemoryProducer.getInstance().allocate(regionName_stream_frames_zoom, sizeInBytes_stream_frames_zoom);
+            ISharedMemory sharedMemory = SharedMemoryProducer.getInstance().allocate(regionName, sizeInBytes);
+            group = new StreamGroup(spec, regionName, new FrameRingBuffer(sharedMemory, sizeInBytes, nbSlots));
         } catch (Exception e) {
-            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName_stream_frames_zoom + " , "+sizeInBytes_stream_frames_zoom + ") : " + e);
+            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName + " , " + sizeInBytes + ") : " + e);
+            return null;
         }
+        pipeline.addStreamGroup(group);
+        return group;
+    }
 
+    /**
+     * la fonction stopStream() permet de retirer un client des streams négociés d'une caméra.
+     * La caméra est relâchée une fois par groupe quitté (arrêtée après la veille s'il n'y a plus d'utilisateur).
+     * Un groupe qui n'a plus de clients est retiré : il ne compte plus dans stream_max_specs_per_camera et sa région est libérée.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param client : le binder donné à startStream()
+     */
+    public void stopStream(String camera, IBinder client) {
+        FramePipeline pipeline = getFramePipeline(camera);
+        if(pipeline == null || client == null) return;
+        int left = 0;
+        synchronized (this) {
+            for (StreamGroup group : pipeline.getStreamGroups()) {
+                if(!group.removeClient(client)) continue;
+                left++;
+                removeStreamGroupIfEmpty(pipeline, group);
+            }
+            unwatchStreamClient(client);
+        }
+        // hors du verrou de l'application (ordre des verrous : CameraSessionManager puis application)
+        for (int i = 0; i < left; i++) {
+            cameraSessions.release(camera);
+        }
+    }
 
-        /*
-         * Allocation de [size_MB_region_shared_memory_cv_resulting_frame]MB de mémoire partagée pour l'image résultante du traitment par CV
-         */
-        int sizeInBytes_cv_resulting_frame = Integer.parseInt(getString(R.string.size_MB_region_shared_memory_cv_resulting_frame))*(1024*1024);
-        String regionName_cv_resulting_frame = getString(R.string.name_region_shared_memory_cv_resulting_frame);
+    /**
+     * Retrait d'un groupe sans client du pipeline, puis libération de ses Mat et de sa région de mémoire partagée
+     */
+    private synchronized void removeStreamGroupIfEmpty(FramePipeline pipeline, StreamGroup group) {
+        if(group.hasClients()) return;
+        pipeline.removeStreamGroup(group);
+        group.release();
+        Log.i(TAG, "Stream " + group.getSpec() + " sans client : région " + group.getRegionName() + " libérée");
+    }
+
+    /**
+     * Surveillance de la mort d'un client des streams négociés : il est retiré des streams de toutes les caméras
+     * @return : false si le client est déjà mort
+     */
+    private synchronized boolean watchStreamClient(final IBinder client) {
+        if(streamClients.containsKey(client)) return true;
+        IBinder.DeathRecipient recipient = new IBinder.DeathRecipient() {
+            @Override
+            public void binderDied() {
+                Log.i(TAG, "Mort d'un client de stream, retrait de ses streams");
+                for (String camera : CAMERAS) {
+                    stopStream(camera, client);
+                }
+            }
+        };
         try {
-            this.sharedMemoryOfCvResultingFrame = SharedMemoryProducer.getInstance().allocate(regionName_cv_resulting_frame, sizeInBytes_cv_resulting_frame);
-        } catch (Exception e) {
-            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName_cv_resulting_frame + " , "+sizeInBytes_cv_resulting_frame + ") : " + e);
+            client.linkToDeath(recipient, 0);
+            streamClients.put(client, recipient);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Client de stream déjà mort : " + e);
+            return false;
         }
+    }
 
+    /**
+     * Fin de la surveillance d'un client qui n'est plus dans aucun stream négocié
+     */
+    private synchronized void unwatchStreamClient(IBinder client) {
+        if(isStreamClient(client)) return;
+        IBinder.DeathRecipient recipient = streamClients.remove(client);
+        if(recipient != null) client.unlinkToDeath(recipient, 0);
+    }
+
+    /**
+     * @return : true si le client est encore dans un stream négocié d'une des caméras
+     */
+    private boolean isStreamClient(IBinder client) {
+        for (String camera : CAMERAS) {
+            for (StreamGroup group : getFramePipeline(camera).getStreamGroups()) {
+                if(group.hasClient(client)) return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -199,6 +518,7 @@ public class VisionServiceApplication extends Application {
      *           - false : si erreur
      */
     public boolean writeCvResultingFrameInSharedMemory(byte[] cvResultingFrameInBytes){
+        if (ensureCvResultingFrameRegion() == null) return false;
         try {
             this.sharedMemoryOfCvResultingFrame.writeBytes(cvResultingFrameInBytes, 0, 0, cvResultingFrameInBytes.length);
             return true;
@@ -208,14 +528,44 @@ public class VisionServiceApplication extends Application {
         }
     }
 
+    /**
+     * la fonction writeCvResultingFrameInSharedMemory() permet d'écrire une image encodée (voir FrameEncoder) sur la mémoire partagée,
+     * directement depuis son buffer (sans copie en byte[]).
+     * @param cvResultingFrame : l'image encodée à écrire sur la mémoire.
+     * @return : - true : si succés de l'écriture
+     *           - false : si erreur
+     */
+    public boolean writeCvResultingFrameInSharedMemory(EncodedFrame cvResultingFrame){
+        if (ensureCvResultingFrameRegion() == null) return false;
+        return cvResultingFrame.writeTo(sharedMemoryOfCvResultingFrame, 0);
+    }
+
+    /**
+     * Allocation de [size_MB_region_shared_memory_cv_resulting_frame]MB de mémoire partagée pour l'image résultante du traitment par CV,
+     * différée jusqu'à la première écriture (aucun client ne la demande au démarrage)
+     * @return : la mémoire partagée, ou null si erreur
+     */
+    private synchronized ISharedMemory ensureCvResultingFrameRegion() {
+        if (sharedMemoryOfCvResultingFrame != null) return sharedMemoryOfCvResultingFrame;
+        int sizeInBytes_cv_resulting_frame = Integer.parseInt(getString(R.string.size_MB_region_shared_memory_cv_resulting_frame))*(1024*1024);
+        String regionName_cv_resulting_frame = getString(R.string.name_region_shared_memory_cv_resulting_frame);
+        try {
+            this.sharedMemoryOfCvResultingFrame = SharedMemoryProducer.getInstance().allocate(regionName_cv_resulting_frame, sizeInBytes_cv_resulting_frame);
+            startup.mark("region:" + regionName_cv_resulting_frame);
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'allocation de mémoire partagée (" + regionName_cv_resulting_frame + " , "+sizeInBytes_cv_resulting_frame + ") : " + e);
+        }
+        return sharedMemoryOfCvResultingFrame;
+    }
+
     /**
      * la fonction notifyObservers() permet d'envoyer un message "notification" aux classes qui implémentent IDBObserver.
+     * Peut être appelée depuis n'importe quel thread du service : le parcours se fait sur une copie de la liste.
      * @param message : le message à envoyer
      */
     public void notifyObservers(String message) {
-        for (int i = 0; i < observers.size(); i++) {
+        for (IDBObserver ob : observers) {
             try {
-                IDBObserver ob = observers.get(i);
                 ob.update(message);
             } catch (IOException e) {
                 Log.e(TAG, "Erreur lors de l'envoi de la notification aux observateurs [ "+message+" ] :" + e);
@@ -0,0 +1,288 @@
+package com.bfr.main.visionservice.capture;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+
+import org.opencv.android.JavaCamera2View;
+
+import java.util.Collections;
+
+/**
+ * La classe Camera2FrameSource est une source de frames headless : la caméra est ouverte directement par le service
+ * via Camera2, les frames YUV arrivent sur un ImageReader et sont livrées au pipeline sans SurfaceView, sans activité
+ * et sans dessin (pas de coût UI / WindowManager dans le chemin critique).
+ */
+public class Camera2FrameSource implements FrameSource {
+
+    private static final String TAG = "SERVICE_VISION_Camera2FrameSource";
+
+    private final Context context;
+    private final int cameraIndex;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+    private OpenCallback openCallback; // callback de l'ouverture en cours ou de la caméra ouverte (null = source arrêtée)
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private ImageReader imageReader;
+    private Size previewSize;
+    private final JavaCamera2View.JavaCamera2Frame frame = new JavaCamera2View.JavaCamera2Frame(); // réutilisée pour chaque image (pas d'allocation par frame)
+    private Listener listener;
+    private volatile boolean running = false;
+
+    /**
+     * @param context : le contexte du service
+     * @param cameraIndex : l'index de la caméra dans CameraManager.getCameraIdList()
+     * @param maxWidth : largeur maximale des frames
+     * @param maxHeight : hauteur maximale des frames
+     */
+    public Camera2FrameSource(Context context, int cameraIndex, int maxWidth, int maxHeight) {
+        this.context = context;
+        this.cameraIndex = cameraIndex;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public synchronized boolean start(Listener listener) {
+        if (openCallback != null) return true; // déjà ouverte, ou ouverture en cours
+        this.listener = listener;
+
+        backgroundThread = new HandlerThread("VisionCamera2Source-" + cameraIndex);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String[] cameraIds = manager.getCameraIdList();
+            if (cameraIndex >= cameraIds.length) {
+                Log.e(TAG, "Caméra d'index " + cameraIndex + " introuvable (" + cameraIds.length + " caméras)");
+                stopBackgroundThread();
+                return false;
+            }
+            String cameraId = cameraIds[cameraIndex];
+            previewSize = choosePreviewSize(manager.getCameraCharacteristics(cameraId));
+            Log.i(TAG, "Ouverture de la caméra " + cameraId + " en " + previewSize.getWidth() + "x" + previewSize.getHeight());
+            openCallback = new OpenCallback(backgroundThread);
+            manager.openCamera(cameraId, openCallback, backgroundHandler);
+            return true;
+        } catch (CameraAccessException | IllegalArgumentException | SecurityException e) {
+            Log.e(TAG, "Erreur lors de l'ouverture de la caméra d'index " + cameraIndex + " : " + e);
+            openCallback = null;
+            stopBackgroundThread();
+            return false;
+        }
+    }
+
+    @Override
+    public void stop() {
+        Listener stoppedListener;
+        synchronized (this) {
+            if (openCallback == null) return;
+            if (cameraDevice == null) {
+                // Ouverture en cours : le thread caméra doit rester actif pour recevoir onOpened() / onError(),
+                // c'est le callback de cette ouverture qui fermera la caméra puis arrêtera son thread.
+                backgroundThread = null;
+                backgroundHandler = null;
+            }
+            openCallback = null;
+            if (captureSession != null) {
+                captureSession.close();
+                captureSession = null;
+            }
+            if (cameraDevice != null) {
+                cameraDevice.close();
+                cameraDevice = null;
+            }
+            stoppedListener = listener;
+        }
+        // Le thread caméra est arrêté hors verrou : ses callbacks peuvent encore avoir besoin du verrou
+        stopBackgroundThread();
+        synchronized (this) {
+            if (imageReader != null) {
+                imageReader.close();
+                imageReader = null;
+            }
+            frame.release();
+        }
+        running = false;
+        stoppedListener.onSourceStopped();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Choix de la plus grande taille YUV qui tient dans maxWidth x maxHeight
+     */
+    private Size choosePreviewSize(CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        Size best = null;
+        for (Size size : sizes) {
+            if (size.getWidth() <= maxWidth && size.getHeight() <= maxHeight
+                    && (best == null || size.getWidth() * size.getHeight() > best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+        }
+        return best != null ? best : sizes[0];
+    }
+
+    /**
+     * Callback d'une ouverture de la caméra (une instance par start()) : si la source a été arrêtée pendant l'ouverture,
+     * la caméra ouverte trop tard est fermée et le thread caméra de cette ouverture est arrêté.
+     * Une déconnexion ou une erreur de la caméra arrête la source comme stop().
+     */
+    private class OpenCallback extends CameraDevice.StateCallback {
+
+        private final HandlerThread thread;
+
+        OpenCallback(HandlerThread thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * @return : true si la source a été arrêtée (ou redémarrée) depuis cette ouverture
+         */
+        private boolean isStale() {
+            return openCallback != this;
+        }
+
+        @Override
+        public void onOpened(CameraDevice camera) {
+            synchronized (Camera2FrameSource.this) {
+                if (isStale()) {
+                    camera.close();
+                    thread.quitSafely();
+                    return;
+                }
+                cameraDevice = camera;
+                if (createCaptureSession(this)) return;
+            }
+            stop(); // la session de capture n'a pas pu être créée
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            Log.e(TAG, "Caméra " + camera.getId() + " déconnectée");
+            closeFromCallback(camera);
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            Log.e(TAG, "Erreur caméra " + camera.getId() + " : " + error);
+            closeFromCallback(camera);
+        }
+
+        private void closeFromCallback(CameraDevice camera) {
+            synchronized (Camera2FrameSource.this) {
+                if (isStale()) {
+                    camera.close();
+                    thread.quitSafely();
+                    return;
+                }
+                if (cameraDevice == null) cameraDevice = camera; // erreur avant onOpened() : fermée par stop()
+            }
+            stop();
+        }
+    }
+
+    /**
+     * Création de la session de capture (appelé sous le verrou). Un échec de configuration ou de démarrage de la capture
+     * arrête la source comme stop(), pour que la caméra soit fermée et l'arrêt notifié.
+     * @return : false si la session n'a pas pu être créée (la source doit être arrêtée par l'appelant, hors verrou)
+     */
+    private boolean createCaptureSession(final OpenCallback callback) {
+        imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+        imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireLatestImage();
+                if (image == null) return;
+                try {
+                    frame.setImage(image);
+                    listener.onFrame(frame, image.getTimestamp());
+                } finally {
+                    image.close(); // sinon l'ImageReader (2 images au plus) se bloque
+                }
+            }
+        }, backgroundHandler);
+
+        try {
+            final CaptureRequest.Builder requestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            requestBuilder.addTarget(imageReader.getSurface());
+            cameraDevice.createCaptureSession(Collections.singletonList(imageReader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(CameraCaptureSession session) {
+                            synchronized (Camera2FrameSource.this) {
+                                if (callback.isStale()) { // source arrêtée (ou redémarrée) pendant la configuration
+                                    session.close();
+                                    return;
+                                }
+                                captureSession = session;
+                                try {
+                                    requestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                                    captureSession.setRepeatingRequest(requestBuilder.build(), null, backgroundHandler);
+                                    running = true;
+                                    listener.onSourceStarted(previewSize.getWidth(), previewSize.getHeight());
+                                    return;
+                                } catch (CameraAccessException | IllegalStateException e) {
+                                    Log.e(TAG, "Erreur lors du démarrage de la capture : " + e);
+                                }
+                            }
+                            stop();
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            Log.e(TAG, "Echec de configuration de la session de capture");
+                            synchronized (Camera2FrameSource.this) {
+                                if (callback.isStale()) return;
+                            }
+                            stop();
+                        }
+                    }, backgroundHandler);
+            return true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Erreur lors de la création de la session de capture : " + e);
+            return false;
+        }
+    }
+
+    private void stopBackgroundThread() {
+        HandlerThread thread;
+        synchronized (this) {
+            thread = backgroundThread;
+            backgroundThread = null;
+            backgroundHandler = null;
+        }
+        if (thread == null) return;
+        thread.quitSafely();
+        if (thread == Thread.currentThread()) return; // arrêt depuis un callback caméra
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interruption pendant l'arrêt du thread caméra : " + e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.bfr.main.visionservice.capture;
+
+import android.os.SystemClock;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+/**
+ * La classe CameraBridgeFrameSource adapte la vue CameraBridgeViewBase d'OpenCV (hébergée par l'activité CamViewActivity)
+ * à l'interface FrameSource. La frame retournée par le pipeline est dessinée par la vue.
+ */
+public class CameraBridgeFrameSource implements FrameSource, CameraBridgeViewBase.CvCameraViewListener2 {
+
+    private final CameraBridgeViewBase cameraView;
+    private Listener listener;
+    private volatile boolean running = false;
+
+    public CameraBridgeFrameSource(CameraBridgeViewBase cameraView) {
+        this.cameraView = cameraView;
+    }
+
+    @Override
+    public boolean start(Listener listener) {
+        this.listener = listener;
+        cameraView.setCvCameraViewListener(this);
+        cameraView.enableView();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        cameraView.disableView();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Implementation des méthodes openCV
+     */
+
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+        running = true;
+        listener.onSourceStarted(width, height);
+    }
+
+    @Override
+    public void onCameraViewStopped() {
+        running = false;
+        listener.onSourceStopped();
+    }
+
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        return listener.onFrame(inputFrame, SystemClock.elapsedRealtimeNanos());
+    }
+}
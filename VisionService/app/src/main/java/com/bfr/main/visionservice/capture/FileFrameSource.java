@@ -0,0 +1,176 @@
+package com.bfr.main.visionservice.capture;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * La classe FileFrameSource rejoue des frames enregistrées (dossier d'images ou fichier vidéo) à une cadence donnée.
+ * Elle permet de benchmarker et tester tout le pipeline sans caméra ni robot.
+ *      - dossier : les images (.jpg, .jpeg, .png, .bmp) sont lues dans l'ordre alphabétique.
+ *      - vidéo : le fichier est lu avec VideoCapture.
+ * En boucle, la lecture s'arrête après un passage complet sans aucune frame lisible (au lieu de tourner à vide).
+ * Les frames sont horodatées à leur livraison (SystemClock.elapsedRealtimeNanos(), comme CameraBridgeFrameSource) :
+ * les timestamps restent croissants d'un démarrage à l'autre et même sans cadence (fps = 0).
+ */
+public class FileFrameSource implements FrameSource {
+
+    private static final String TAG = "SERVICE_VISION_FileFrameSource";
+
+    private final File path;
+    private final double fps;
+    private final boolean loop;
+
+    private Thread playbackThread;
+    private volatile boolean running = false;
+
+    /**
+     * @param path : dossier d'images ou fichier vidéo
+     * @param fps : cadence de lecture (0 = aussi vite que possible, pour les benchmarks)
+     * @param loop : rejouer indéfiniment
+     */
+    public FileFrameSource(File path, double fps, boolean loop) {
+        this.path = path;
+        this.fps = fps;
+        this.loop = loop;
+    }
+
+    @Override
+    public synchronized boolean start(final Listener listener) {
+        if (running) return true;
+        if (!path.exists()) {
+            Log.e(TAG, "Source de frames introuvable : " + path);
+            return false;
+        }
+        running = true;
+        playbackThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play(listener);
+            }
+        }, "VisionFileFrameSource");
+        playbackThread.start();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = playbackThread;
+            playbackThread = null;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interruption pendant l'arrêt de la lecture : " + e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Boucle de lecture (thread de la source)
+     */
+    private void play(Listener listener) {
+        long periodNs = fps > 0 ? (long) (1e9 / fps) : 0;
+        boolean started = false;
+        MatFrame frame = new MatFrame();
+        Mat image = new Mat();
+
+        File[] images = path.isDirectory() ? listImages() : null;
+        VideoCapture video = null;
+        int index = 0;
+        int framesInPass = 0; // frames lisibles depuis le début du passage en cours
+
+        while (running) {
+            long frameStart = System.nanoTime();
+
+            // lecture de la frame suivante
+            if (images != null) {
+                if (index >= images.length) {
+                    if (!restartPass(framesInPass)) break;
+                    index = 0;
+                    framesInPass = 0;
+                }
+                Mat next = Imgcodecs.imread(images[index++].getPath()); // imread() alloue une nouvelle Mat à chaque image
+                image.release();
+                image = next;
+            } else {
+                if (video == null) video = new VideoCapture(path.getPath());
+                if (!video.read(image) || image.empty()) {
+                    if (!restartPass(framesInPass)) break;
+                    video.release();
+                    video = null;
+                    framesInPass = 0;
+                    continue;
+                }
+            }
+            if (image.empty()) continue;
+            framesInPass++;
+
+            if (!started) {
+                listener.onSourceStarted(image.cols(), image.rows());
+                started = true;
+            }
+            frame.setImage(image);
+            listener.onFrame(frame, SystemClock.elapsedRealtimeNanos());
+
+            // respect de la cadence
+            long remainingNs = periodNs - (System.nanoTime() - frameStart);
+            if (remainingNs > 0) {
+                try {
+                    Thread.sleep(remainingNs / 1000000, (int) (remainingNs % 1000000));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        if (video != null) video.release();
+        image.release();
+        frame.release();
+        running = false;
+        listener.onSourceStopped();
+    }
+
+    /**
+     * Fin d'un passage sur les frames : on ne recommence qu'en boucle, et seulement si le passage a livré au moins une frame
+     */
+    private boolean restartPass(int framesInPass) {
+        if (framesInPass == 0) Log.e(TAG, "Aucune frame lisible dans " + path);
+        return loop && framesInPass > 0;
+    }
+
+    private File[] listImages() {
+        File[] files = path.listFiles();
+        if (files == null) return new File[0];
+        files = filter(files);
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static File[] filter(File[] files) {
+        int count = 0;
+        File[] images = new File[files.length];
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".bmp")) {
+                images[count++] = file;
+            }
+        }
+        return Arrays.copyOf(images, count);
+    }
+}
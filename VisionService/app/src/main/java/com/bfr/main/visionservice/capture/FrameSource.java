@@ -0,0 +1,58 @@
+package com.bfr.main.visionservice.capture;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+/**
+ * L'interface FrameSource représente une source de frames pour le pipeline de traitement d'une caméra.
+ * Le pipeline s'exécute de la même façon quelle que soit la source :
+ *      - Camera2FrameSource : caméra Camera2 possédée par le service, sans SurfaceView ni dessin (mode headless).
+ *      - CameraBridgeFrameSource : la vue CameraBridgeViewBase d'OpenCV hébergée par l'activité CamViewActivity.
+ *      - FileFrameSource : un dossier d'images ou une vidéo enregistrés (benchmarks et tests hors robot).
+ */
+public interface FrameSource {
+
+    /**
+     * Le Listener reçoit les frames de la source (en général le pipeline de la caméra).
+     */
+    interface Listener {
+
+        /**
+         * Appelée quand la source a démarré, avant la première frame.
+         */
+        void onSourceStarted(int width, int height);
+
+        /**
+         * Appelée pour chaque frame, sur le thread de la source.
+         * Attention : la frame n'est valide que pendant l'appel.
+         * @param frame : la frame (RGBA / gris à la demande)
+         * @param timestampNs : le timestamp capteur de la frame (ns)
+         * @return : la frame à afficher (utilisée seulement par les sources qui dessinent), ou null
+         */
+        Mat onFrame(CameraBridgeViewBase.CvCameraViewFrame frame, long timestampNs);
+
+        /**
+         * Appelée quand la source s'est arrêtée : plus aucune frame ne sera livrée.
+         * La source peut s'arrêter d'elle-même (caméra déconnectée ou en erreur, fin des frames enregistrées),
+         * sans appel à stop() : le propriétaire de la source doit alors la considérer comme arrêtée.
+         */
+        void onSourceStopped();
+    }
+
+    /**
+     * La fonction start() permet de démarrer la livraison des frames au listener.
+     * @return : - true : si la source a pu être démarrée
+     *           - false : si erreur
+     */
+    boolean start(Listener listener);
+
+    /**
+     * La fonction stop() permet d'arrêter la livraison des frames et de libérer la source.
+     */
+    void stop();
+
+    /**
+     * @return : true si la source livre des frames
+     */
+    boolean isRunning();
+}
@@ -0,0 +1,40 @@
+package com.bfr.main.visionservice.capture;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * La classe MatFrame présente une image BGR (lue par Imgcodecs / VideoCapture) comme une frame caméra,
+ * pour que le pipeline traite les frames enregistrées exactement comme les frames de la caméra.
+ */
+public class MatFrame implements CameraBridgeViewBase.CvCameraViewFrame {
+
+    private final Mat mRgba = new Mat();
+    private final Mat mGray = new Mat();
+    private Mat bgr;
+
+    /**
+     * @param bgr : l'image source au format BGR (CV_8UC3)
+     */
+    public void setImage(Mat bgr) {
+        this.bgr = bgr;
+    }
+
+    @Override
+    public Mat rgba() {
+        Imgproc.cvtColor(bgr, mRgba, Imgproc.COLOR_BGR2RGBA);
+        return mRgba;
+    }
+
+    @Override
+    public Mat gray() {
+        Imgproc.cvtColor(bgr, mGray, Imgproc.COLOR_BGR2GRAY);
+        return mGray;
+    }
+
+    public void release() {
+        mRgba.release();
+        mGray.release();
+    }
+}
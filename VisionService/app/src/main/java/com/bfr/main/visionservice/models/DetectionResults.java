@@ -0,0 +1,272 @@
+package com.bfr.main.visionservice.models;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.bfr.main.visionservice.DetectedFace;
+
+import java.util.List;
+
+/**
+ * La classe DetectionResults est le modèle parcelable des résultats de détection d'une frame, envoyé via AIDL
+ * à la place du JSON de getTagsInfos().
+ * Toutes les détections sont rangées dans des tableaux de primitives (une case ou un groupe de cases par détection),
+ * ce qui donne un Parcel compact et sans objet intermédiaire :
+ *        - tags : tagIds[n], tagCorners[8n] (4 coins x,y dans l'ordre de détection), tagScores[n]
+ *        - visages : faceBoxes[4n] (x1,y1,x2,y2), faceScores[n], faceTrackingIds[n],
+ *                    faceClassifications[3n] (sourire, oeil gauche ouvert, oeil droit ouvert),
+ *                    faceLandmarks[10n] (oeil gauche, oeil droit, nez, oreille gauche, oreille droite : x,y)
+ *        - la séquence de la frame dans le pipeline et son timestamp capteur
+ */
+public class DetectionResults implements Parcelable {
+
+    public static final int RESULT_TAGS = 1; // types de résultats (masque) : tags
+    public static final int RESULT_FACES = 2; // types de résultats (masque) : visages
+    public static final int RESULT_ALL = RESULT_TAGS | RESULT_FACES;
+
+    public static final int CORNERS_PER_TAG = 8;
+    public static final int BOX_SIZE = 4;
+    public static final int CLASSIFICATIONS_PER_FACE = 3;
+    public static final int LANDMARKS_PER_FACE = 10;
+
+    private static final int[] NO_INT = new int[0];
+    private static final float[] NO_FLOAT = new float[0];
+
+    private String camera;
+    private long frameSequence;
+    private long timestampNs;
+
+    private int[] tagIds = NO_INT;
+    private float[] tagCorners = NO_FLOAT;
+    private float[] tagScores = NO_FLOAT;
+
+    private float[] faceBoxes = NO_FLOAT;
+    private float[] faceScores = NO_FLOAT;
+    private int[] faceTrackingIds = NO_INT;
+    private float[] faceClassifications = NO_FLOAT;
+    private float[] faceLandmarks = NO_FLOAT;
+
+    /**
+     * Constructors
+     */
+
+    public DetectionResults(String camera, long frameSequence, long timestampNs) {
+        this.camera = camera;
+        this.frameSequence = frameSequence;
+        this.timestampNs = timestampNs;
+    }
+
+    /**
+     * Getters and Setters
+     */
+
+    public String getCamera() {
+        return camera;
+    }
+
+    public long getFrameSequence() {
+        return frameSequence;
+    }
+
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    public int getNumberOfTags() {
+        return tagIds.length;
+    }
+
+    public int[] getTagIds() {
+        return tagIds;
+    }
+
+    public float[] getTagCorners() {
+        return tagCorners;
+    }
+
+    public float[] getTagScores() {
+        return tagScores;
+    }
+
+    /**
+     * La fonction setTags() permet de renseigner les tags détectés.
+     * @param tagIds : les valeurs lues sur les tags [n]
+     * @param tagCorners : les coins des tags [8n]
+     * @param tagScores : les scores des tags [n]
+     */
+    public void setTags(int[] tagIds, float[] tagCorners, float[] tagScores) {
+        if (tagCorners.length != tagIds.length * CORNERS_PER_TAG || tagScores.length != tagIds.length) {
+            throw new IllegalArgumentException("Tailles de tableaux de tags incohérentes");
+        }
+        this.tagIds = tagIds;
+        this.tagCorners = tagCorners;
+        this.tagScores = tagScores;
+    }
+
+    public int getNumberOfFaces() {
+        return faceScores.length;
+    }
+
+    public float[] getFaceBoxes() {
+        return faceBoxes;
+    }
+
+    public float[] getFaceScores() {
+        return faceScores;
+    }
+
+    public int[] getFaceTrackingIds() {
+        return faceTrackingIds;
+    }
+
+    public float[] getFaceClassifications() {
+        return faceClassifications;
+    }
+
+    public float[] getFaceLandmarks() {
+        return faceLandmarks;
+    }
+
+    /**
+     * La fonction setFaces() permet de renseigner les visages détectés à partir des DetectedFace.
+     * @param faces : les visages détectés
+     * @param scores : les scores de détection des visages [n]
+     */
+    public void setFaces(List<DetectedFace> faces, float[] scores) {
+        int n = faces.size();
+        if (scores.length != n) throw new IllegalArgumentException("Tailles de tableaux de visages incohérentes");
+        faceBoxes = new float[n * BOX_SIZE];
+        faceScores = scores;
+        faceTrackingIds = new int[n];
+        faceClassifications = new float[n * CLASSIFICATIONS_PER_FACE];
+        faceLandmarks = new float[n * LANDMARKS_PER_FACE];
+        for (int i = 0; i < n; i++) {
+            DetectedFace face = faces.get(i);
+            int b = i * BOX_SIZE;
+            faceBoxes[b] = face.x1;
+            faceBoxes[b + 1] = face.y1;
+            faceBoxes[b + 2] = face.x2;
+            faceBoxes[b + 3] = face.y2;
+            faceTrackingIds[i] = face.trackingId;
+            int c = i * CLASSIFICATIONS_PER_FACE;
+            faceClassifications[c] = face.smilingProbability;
+            faceClassifications[c + 1] = face.leftEyeOpenProbability;
+            faceClassifications[c + 2] = face.rightEyeOpenProbability;
+            int l = i * LANDMARKS_PER_FACE;
+            faceLandmarks[l] = face.x_leftEye;
+            faceLandmarks[l + 1] = face.y_leftEye;
+            faceLandmarks[l + 2] = face.x_rightEye;
+            faceLandmarks[l + 3] = face.y_rightEye;
+            faceLandmarks[l + 4] = face.x_nose;
+            faceLandmarks[l + 5] = face.y_nose;
+            faceLandmarks[l + 6] = face.x_leftEar;
+            faceLandmarks[l + 7] = face.y_leftEear;
+            faceLandmarks[l + 8] = face.x_rightEar;
+            faceLandmarks[l + 9] = face.y_rightEar;
+        }
+    }
+
+    /**
+     * La fonction getFace() permet de reconstruire le DetectedFace d'indice i (côté client).
+     */
+    public DetectedFace getFace(int i) {
+        DetectedFace face = new DetectedFace();
+        int b = i * BOX_SIZE;
+        face.x1 = (int) faceBoxes[b];
+        face.y1 = (int) faceBoxes[b + 1];
+        face.x2 = (int) faceBoxes[b + 2];
+        face.y2 = (int) faceBoxes[b + 3];
+        face.trackingId = faceTrackingIds[i];
+        int c = i * CLASSIFICATIONS_PER_FACE;
+        face.smilingProbability = faceClassifications[c];
+        face.leftEyeOpenProbability = faceClassifications[c + 1];
+        face.rightEyeOpenProbability = faceClassifications[c + 2];
+        int l = i * LANDMARKS_PER_FACE;
+        face.x_leftEye = (int) faceLandmarks[l];
+        face.y_leftEye = (int) faceLandmarks[l + 1];
+        face.x_rightEye = (int) faceLandmarks[l + 2];
+        face.y_rightEye = (int) faceLandmarks[l + 3];
+        face.x_nose = (int) faceLandmarks[l + 4];
+        face.y_nose = (int) faceLandmarks[l + 5];
+        face.x_leftEar = (int) faceLandmarks[l + 6];
+        face.y_leftEear = (int) faceLandmarks[l + 7];
+        face.x_rightEar = (int) faceLandmarks[l + 8];
+        face.y_rightEar = (int) faceLandmarks[l + 9];
+        return face;
+    }
+
+    /**
+     * La fonction withKinds() permet de ne garder que certains types de résultats (abonnements aux résultats).
+     * Les tableaux sont partagés avec l'objet d'origine, sans copie.
+     * @param kinds : masque de RESULT_TAGS / RESULT_FACES
+     * @return : cet objet si tous les types sont demandés, sinon une vue ne contenant que les types demandés
+     */
+    public DetectionResults withKinds(int kinds) {
+        if ((kinds & RESULT_ALL) == RESULT_ALL) return this;
+        DetectionResults view = new DetectionResults(camera, frameSequence, timestampNs);
+        if ((kinds & RESULT_TAGS) != 0) {
+            view.tagIds = tagIds;
+            view.tagCorners = tagCorners;
+            view.tagScores = tagScores;
+        }
+        if ((kinds & RESULT_FACES) != 0) {
+            view.faceBoxes = faceBoxes;
+            view.faceScores = faceScores;
+            view.faceTrackingIds = faceTrackingIds;
+            view.faceClassifications = faceClassifications;
+            view.faceLandmarks = faceLandmarks;
+        }
+        return view;
+    }
+
+    /**
+     * Parcelable implementation
+     */
+
+    protected DetectionResults(Parcel in) {
+        camera = in.readString();
+        frameSequence = in.readLong();
+        timestampNs = in.readLong();
+        tagIds = in.createIntArray();
+        tagCorners = in.createFloatArray();
+        tagScores = in.createFloatArray();
+        faceBoxes = in.createFloatArray();
+        faceScores = in.createFloatArray();
+        faceTrackingIds = in.createIntArray();
+        faceClassifications = in.createFloatArray();
+        faceLandmarks = in.createFloatArray();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(camera);
+        dest.writeLong(frameSequence);
+        dest.writeLong(timestampNs);
+        dest.writeIntArray(tagIds);
+        dest.writeFloatArray(tagCorners);
+        dest.writeFloatArray(tagScores);
+        dest.writeFloatArray(faceBoxes);
+        dest.writeFloatArray(faceScores);
+        dest.writeIntArray(faceTrackingIds);
+        dest.writeFloatArray(faceClassifications);
+        dest.writeFloatArray(faceLandmarks);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<DetectionResults> CREATOR = new Creator<DetectionResults>() {
+        @Override
+        public DetectionResults createFromParcel(Parcel in) {
+            return new DetectionResults(in);
+        }
+
+        @Override
+        public DetectionResults[] newArray(int size) {
+            return new DetectionResults[size];
+        }
+    };
+
+}
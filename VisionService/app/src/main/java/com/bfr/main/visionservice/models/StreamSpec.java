@@ -0,0 +1,133 @@
+package com.bfr.main.visionservice.models;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * La classe StreamSpec est le modèle parcelable de la spécification d'un stream demandée par un client (startFrameStreamWithSpec) :
+ *        - la résolution (width x height, 0 x 0 = résolution de la caméra), arrondie à des valeurs paires
+ *        - la cadence maximale (maxFps, 0 = cadence de la caméra)
+ *        - le format des frames : FORMAT_JPEG (avec jpegQuality), FORMAT_RGBA, FORMAT_GRAY ou FORMAT_NV21
+ *
+ * Deux StreamSpec égaux désignent le même stream : les clients qui le demandent partagent une seule conversion par frame
+ * et la même région de mémoire partagée.
+ */
+public class StreamSpec implements Parcelable {
+
+    public static final int FORMAT_JPEG = 1;
+    public static final int FORMAT_RGBA = 2;
+    public static final int FORMAT_GRAY = 3;
+    public static final int FORMAT_NV21 = 4;
+
+    private int width;
+    private int height;
+    private float maxFps;
+    private int format;
+    private int jpegQuality;
+
+    /**
+     * Constructors
+     */
+
+    public StreamSpec(int width, int height, float maxFps, int format, int jpegQuality) {
+        this.width = width & ~1;
+        this.height = height & ~1;
+        this.maxFps = maxFps;
+        this.format = format;
+        this.jpegQuality = format == FORMAT_JPEG ? jpegQuality : 0;
+    }
+
+    /**
+     * Getters
+     */
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float getMaxFps() {
+        return maxFps;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    /**
+     * @return : true si la spécification est utilisable (format connu, résolution paire et cadence positives)
+     */
+    public boolean isValid() {
+        return format >= FORMAT_JPEG && format <= FORMAT_NV21
+                && width >= 0 && height >= 0 && (width == 0) == (height == 0) && (width & 1) == 0 && (height & 1) == 0
+                && maxFps >= 0 && jpegQuality >= 0 && jpegQuality <= 100;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StreamSpec)) return false;
+        StreamSpec other = (StreamSpec) o;
+        return width == other.width && height == other.height && Float.compare(maxFps, other.maxFps) == 0
+                && format == other.format && jpegQuality == other.jpegQuality;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = width;
+        result = 31 * result + height;
+        result = 31 * result + Float.floatToIntBits(maxFps);
+        result = 31 * result + format;
+        result = 31 * result + jpegQuality;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        String name = format == FORMAT_JPEG ? "jpeg" + jpegQuality : format == FORMAT_RGBA ? "rgba" : format == FORMAT_GRAY ? "gray" : "nv21";
+        return (width > 0 ? width + "x" + height : "full") + "-" + (maxFps > 0 ? maxFps + "fps" : "max") + "-" + name;
+    }
+
+    /**
+     * Parcelable implementation
+     */
+
+    protected StreamSpec(Parcel in) {
+        // mêmes arrondis que le constructeur public : une résolution impaire ne peut pas être convertie en NV21
+        this(in.readInt(), in.readInt(), in.readFloat(), in.readInt(), in.readInt());
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(width);
+        dest.writeInt(height);
+        dest.writeFloat(maxFps);
+        dest.writeInt(format);
+        dest.writeInt(jpegQuality);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<StreamSpec> CREATOR = new Creator<StreamSpec>() {
+        @Override
+        public StreamSpec createFromParcel(Parcel in) {
+            return new StreamSpec(in);
+        }
+
+        @Override
+        public StreamSpec[] newArray(int size) {
+            return new StreamSpec[size];
+        }
+    };
+
+}
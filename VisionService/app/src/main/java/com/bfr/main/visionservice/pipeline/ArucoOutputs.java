@@ -0,0 +1,101 @@
+package com.bfr.main.visionservice.pipeline;
+
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * La classe ArucoOutputs convertit les sorties de Aruco.detectMarkers() (une Mat 1x4 CV_32FC2 de coins par tag,
+ * une Mat Nx1 CV_32S de valeurs) en tableaux de primitives à plat fournis par l'appelant, et inversement :
+ *      - valeurs : un seul get() pour toute la Mat,
+ *      - coins : un seul get() / put() par tag (8 floats), au lieu de 4 get(row, col) qui allouent chacun un double[].
+ * Tous les étages qui lisent les tags (détection, snapshot, historique, mémoire partagée) passent par ici.
+ */
+public final class ArucoOutputs {
+
+    private static final ThreadLocal<float[]> TAG_POINTS = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[DetectionResults.CORNERS_PER_TAG];
+        }
+    };
+
+    private ArucoOutputs() {
+    }
+
+    /**
+     * La fonction readIds() permet de copier les valeurs des tags dans un tableau.
+     * @param ids : les valeurs lues sur les tags (Mat Nx1 CV_32S)
+     * @param out : le tableau de destination (au moins ids.rows() cases ; les cases en trop ne sont pas modifiées)
+     * @return : le nombre de valeurs copiées
+     */
+    public static int readIds(Mat ids, int[] out) {
+        int count = Math.min(ids.rows(), out.length);
+        if (count > 0) ids.get(0, 0, out);
+        return count;
+    }
+
+    /**
+     * La fonction readCorners() permet de copier les coins des tags, à plat, dans un tableau :
+     * [x0, y0, x1, y1, x2, y2, x3, y3] du tag 0, puis du tag 1, ...
+     * @param corners : les coins des tags (une Mat 1x4 CV_32FC2 par tag)
+     * @param out : le tableau de destination
+     * @param maxTags : le nombre maximal de tags copiés (limité aussi par la taille de out)
+     * @return : le nombre de tags copiés
+     */
+    public static int readCorners(List<Mat> corners, float[] out, int maxTags) {
+        int count = Math.min(Math.min(corners.size(), maxTags), out.length / DetectionResults.CORNERS_PER_TAG);
+        float[] points = TAG_POINTS.get();
+        for (int k = 0; k < count; k++) {
+            corners.get(k).get(0, 0, points);
+            System.arraycopy(points, 0, out, k * DetectionResults.CORNERS_PER_TAG, DetectionResults.CORNERS_PER_TAG);
+        }
+        return count;
+    }
+
+    /**
+     * La fonction readTagCorners() permet de copier les coins d'un seul tag dans un tableau, à partir de offset.
+     */
+    public static void readTagCorners(Mat tagCorners, float[] out, int offset) {
+        if (offset == 0 && out.length == DetectionResults.CORNERS_PER_TAG) {
+            tagCorners.get(0, 0, out);
+            return;
+        }
+        float[] points = TAG_POINTS.get();
+        tagCorners.get(0, 0, points);
+        System.arraycopy(points, 0, out, offset, DetectionResults.CORNERS_PER_TAG);
+    }
+
+    /**
+     * La fonction writeTagCorners() permet d'écrire les coins d'un tag (8 floats à partir de offset) dans sa Mat 1x4 CV_32FC2.
+     */
+    public static void writeTagCorners(float[] points, int offset, Mat tagCorners) {
+        if (offset == 0 && points.length == DetectionResults.CORNERS_PER_TAG) {
+            tagCorners.put(0, 0, points);
+            return;
+        }
+        float[] tagPoints = TAG_POINTS.get();
+        System.arraycopy(points, offset, tagPoints, 0, DetectionResults.CORNERS_PER_TAG);
+        tagCorners.put(0, 0, tagPoints);
+    }
+
+    /**
+     * La fonction writeIds() permet d'écrire des valeurs de tags dans une Mat Nx1 CV_32S (un seul put()).
+     * @param values : les valeurs (les count premières cases)
+     * @param count : le nombre de valeurs
+     * @param ids : la Mat de destination, (ré)allouée à count x 1
+     */
+    public static void writeIds(int[] values, int count, Mat ids) {
+        ids.create(count, 1, CvType.CV_32S);
+        if (count == 0) return;
+        if (values.length == count) {
+            ids.put(0, 0, values);
+        } else {
+            ids.put(0, 0, Arrays.copyOf(values, count));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe BudgetedExecutor exécute les tâches d'une caméra sur le pool de workers partagé (VisionWorkerPool),
+ * avec au plus maxThreads tâches de cette caméra en parallèle : c'est le budget CPU de la caméra.
+ * Les tâches en attente sont soumises au pool une par une, pour que les caméras se partagent équitablement les threads.
+ */
+public class BudgetedExecutor implements Executor {
+
+    private static final String TAG = "SERVICE_VISION_BudgetedExecutor";
+
+    private final String name;
+    private final Executor pool;
+    private final int maxThreads;
+
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong busyNs = new AtomicLong();
+
+    private final Runnable runner = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task = pending.poll();
+            try {
+                if (task != null) {
+                    long start = System.nanoTime();
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        Log.e(TAG, "Erreur dans une tâche de " + name + " : " + e);
+                    }
+                    busyNs.addAndGet(System.nanoTime() - start);
+                    executed.incrementAndGet();
+                }
+            } finally {
+                running.decrementAndGet();
+                startRunners();
+            }
+        }
+    };
+
+    /**
+     * @param name : le nom du budget (la caméra)
+     * @param pool : le pool de workers partagé
+     * @param maxThreads : le nombre maximal de threads du pool utilisés en parallèle par cette caméra
+     */
+    public BudgetedExecutor(String name, Executor pool, int maxThreads) {
+        this.name = name;
+        this.pool = pool;
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        pending.offer(task);
+        startRunners();
+    }
+
+    /**
+     * Soumission au pool d'autant de tâches en attente que le budget le permet
+     */
+    private void startRunners() {
+        while (!pending.isEmpty()) {
+            int current = running.get();
+            if (current >= maxThreads) return;
+            if (running.compareAndSet(current, current + 1)) {
+                pool.execute(runner);
+            }
+        }
+    }
+
+    /**
+     * La fonction dump() permet d'afficher l'utilisation du budget
+     */
+    public void dump(PrintWriter writer, long uptimeNs) {
+        writer.println("    [" + name + "] budget=" + maxThreads + " thread(s)"
+                + " running=" + running.get()
+                + " pending=" + pending.size()
+                + " executed=" + executed.get()
+                + " cpu=" + (uptimeNs > 0 ? String.format("%.1f", 100.0 * busyNs.get() / uptimeNs) : "-") + "% d'un thread");
+    }
+}
@@ -0,0 +1,169 @@
+package com.bfr.main.visionservice.pipeline;
+
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * La classe DetectionHistory garde l'historique borné des détections d'une caméra (les frames avec au moins un tag),
+ * pour qu'un client qui interroge le service à faible cadence ne perde aucune détection :
+ *      - détections depuis une séquence (numéro de frame) : getSince()
+ *      - détections entre deux timestamps capteur : getBetween()
+ *
+ * Tout est rangé dans des tableaux de primitives alloués une seule fois, en deux buffers circulaires :
+ *      - les frames : numéro, timestamp, position et nombre de tags
+ *      - les tags : valeurs et coins (8 floats par tag)
+ * Une frame est retirée de l'historique quand elle est plus ancienne que la fenêtre (windowNs, par rapport à la dernière frame
+ * traitée) ou quand ses cases ont été réutilisées par des frames plus récentes (maxFrames / maxTags).
+ *
+ * Un seul écrivain (l'étage "detection"), plusieurs lecteurs (threads binder) : les sections critiques se limitent à des copies
+ * de tableaux. Les lecteurs copient les frames retenues sous le verrou, puis construisent les DetectionResults hors verrou.
+ */
+public class DetectionHistory {
+
+    private final long windowNs;
+    private final int maxFrames;
+    private final int maxTags;
+
+    private final long[] frameNumbers;
+    private final long[] timestamps;
+    private final long[] tagStarts; // position absolue du premier tag de la frame dans le buffer des tags
+    private final int[] tagCounts;
+    private final int[] tagIds;
+    private final float[] tagCorners;
+
+    private long framesWritten = 0;
+    private long tagsWritten = 0;
+    private long latestTimestampNs = 0; // timestamp de la dernière frame traitée, avec ou sans tag
+
+    /**
+     * @param windowNs : la durée de l'historique (ns)
+     * @param maxFrames : le nombre maximal de frames gardées
+     * @param maxTags : le nombre maximal de tags gardés (toutes frames confondues)
+     */
+    public DetectionHistory(long windowNs, int maxFrames, int maxTags) {
+        this.windowNs = windowNs;
+        this.maxFrames = maxFrames;
+        this.maxTags = maxTags;
+        this.frameNumbers = new long[maxFrames];
+        this.timestamps = new long[maxFrames];
+        this.tagStarts = new long[maxFrames];
+        this.tagCounts = new int[maxFrames];
+        this.tagIds = new int[maxTags];
+        this.tagCorners = new float[maxTags * DetectionResults.CORNERS_PER_TAG];
+    }
+
+    /**
+     * La fonction record() permet d'ajouter les résultats d'une frame à l'historique (étage "detection", à chaque frame).
+     * Les frames sans tag ne sont pas gardées, mais font avancer la fenêtre de l'historique.
+     */
+    public synchronized void record(DetectionSnapshot snapshot) {
+        latestTimestampNs = snapshot.getTimestampNs();
+        int count = Math.min(snapshot.getNumberOfTags(), maxTags);
+        if (count == 0) return;
+
+        int frame = (int) (framesWritten % maxFrames);
+        frameNumbers[frame] = snapshot.getFrameNumber();
+        timestamps[frame] = snapshot.getTimestampNs();
+        tagStarts[frame] = tagsWritten;
+        tagCounts[frame] = count;
+        for (int k = 0; k < count; k++) {
+            int tag = (int) ((tagsWritten + k) % maxTags);
+            tagIds[tag] = snapshot.getTagId(k);
+            for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c++) {
+                tagCorners[tag * DetectionResults.CORNERS_PER_TAG + c] = snapshot.getTagCorner(k, c);
+            }
+        }
+        tagsWritten += count;
+        framesWritten++;
+    }
+
+    /**
+     * La fonction getSince() permet de récupérer les détections des frames de numéro strictement supérieur à une séquence.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param sequence : la dernière séquence déjà reçue par le client (DetectionResults.getFrameSequence(), 0 pour tout l'historique)
+     * @return : les détections, de la plus ancienne à la plus récente
+     */
+    public DetectionResults[] getSince(String camera, long sequence) {
+        return collect(camera, sequence, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * La fonction getBetween() permet de récupérer les détections dont le timestamp capteur est compris entre t0 et t1 (inclus).
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param t0Ns : le début de l'intervalle (ns, même base que DetectionResults.getTimestampNs())
+     * @param t1Ns : la fin de l'intervalle (ns)
+     * @return : les détections, de la plus ancienne à la plus récente
+     */
+    public DetectionResults[] getBetween(String camera, long t0Ns, long t1Ns) {
+        return collect(camera, Long.MIN_VALUE, t0Ns, t1Ns);
+    }
+
+    /**
+     * Parcours des frames encore valides, de la plus ancienne à la plus récente : copie sous le verrou, construction hors verrou
+     */
+    private DetectionResults[] collect(String camera, long afterSequence, long t0Ns, long t1Ns) {
+        int frameCount = 0;
+        long[] numbers;
+        long[] stamps;
+        int[] counts;
+        int[] ids;
+        float[] corners;
+        synchronized (this) {
+            int[] frames = new int[(int) Math.min(framesWritten, maxFrames)];
+            int tagCount = 0;
+            long oldestTimestampNs = latestTimestampNs - windowNs;
+            for (long i = Math.max(0, framesWritten - maxFrames); i < framesWritten; i++) {
+                int frame = (int) (i % maxFrames);
+                if (tagStarts[frame] < tagsWritten - maxTags) continue; // tags écrasés par des frames plus récentes
+                long timestampNs = timestamps[frame];
+                if (timestampNs < oldestTimestampNs || frameNumbers[frame] <= afterSequence) continue;
+                if (timestampNs < t0Ns || timestampNs > t1Ns) continue;
+                frames[frameCount++] = frame;
+                tagCount += tagCounts[frame];
+            }
+
+            numbers = new long[frameCount];
+            stamps = new long[frameCount];
+            counts = new int[frameCount];
+            ids = new int[tagCount];
+            corners = new float[tagCount * DetectionResults.CORNERS_PER_TAG];
+            int copied = 0;
+            for (int f = 0; f < frameCount; f++) {
+                int frame = frames[f];
+                numbers[f] = frameNumbers[frame];
+                stamps[f] = timestamps[frame];
+                counts[f] = tagCounts[frame];
+                for (int k = 0; k < counts[f]; k++, copied++) {
+                    int tag = (int) ((tagStarts[frame] + k) % maxTags);
+                    ids[copied] = tagIds[tag];
+                    System.arraycopy(tagCorners, tag * DetectionResults.CORNERS_PER_TAG, corners, copied * DetectionResults.CORNERS_PER_TAG, DetectionResults.CORNERS_PER_TAG);
+                }
+            }
+        }
+
+        DetectionResults[] results = new DetectionResults[frameCount];
+        int first = 0;
+        for (int f = 0; f < frameCount; f++) {
+            int count = counts[f];
+            float[] scores = new float[count];
+            Arrays.fill(scores, 1f);
+            results[f] = new DetectionResults(camera, numbers[f], stamps[f]);
+            results[f].setTags(Arrays.copyOfRange(ids, first, first + count),
+                    Arrays.copyOfRange(corners, first * DetectionResults.CORNERS_PER_TAG, (first + count) * DetectionResults.CORNERS_PER_TAG), scores);
+            first += count;
+        }
+        return results;
+    }
+
+    /**
+     * La fonction dump() permet d'afficher l'occupation de l'historique
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("    [history] windowMs=" + windowNs / 1000000
+                + " frames=" + Math.min(framesWritten, maxFrames) + "/" + maxFrames
+                + " tags=" + Math.min(tagsWritten, maxTags) + "/" + maxTags
+                + " recorded=" + framesWritten);
+    }
+}
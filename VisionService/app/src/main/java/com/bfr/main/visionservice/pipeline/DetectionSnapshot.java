@@ -0,0 +1,90 @@
+package com.bfr.main.visionservice.pipeline;
+
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * La classe DetectionSnapshot est l'état immuable des résultats de détection d'une frame, publié d'un seul coup par l'étage
+ * "detection" (voir FramePipeline.getDetectionSnapshot()).
+ *
+ * Les tags sont copiés des Mat d'OpenCV vers des tableaux de primitives à la construction : les lecteurs (threads binder,
+ * étage "stream") ne partagent aucune Mat avec la détection et voient toujours des valeurs et des coins de la même frame.
+ * Les tableaux ne doivent jamais être modifiés après la construction.
+ */
+public final class DetectionSnapshot {
+
+    public static final DetectionSnapshot EMPTY = new DetectionSnapshot(0, 0, new int[0], new float[0], new float[0]);
+
+    private final long frameNumber;
+    private final long timestampNs;
+    private final int[] tagIds;
+    private final float[] tagCorners;
+    private final float[] tagScores;
+
+    private DetectionSnapshot(long frameNumber, long timestampNs, int[] tagIds, float[] tagCorners, float[] tagScores) {
+        this.frameNumber = frameNumber;
+        this.timestampNs = timestampNs;
+        this.tagIds = tagIds;
+        this.tagCorners = tagCorners;
+        this.tagScores = tagScores;
+    }
+
+    /**
+     * La fonction ofTags() permet de construire le snapshot d'une frame à partir des sorties de Aruco.detectMarkers().
+     * @param frameNumber : le numéro de la frame dans le pipeline (séquence croissante des snapshots)
+     * @param timestampNs : le timestamp capteur de la frame (ns)
+     * @param corners : les coins des tags détectés (une Mat 1x4 CV_32FC2 par tag)
+     * @param ids : les valeurs lues sur les tags (Mat Nx1 CV_32S)
+     */
+    public static DetectionSnapshot ofTags(long frameNumber, long timestampNs, List<Mat> corners, Mat ids) {
+        int count = corners.size();
+        int[] tagIds = new int[count];
+        float[] tagCorners = new float[count * DetectionResults.CORNERS_PER_TAG];
+        float[] tagScores = new float[count];
+        ArucoOutputs.readIds(ids, tagIds);
+        ArucoOutputs.readCorners(corners, tagCorners, count);
+        Arrays.fill(tagScores, 1f);
+        return new DetectionSnapshot(frameNumber, timestampNs, tagIds, tagCorners, tagScores);
+    }
+
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    public int getNumberOfTags() {
+        return tagIds.length;
+    }
+
+    /**
+     * @return : la valeur lue sur le tag k
+     */
+    public int getTagId(int k) {
+        return tagIds[k];
+    }
+
+    /**
+     * @return : la coordonnée c (x0,y0,...,x3,y3) du coin du tag k
+     */
+    public float getTagCorner(int k, int c) {
+        return tagCorners[k * DetectionResults.CORNERS_PER_TAG + c];
+    }
+
+    /**
+     * La fonction toDetectionResults() permet de construire les DetectionResults (AIDL) du snapshot.
+     * Les tableaux sont partagés sans copie : les DetectionResults ne doivent pas être modifiés.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     */
+    public DetectionResults toDetectionResults(String camera) {
+        DetectionResults results = new DetectionResults(camera, frameNumber, timestampNs);
+        results.setTags(tagIds, tagCorners, tagScores);
+        return results;
+    }
+}
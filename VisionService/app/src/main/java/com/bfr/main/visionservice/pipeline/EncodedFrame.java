@@ -0,0 +1,148 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.util.Log;
+
+import com.newtronlabs.sharedmemory.prod.memory.ISharedMemory;
+
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * La classe EncodedFrame est le résultat réutilisable de l'encodage d'une frame dans un format donné (voir FrameEncoder).
+ * Les octets sont gardés dans un buffer qui n'est réalloué que si la taille encodée dépasse sa capacité.
+ *
+ * Elle est possédée par son FrameEncoder et réécrite à chaque nouvelle frame encodée dans le même format :
+ * les fonctions de lecture se synchronisent sur l'encodeur, et un appelant qui doit relier plusieurs lectures
+ * à la même frame les fait dans un bloc synchronized (encoder).
+ */
+public class EncodedFrame {
+
+    private static final String TAG = "SERVICE_VISION_EncodedFrame";
+
+    private final Object lock; // le FrameEncoder propriétaire
+    private final EncodingFormat format;
+
+    final MatOfByte encodeBuffer = new MatOfByte(); // sortie de Imgcodecs.imencode(), recyclée
+    final MatOfInt encodeParams;
+
+    byte[] data = new byte[0];
+    int length;
+    long frameNumber = -1; // -1 : aucune frame encodée
+    long timestampNs;
+    int width;
+    int height;
+    int type; // type OpenCV des pixels (RAW uniquement)
+
+    EncodedFrame(Object lock, EncodingFormat format, MatOfInt encodeParams) {
+        this.lock = lock;
+        this.format = format;
+        this.encodeParams = encodeParams;
+    }
+
+    /**
+     * Agrandissement du buffer si besoin. La capacité est arrondie à un multiple de 12 pour que Mat.get()
+     * accepte le buffer quel que soit le nombre de canaux des pixels bruts (1, 3 ou 4).
+     */
+    void ensureCapacity(int capacity) {
+        if (data.length < capacity) data = new byte[(capacity + 11) / 12 * 12];
+    }
+
+    /**
+     * @return : le verrou qui protège le contenu (le FrameEncoder propriétaire)
+     */
+    public Object getLock() {
+        return lock;
+    }
+
+    public EncodingFormat getFormat() {
+        return format;
+    }
+
+    public long getFrameNumber() {
+        synchronized (lock) {
+            return frameNumber;
+        }
+    }
+
+    public long getTimestampNs() {
+        synchronized (lock) {
+            return timestampNs;
+        }
+    }
+
+    public int getLength() {
+        synchronized (lock) {
+            return length;
+        }
+    }
+
+    public int getWidth() {
+        synchronized (lock) {
+            return width;
+        }
+    }
+
+    public int getHeight() {
+        synchronized (lock) {
+            return height;
+        }
+    }
+
+    /**
+     * @return : le type OpenCV des pixels (CvType) pour le codec RAW
+     */
+    public int getType() {
+        synchronized (lock) {
+            return type;
+        }
+    }
+
+    /**
+     * La fonction getData() donne accès au buffer interne (seuls les getLength() premiers octets sont valides).
+     * Le buffer ne doit être lu que sous le verrou de l'encodeur.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * La fonction toByteArray() permet de récupérer une copie des octets encodés (envoi via AIDL).
+     */
+    public byte[] toByteArray() {
+        synchronized (lock) {
+            return Arrays.copyOf(data, length);
+        }
+    }
+
+    /**
+     * La fonction writeTo() permet d'écrire les octets encodés dans un flux (ex : fichier), sans copie intermédiaire.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        synchronized (lock) {
+            stream.write(data, 0, length);
+        }
+    }
+
+    /**
+     * La fonction writeTo() permet d'écrire les octets encodés sur une région de mémoire partagée.
+     * @param sharedMemory : la région de mémoire partagée
+     * @param offset : l'offset d'écriture dans la région
+     * @return : - true : si succés de l'écriture
+     *           - false : si erreur
+     */
+    public boolean writeTo(ISharedMemory sharedMemory, int offset) {
+        synchronized (lock) {
+            try {
+                sharedMemory.writeBytes(data, 0, offset, length);
+                return true;
+            } catch (Exception e) {
+                Log.e(TAG, "Erreur lors de l'écriture de la frame encodée " + frameNumber + " [" + format + "] sur la mémoire partagée : " + e);
+                return false;
+            }
+        }
+    }
+}
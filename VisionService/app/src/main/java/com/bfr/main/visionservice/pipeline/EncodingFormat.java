@@ -0,0 +1,79 @@
+package com.bfr.main.visionservice.pipeline;
+
+/**
+ * La classe EncodingFormat décrit une configuration d'encodage des frames (voir FrameEncoder) :
+ *      - codec : RAW (pixels bruts), JPEG ou PNG.
+ *      - quality : qualité JPEG (0..100) ou niveau de compression PNG (0..9), ignorée en RAW.
+ *      - scale : facteur entier de réduction de l'image avant encodage (1 = taille d'origine).
+ *
+ * Elle s'écrit sous forme de chaîne "codec[:quality[:scale]]", par exemple "raw", "jpeg:90", "jpeg:80:2" ou "png".
+ * Deux EncodingFormat égaux désignent le même encodage : le résultat est partagé par le cache de FrameEncoder.
+ */
+public final class EncodingFormat {
+
+    public enum Codec {RAW, JPEG, PNG}
+
+    public static final int DEFAULT_JPEG_QUALITY = 95;
+    public static final int DEFAULT_PNG_COMPRESSION = 3;
+    public static final int MAX_SCALE = 8;
+
+    public static final EncodingFormat RAW = new EncodingFormat(Codec.RAW, 0, 1);
+
+    private final Codec codec;
+    private final int quality;
+    private final int scale;
+
+    public EncodingFormat(Codec codec, int quality, int scale) {
+        if (scale < 1 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Facteur de réduction invalide : " + scale);
+        }
+        this.codec = codec;
+        this.quality = codec == Codec.RAW ? 0 : quality;
+        this.scale = scale;
+    }
+
+    /**
+     * La fonction parse() permet de lire une configuration d'encodage écrite sous la forme "codec[:quality[:scale]]".
+     * @param format : la configuration (ex : "jpeg:90")
+     * @return : l'EncodingFormat correspondant
+     * @throws IllegalArgumentException : si la configuration est invalide
+     */
+    public static EncodingFormat parse(String format) {
+        String[] fields = format.trim().split(":");
+        Codec codec = Codec.valueOf(fields[0].trim().toUpperCase());
+        int quality = codec == Codec.PNG ? DEFAULT_PNG_COMPRESSION : DEFAULT_JPEG_QUALITY;
+        if (fields.length > 1 && !fields[1].trim().isEmpty()) quality = Integer.parseInt(fields[1].trim());
+        int scale = fields.length > 2 ? Integer.parseInt(fields[2].trim()) : 1;
+        return new EncodingFormat(codec, quality, scale);
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncodingFormat)) return false;
+        EncodingFormat other = (EncodingFormat) o;
+        return codec == other.codec && quality == other.quality && scale == other.scale;
+    }
+
+    @Override
+    public int hashCode() {
+        return (codec.ordinal() * 31 + quality) * 31 + scale;
+    }
+
+    @Override
+    public String toString() {
+        return codec.name().toLowerCase() + ":" + quality + ":" + scale;
+    }
+}
@@ -0,0 +1,152 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * La classe FrameEncoder encode les frames d'un pipeline (RAW, JPEG, PNG, avec réduction éventuelle, voir EncodingFormat)
+ * et partage le résultat entre ses utilisateurs : écriture sur la mémoire partagée, écriture sur disque, appels AIDL.
+ *
+ * Chaque frame est encodée au plus une fois par format : le dernier résultat de chaque format (EncodedFrame) est gardé
+ * avec le numéro de la frame encodée, et un nouvel encode() de la même frame dans le même format le renvoie tel quel.
+ * L'encodage passe par Imgcodecs.imencode() dans une MatOfByte recyclée, sans Bitmap ni ByteArrayOutputStream.
+ *
+ * Les images d'entrée sont au format du pipeline (RGBA, RGB ou niveaux de gris).
+ */
+public class FrameEncoder {
+
+    private static final String TAG = "SERVICE_VISION_FrameEncoder";
+
+    private final Map<EncodingFormat, EncodedFrame> encodedFrames = new HashMap<>(); // un résultat par format utilisé
+    private final Mat scaled = new Mat();
+    private final Mat converted = new Mat();
+
+    private long encoded = 0;
+    private long shared = 0;
+    private long failed = 0;
+    private long encodingNs = 0;
+
+    /**
+     * La fonction encode() permet d'encoder une frame dans un format, ou de récupérer son encodage s'il a déjà été fait.
+     * Le résultat est réécrit par le prochain encode() d'une autre frame au même format : pour le lire de façon cohérente,
+     * faire l'appel et la lecture dans un bloc synchronized (encoder).
+     * @param image : la frame (RGBA, RGB ou niveaux de gris)
+     * @param frameNumber : le numéro de la frame dans le pipeline (clé du cache)
+     * @param timestampNs : le timestamp capteur de la frame (ns)
+     * @param format : le format d'encodage
+     * @return : la frame encodée, ou null si une erreur est survenue
+     */
+    public synchronized EncodedFrame encode(Mat image, long frameNumber, long timestampNs, EncodingFormat format) {
+        EncodedFrame encodedFrame = encodedFrames.get(format);
+        if (encodedFrame == null) {
+            encodedFrame = new EncodedFrame(this, format, encodeParams(format));
+            encodedFrames.put(format, encodedFrame);
+        }
+        if (encodedFrame.frameNumber == frameNumber) {
+            shared++;
+            return encodedFrame;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Mat source = image;
+            if (format.getScale() > 1) {
+                Imgproc.resize(image, scaled, new Size(image.cols() / format.getScale(), image.rows() / format.getScale()), 0, 0, Imgproc.INTER_AREA);
+                source = scaled;
+            }
+
+            if (format.getCodec() == EncodingFormat.Codec.RAW) {
+                if (!source.isContinuous()) {
+                    source.copyTo(converted);
+                    source = converted;
+                }
+                int length = (int) (source.total() * source.elemSize());
+                encodedFrame.ensureCapacity(length);
+                source.get(0, 0, encodedFrame.data);
+                encodedFrame.length = length;
+                encodedFrame.type = source.type();
+            } else {
+                // Imgcodecs attend des pixels BGR
+                if (source.type() == CvType.CV_8UC4) {
+                    Imgproc.cvtColor(source, converted, Imgproc.COLOR_RGBA2BGR);
+                    source = converted;
+                } else if (source.type() == CvType.CV_8UC3) {
+                    Imgproc.cvtColor(source, converted, Imgproc.COLOR_RGB2BGR);
+                    source = converted;
+                }
+                String extension = format.getCodec() == EncodingFormat.Codec.JPEG ? ".jpg" : ".png";
+                if (!Imgcodecs.imencode(extension, source, encodedFrame.encodeBuffer, encodedFrame.encodeParams)) {
+                    throw new IllegalStateException("imencode " + extension + " a échoué");
+                }
+                int length = (int) encodedFrame.encodeBuffer.total();
+                encodedFrame.ensureCapacity(length);
+                encodedFrame.encodeBuffer.get(0, 0, encodedFrame.data);
+                encodedFrame.length = length;
+                encodedFrame.type = source.type();
+            }
+            encodedFrame.width = source.cols();
+            encodedFrame.height = source.rows();
+            encodedFrame.frameNumber = frameNumber;
+            encodedFrame.timestampNs = timestampNs;
+            encoded++;
+            return encodedFrame;
+        } catch (Exception e) {
+            encodedFrame.frameNumber = -1;
+            encodedFrame.length = 0;
+            failed++;
+            Log.e(TAG, "Erreur lors de l'encodage de la frame " + frameNumber + " [" + format + "] : " + e);
+            return null;
+        } finally {
+            encodingNs += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Paramètres de Imgcodecs.imencode() d'un format (créés une seule fois par format)
+     */
+    private static MatOfInt encodeParams(EncodingFormat format) {
+        switch (format.getCodec()) {
+            case JPEG:
+                return new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, format.getQuality());
+            case PNG:
+                return new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, format.getQuality());
+            default:
+                return new MatOfInt();
+        }
+    }
+
+    /**
+     * La fonction release() permet de libérer les buffers de l'encodeur (arrêt de la source)
+     */
+    public synchronized void release() {
+        for (EncodedFrame encodedFrame : encodedFrames.values()) {
+            encodedFrame.encodeBuffer.release();
+            encodedFrame.data = new byte[0];
+            encodedFrame.length = 0;
+            encodedFrame.frameNumber = -1;
+        }
+        scaled.release();
+        converted.release();
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs de l'encodeur
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("    [encoder] formats=" + encodedFrames.keySet()
+                + " encoded=" + encoded
+                + " shared=" + shared
+                + " failed=" + failed
+                + " avgMs=" + (encoded > 0 ? String.format("%.2f", encodingNs / 1e6 / encoded) : "-"));
+    }
+}
@@ -0,0 +1,496 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bfr.main.visionservice.capture.FrameSource;
+import com.bfr.main.visionservice.models.DetectionResults;
+import com.bfr.main.visionservice.models.StreamSpec;
+import com.bfr.main.visionservice.services.FrameNotifier;
+import com.bfr.main.visionservice.services.ResultNotifier;
+import com.bfr.main.visionservice.sharedmemory.DetectionResultsRegion;
+import com.bfr.main.visionservice.sharedmemory.FrameRingBuffer;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Executor;
+
+/**
+ * La classe FramePipeline regroupe le traitement de chaque frame d'une caméra, quelle que soit sa source (FrameSource).
+ *
+ * Le thread de capture ne fait que déposer les frames dans les boîtes aux lettres des étages (voir StageWorker) :
+ *      - étage "detection" : détection des tags (sur l'image en niveaux de gris, voir FrameViews),
+ *                            publication des résultats de détection sur la mémoire partagée, aux clients abonnés (ResultNotifier)
+ *                            et dans l'historique des détections (DetectionHistory).
+ *      - étage "stream" : dessin des derniers tags détectés, captures d'image en attente (voir requestCapture()),
+ *                         écriture de la frame (brute ou encodée, voir FrameEncoder) sur le buffer circulaire de streaming,
+ *                         puis sur les streams négociés par les clients (résolution, cadence, format : voir StreamGroup).
+ * Chaque étage tourne à son propre rythme : la capture garde sa cadence même si un étage est en retard.
+ * Les clients abonnés sont notifiés par l'étage "stream" quand le streaming est lancé, sinon par l'étage "detection".
+ *
+ * Elle garde aussi le dernier état de la caméra (frame capturée, tags détectés) utilisé par VisionService.
+ * Les tags détectés sont publiés à chaque frame sous forme d'un snapshot immuable (DetectionSnapshot) par une référence atomique :
+ * les lecteurs ne bloquent jamais la détection et voient toujours les valeurs et les coins d'une même frame.
+ * Les encodages d'une frame (streaming, capture, ...) sont partagés par le FrameEncoder du pipeline : une frame capturée
+ * pendant le streaming n'est pas réencodée si le format de capture est celui du streaming.
+ */
+public class FramePipeline implements FrameSource.Listener {
+
+    private static final String TAG = "SERVICE_VISION_FramePipeline";
+
+    private final String camera; // "grand-angle" ou "zoom"
+    private final int detectionSection; // DetectionResultsRegion.CAMERA_*
+    private final FrameRingBuffer frameRingBuffer;
+    private final DetectionResultsRegion detectionResultsRegion;
+    private final FrameNotifier frameNotifier;
+    private final ResultNotifier resultNotifier;
+    private final DetectionHistory detectionHistory;
+    private final TagDetector tagDetector;
+
+    private final StageWorker detectionWorker;
+    private final StageWorker streamWorker;
+    private final List<Mat> detectedCorners = new ArrayList<>(); // étage "detection" : coins de la frame, remplis par TagDetector
+    private final Mat detectedIds = new Mat(); // étage "detection" : valeurs des tags de la frame
+
+    private volatile boolean streaming = false; // Indique s'il faut écrire les frames sur la mémoire partagée ou non
+    private final List<StreamGroup> streamGroups = new CopyOnWriteArrayList<>(); // streams négociés (un groupe par StreamSpec)
+    private final Queue<CompletableFuture<Long>> pendingCaptures = new ConcurrentLinkedQueue<>(); // captures en attente de la prochaine frame
+    private final Queue<CompletableFuture<Long>> frameWaiters = new ConcurrentLinkedQueue<>(); // attentes de la prochaine frame, sans copie
+    private final Queue<CompletableFuture<Long>> detectionWaiters = new ConcurrentLinkedQueue<>(); // attentes du prochain résultat de détection
+    private final Mat frame = new Mat(); // La dernière image capturée (copiée uniquement à la demande)
+    private volatile long capturedFrameNumber = 0; // numéro de la dernière image capturée dans le pipeline
+    private volatile long capturedTimestampNs = 0;
+    private final FrameEncoder encoder = new FrameEncoder(); // encodages partagés des frames (au plus un par frame et par format)
+    private volatile EncodingFormat streamEncoding = EncodingFormat.RAW; // format des frames écrites sur le buffer circulaire
+    private volatile Runnable sourceStoppedCallback; // prévenu à chaque arrêt de la source (voir CameraSessionManager)
+    private final FrameViews views = new FrameViews(); // les formats de la frame courante, calculés à la demande
+    private long frameNumber = 0; // thread de capture uniquement
+
+    private final AtomicReference<DetectionSnapshot> detectionSnapshot = new AtomicReference<>(DetectionSnapshot.EMPTY); // derniers tags détectés
+
+    /**
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param detectionSection : la section de la caméra dans la région des résultats de détection
+     * @param frameRingBuffer : le buffer circulaire de streaming de la caméra (null si la région n'a pas pu être allouée)
+     * @param detectionResultsRegion : la région des résultats de détection (null si elle n'a pas pu être allouée)
+     * @param frameNotifier : la notification des clients abonnés
+     * @param resultNotifier : l'envoi des résultats de détection aux clients abonnés
+     * @param detectionHistory : l'historique borné des détections de la caméra
+     * @param tagDetector : le moteur de détection des tags de la caméra (utilisé uniquement par l'étage de détection)
+     * @param detectionDropPolicy : la politique de drop de l'étage de détection
+     * @param streamDropPolicy : la politique de drop de l'étage de streaming
+     * @param detectionExecutor : l'Executor de l'étage de détection
+     * @param streamExecutor : l'Executor de l'étage de streaming
+     */
+    public FramePipeline(String camera, int detectionSection, FrameRingBuffer frameRingBuffer,
+                         DetectionResultsRegion detectionResultsRegion, FrameNotifier frameNotifier, ResultNotifier resultNotifier,
+                         DetectionHistory detectionHistory, TagDetector tagDetector,
+                         LatestFrameMailbox.DropPolicy detectionDropPolicy, LatestFrameMailbox.DropPolicy streamDropPolicy,
+                         Executor detectionExecutor, Executor streamExecutor) {
+        this.camera = camera;
+        this.detectionSection = detectionSection;
+        this.frameRingBuffer = frameRingBuffer;
+        this.detectionResultsRegion = detectionResultsRegion;
+        this.frameNotifier = frameNotifier;
+        this.resultNotifier = resultNotifier;
+        this.detectionHistory = detectionHistory;
+        this.tagDetector = tagDetector;
+
+        this.detectionWorker = new StageWorker(camera + "/detection", detectionDropPolicy, new StageWorker.Stage() {
+            @Override
+            public void process(FrameSlot slot) {
+                detect(slot);
+            }
+        }, detectionExecutor);
+        this.streamWorker = new StageWorker(camera + "/stream", streamDropPolicy, new StageWorker.Stage() {
+            @Override
+            public void process(FrameSlot slot) {
+                stream(slot);
+            }
+        }, streamExecutor);
+    }
+
+
+    /**
+     * Getters and Setters
+     */
+
+    public String getCamera() {
+        return camera;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public Mat getFrame() {
+        return frame;
+    }
+
+    public FrameEncoder getEncoder() {
+        return encoder;
+    }
+
+    public EncodingFormat getStreamEncoding() {
+        return streamEncoding;
+    }
+
+    public void setStreamEncoding(EncodingFormat streamEncoding) {
+        this.streamEncoding = streamEncoding;
+    }
+
+    /**
+     * La fonction setSourceStoppedCallback() permet d'être prévenu de chaque arrêt de la source des frames,
+     * qu'il soit demandé (stop()) ou non (caméra déconnectée, fin des fichiers, activité fermée, ...).
+     * Le callback est appelé sur le thread qui arrête la source : il ne doit pas bloquer.
+     */
+    public void setSourceStoppedCallback(Runnable sourceStoppedCallback) {
+        this.sourceStoppedCallback = sourceStoppedCallback;
+    }
+
+    /**
+     * La fonction getStreamGroup() permet de retrouver le groupe des clients d'une spécification de stream.
+     * @return : le groupe, ou null si aucun client n'a demandé cette spécification
+     */
+    public StreamGroup getStreamGroup(StreamSpec spec) {
+        for (StreamGroup group : streamGroups) {
+            if (group.getSpec().equals(spec)) return group;
+        }
+        return null;
+    }
+
+    public List<StreamGroup> getStreamGroups() {
+        return streamGroups;
+    }
+
+    /**
+     * La fonction addStreamGroup() permet d'ajouter un stream négocié, alimenté par l'étage "stream" dès qu'il a des clients.
+     */
+    public void addStreamGroup(StreamGroup group) {
+        streamGroups.add(group);
+    }
+
+    /**
+     * La fonction removeStreamGroup() permet de retirer un stream qui n'a plus de clients : l'étage "stream" ne l'alimente plus.
+     */
+    public void removeStreamGroup(StreamGroup group) {
+        streamGroups.remove(group);
+    }
+
+    /**
+     * @return : true si au moins un stream négocié a des clients
+     */
+    public boolean hasStreamClients() {
+        for (StreamGroup group : streamGroups) {
+            if (group.hasClients()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * La fonction requestCapture() permet de demander la capture de la prochaine frame traitée par l'étage "stream".
+     * Le future est complété (avec le numéro de la frame capturée) dès que la frame est copiée : si la caméra tourne déjà,
+     * l'attente est d'environ une période de frame. Les demandes en attente au même moment partagent la même frame.
+     * @return : le future de la capture
+     */
+    public CompletableFuture<Long> requestCapture() {
+        CompletableFuture<Long> capture = new CompletableFuture<>();
+        pendingCaptures.add(capture);
+        return capture;
+    }
+
+    /**
+     * La fonction nextFrame() permet d'être réveillé à l'arrivée de la prochaine frame, sans la copier
+     * (mesure du temps jusqu'à la première frame d'une session caméra, voir CameraSessionManager).
+     * @return : le future complété avec l'instant d'arrivée de la frame (SystemClock.elapsedRealtimeNanos())
+     */
+    public CompletableFuture<Long> nextFrame() {
+        CompletableFuture<Long> frame = new CompletableFuture<>();
+        frameWaiters.add(frame);
+        return frame;
+    }
+
+    /**
+     * La fonction nextDetection() permet d'être réveillé à la publication du prochain résultat de détection
+     * (trace de démarrage du service, voir StartupOrchestrator).
+     * @return : le future complété avec l'instant de publication (SystemClock.elapsedRealtimeNanos())
+     */
+    public CompletableFuture<Long> nextDetection() {
+        CompletableFuture<Long> detection = new CompletableFuture<>();
+        detectionWaiters.add(detection);
+        return detection;
+    }
+
+    /**
+     * La fonction cancelCapture() permet de retirer une demande de capture qui n'attend plus (timeout).
+     */
+    public void cancelCapture(CompletableFuture<Long> capture) {
+        pendingCaptures.remove(capture);
+    }
+
+    /**
+     * La fonction cancelFrameWait() permet de retirer une attente de frame (voir nextFrame()) qui n'a plus de sens
+     * (démarrage de la caméra en échec, source arrêtée avant sa première frame). Le future est annulé.
+     */
+    public void cancelFrameWait(CompletableFuture<Long> frame) {
+        frameWaiters.remove(frame);
+        frame.cancel(false);
+    }
+
+    /**
+     * La fonction encodeCapturedFrame() permet d'encoder la dernière image capturée (voir requestCapture()).
+     * Si la même frame a déjà été encodée dans ce format (par le streaming ou une capture précédente), l'encodage est partagé.
+     * Pour lire le résultat de façon cohérente, faire l'appel et la lecture dans un bloc synchronized (getEncoder()).
+     * @param format : le format d'encodage
+     * @return : la frame encodée, ou null si une erreur est survenue
+     */
+    public EncodedFrame encodeCapturedFrame(EncodingFormat format) {
+        return encoder.encode(frame, capturedFrameNumber, capturedTimestampNs, format);
+    }
+
+    /**
+     * La fonction getDetectionSnapshot() permet de récupérer les résultats de détection de la dernière frame traitée.
+     * Le snapshot est immuable : toutes ses lectures sont cohérentes entre elles, sans verrou.
+     */
+    public DetectionSnapshot getDetectionSnapshot() {
+        return detectionSnapshot.get();
+    }
+
+    /**
+     * La fonction getDetectionResults() permet de récupérer les derniers résultats de détection sous forme compacte
+     * (tableaux de primitives, voir DetectionResults) pour l'envoi via AIDL.
+     * @return : les résultats de la dernière frame traitée par l'étage de détection
+     */
+    public DetectionResults getDetectionResults() {
+        return detectionSnapshot.get().toDetectionResults(camera);
+    }
+
+    public DetectionHistory getDetectionHistory() {
+        return detectionHistory;
+    }
+
+    public TagDetector getTagDetector() {
+        return tagDetector;
+    }
+
+    /**
+     * Implementation de FrameSource.Listener (thread de capture)
+     */
+
+    @Override
+    public void onSourceStarted(int width, int height) {
+        Log.i(TAG, "Source de frames " + camera + " démarrée (" + width + "x" + height + ")");
+    }
+
+    @Override
+    public Mat onFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame, long timestampNs) {
+
+        views.reset(inputFrame, timestampNs);
+        frameNumber++;
+
+        if (!frameWaiters.isEmpty()) {
+            long arrivalNs = SystemClock.elapsedRealtimeNanos();
+            CompletableFuture<Long> waiter;
+            while ((waiter = frameWaiters.poll()) != null) {
+                waiter.complete(arrivalNs);
+            }
+        }
+
+        // Etage de détection : image en niveaux de gris
+        FrameSlot slot = detectionWorker.beginSubmit();
+        if (slot != null) {
+            views.gray().copyTo(slot.image);
+            slot.frameNumber = frameNumber;
+            slot.timestampNs = timestampNs;
+            detectionWorker.commitSubmit();
+        }
+
+        // Etage de streaming : image couleur, seulement si un stream est lancé ou une capture est en attente
+        if (streaming || !pendingCaptures.isEmpty() || hasStreamClients()) {
+            slot = streamWorker.beginSubmit();
+            if (slot != null) {
+                views.rgba().copyTo(slot.image);
+                slot.frameNumber = frameNumber;
+                slot.timestampNs = timestampNs;
+                streamWorker.commitSubmit();
+            }
+        }
+
+        // la frame couleur, si elle a été calculée (sinon rien à dessiner)
+        return views.hasRgba() ? views.rgba() : null;
+    }
+
+    @Override
+    public void onSourceStopped() {
+        views.release();
+        encoder.release();
+        Log.i(TAG, "Source de frames " + camera + " arrêtée");
+        Runnable callback = sourceStoppedCallback;
+        if (callback != null) callback.run();
+    }
+
+
+    /**
+     * Etage "detection"
+     */
+    private void detect(FrameSlot slot) {
+
+        /*
+         * Partie : Détection de tag
+         */
+
+        // Detect Marker (autour des tags de la frame précédente d'abord, image entière si besoin).
+        // Les sorties appartiennent à l'étage : le snapshot en copie les valeurs, elles sont remplacées à la frame suivante.
+        List<Mat> corners = detectedCorners;
+        Mat ids = detectedIds;
+        tagDetector.detect(slot.image, corners, ids);
+
+        // Publication du snapshot immuable de la frame (un seul échange de référence, jamais de lecture d'un état partiel)
+        DetectionSnapshot snapshot = DetectionSnapshot.ofTags(slot.frameNumber, slot.timestampNs, corners, ids);
+        detectionSnapshot.set(snapshot);
+        detectionHistory.record(snapshot);
+        if (!detectionWaiters.isEmpty()) {
+            long publishedNs = SystemClock.elapsedRealtimeNanos();
+            CompletableFuture<Long> waiter;
+            while ((waiter = detectionWaiters.poll()) != null) {
+                waiter.complete(publishedNs);
+            }
+        }
+
+        /*
+         * Publication des résultats de détection de la frame sur la mémoire partagée [région CV-Detection-Results]
+         */
+        if(detectionResultsRegion != null){
+            detectionResultsRegion.publishTags(detectionSection, slot.frameNumber, slot.timestampNs, corners, ids);
+        }
+
+        /*
+         * Envoi des résultats aux clients abonnés (construits seulement s'il y a des abonnés)
+         */
+        if(resultNotifier.hasSubscribers()){
+            resultNotifier.publish(camera, snapshot.toDetectionResults(camera));
+        }
+
+        /*
+         * Sans streaming, les clients abonnés sont notifiés à chaque détection
+         */
+        if(!streaming){
+            frameNotifier.notifyFrame(camera, 0, slot.timestampNs, corners.size());
+        }
+    }
+
+
+    /**
+     * Etage "stream"
+     */
+    private void stream(FrameSlot slot) {
+
+        // Dessin des derniers tags détectés (ils peuvent provenir d'une frame un peu plus ancienne si la détection est en retard)
+        DetectionSnapshot snapshot = detectionSnapshot.get();
+        drawTags(slot.image, snapshot);
+
+        // Copie de la frame si des captures sont en attente, puis réveil des demandeurs
+        if (!pendingCaptures.isEmpty()) {
+            synchronized (encoder) { // la frame capturée peut être en cours d'encodage (encodeCapturedFrame())
+                slot.image.copyTo(frame);
+                capturedFrameNumber = slot.frameNumber;
+                capturedTimestampNs = slot.timestampNs;
+            }
+            CompletableFuture<Long> capture;
+            while ((capture = pendingCaptures.poll()) != null) {
+                capture.complete(slot.frameNumber);
+            }
+        }
+
+        /*
+         * Streams négociés : une réduction / conversion par spécification, partagée par les clients du groupe
+         */
+        for (StreamGroup group : streamGroups) {
+            if (!group.hasClients()) continue;
+            try {
+                group.write(slot.image, slot.frameNumber, slot.timestampNs);
+            } catch (Exception e) {
+                Log.e(TAG, "Erreur lors de l'écriture du stream " + group.getSpec() + " (" + camera + ") : " + e);
+            }
+        }
+
+        if (!streaming) return;
+
+        /*
+         * Copie de la frame sur le buffer circulaire de la mémoire partagée (streaming) :
+         * pixels bruts, ou frame encodée une seule fois et partagée avec les autres utilisateurs du même format
+         */
+        long sequence = 0;
+        if(frameRingBuffer != null){
+            EncodingFormat encoding = streamEncoding;
+            if (encoding.equals(EncodingFormat.RAW)) {
+                sequence = frameRingBuffer.write(slot.image, slot.timestampNs);
+            } else {
+                EncodedFrame encodedFrame = encoder.encode(slot.image, slot.frameNumber, slot.timestampNs, encoding);
+                sequence = encodedFrame != null ? frameRingBuffer.write(encodedFrame) : -1;
+            }
+            if(sequence > 0) Log.i(TAG, "Ecriture frame " + camera + " " + sequence + " sur la mémoire partagée");
+        }
+
+        /*
+         * Notification directe des clients abonnés (nouvelle frame + nombre de tags détectés)
+         */
+        frameNotifier.notifyFrame(camera, sequence, slot.timestampNs, snapshot.getNumberOfTags());
+    }
+
+    /**
+     * Dessin des coins des tags détectés sur l'image RGBA
+     */
+    private void drawTags(Mat frameRgba, DetectionSnapshot snapshot) {
+        // fora each detected marker
+        for (int k=0; k<snapshot.getNumberOfTags(); k++)
+        {
+            // coordinates of four corners
+            int x1 = (int) snapshot.getTagCorner(k, 0);
+            int y1 = (int) snapshot.getTagCorner(k, 1);
+            int x2 = (int) snapshot.getTagCorner(k, 2);
+            int y2 = (int) snapshot.getTagCorner(k, 3);
+            int x3 = (int) snapshot.getTagCorner(k, 4);
+            int y3 = (int) snapshot.getTagCorner(k, 5);
+            int x4 = (int) snapshot.getTagCorner(k, 6);
+            int y4 = (int) snapshot.getTagCorner(k, 7);
+            // draw corners
+            Imgproc.circle(frameRgba, new Point(x1, y1),  1, new Scalar(0,255,0,255)  ,5);
+            Imgproc.circle(frameRgba, new Point(x2, y2),  1, new Scalar(255,0,0,255)  ,5);
+            Imgproc.circle(frameRgba, new Point(x3, y3),  1, new Scalar(0,0,255,255)  ,5);
+            Imgproc.circle(frameRgba, new Point(x4, y4),  1, new Scalar(125,0,125,255)  ,5);
+
+        } // next marker
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs des étages du pipeline
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("  FramePipeline " + camera + " : frames=" + frameNumber + " streaming=" + streaming + " pendingCaptures=" + pendingCaptures.size());
+        detectionWorker.dump(writer);
+        streamWorker.dump(writer);
+        encoder.dump(writer);
+        tagDetector.dump(writer);
+        detectionHistory.dump(writer);
+        for (StreamGroup group : streamGroups) {
+            group.dump(writer);
+        }
+    }
+}
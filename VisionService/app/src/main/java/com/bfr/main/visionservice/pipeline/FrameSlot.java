@@ -0,0 +1,16 @@
+package com.bfr.main.visionservice.pipeline;
+
+import org.opencv.core.Mat;
+
+/**
+ * La classe FrameSlot est un emplacement réutilisable d'une boîte aux lettres de frames (LatestFrameMailbox) :
+ * une copie de l'image possédée par le slot + les métadonnées de la frame.
+ */
+public class FrameSlot {
+
+    public final Mat image = new Mat(); // réallouée seulement si la taille ou le type de la frame change
+    public long frameNumber; // numéro de la frame dans le pipeline (attribué à la capture)
+    public long timestampNs; // timestamp capteur de la frame (ns)
+
+    volatile boolean fresh; // la frame n'a pas encore été consommée
+}
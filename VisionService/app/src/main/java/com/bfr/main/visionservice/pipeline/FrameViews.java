@@ -0,0 +1,76 @@
+package com.bfr.main.visionservice.pipeline;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+/**
+ * La classe FrameViews donne accès aux différents formats d'une frame (gris, RGBA),
+ * calculés à la demande et au plus une fois par frame, puis partagés par tous les étages du pipeline
+ * (détecteurs, streaming, capture).
+ *
+ *      - gray() : le plan Y de la frame, sans conversion de couleur.
+ *      - rgba() : la conversion YUV -> RGBA de la source.
+ *
+ * Les formats réduits ne sont pas calculés ici : les étages travaillent sur leur copie de la frame (boîte aux lettres),
+ * la réduction du scan des tags (TagDetector) et celle des streams (StreamGroup) y sont faites sur le thread de l'étage,
+ * hors du thread de capture.
+ *
+ * Les Mat appartiennent à la frame de la source et sont réutilisées d'une frame à l'autre : elles ne sont valides
+ * que jusqu'à la frame suivante (appel à reset()).
+ */
+public class FrameViews {
+
+    private CameraBridgeViewBase.CvCameraViewFrame frame;
+    private long timestampNs;
+
+    private Mat gray;
+    private Mat rgba;
+
+    /**
+     * La fonction reset() permet d'attacher la frame suivante : les formats déjà calculés sont invalidés.
+     * @param frame : la frame de la source
+     * @param timestampNs : le timestamp capteur de la frame (ns)
+     */
+    public void reset(CameraBridgeViewBase.CvCameraViewFrame frame, long timestampNs) {
+        this.frame = frame;
+        this.timestampNs = timestampNs;
+        gray = null;
+        rgba = null;
+    }
+
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    /**
+     * @return : la frame en niveaux de gris (CV_8UC1)
+     */
+    public Mat gray() {
+        if (gray == null) gray = frame.gray();
+        return gray;
+    }
+
+    /**
+     * @return : la frame en RGBA (CV_8UC4)
+     */
+    public Mat rgba() {
+        if (rgba == null) rgba = frame.rgba();
+        return rgba;
+    }
+
+    /**
+     * @return : true si rgba() a déjà été calculée pour la frame courante
+     */
+    public boolean hasRgba() {
+        return rgba != null;
+    }
+
+    /**
+     * La fonction release() permet de détacher la frame de la source (arrêt de la source)
+     */
+    public void release() {
+        frame = null;
+        gray = null;
+        rgba = null;
+    }
+}
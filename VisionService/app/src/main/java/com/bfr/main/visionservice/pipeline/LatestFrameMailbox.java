@@ -0,0 +1,91 @@
+package com.bfr.main.visionservice.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * La classe LatestFrameMailbox transmet les frames du thread de capture à un étage du pipeline, sans verrou
+ * et sans allocation, selon le principe du triple buffer :
+ *      - le producteur (capture) remplit son slot "back" puis l'échange avec le slot du milieu,
+ *      - le consommateur (étage) échange son slot "front" avec le slot du milieu s'il contient une nouvelle frame.
+ * La boîte aux lettres contient donc au plus une frame en attente. Quand l'étage est en retard :
+ *      - DROP_OLDEST : la frame en attente est remplacée par la nouvelle (la plus récente gagne),
+ *      - DROP_NEWEST : la nouvelle frame est ignorée (sans copie) tant que la frame en attente n'est pas consommée.
+ *
+ * Un seul producteur et un seul consommateur à la fois.
+ */
+public class LatestFrameMailbox {
+
+    public enum DropPolicy { DROP_OLDEST, DROP_NEWEST }
+
+    private final DropPolicy dropPolicy;
+    private final AtomicReference<FrameSlot> middle = new AtomicReference<>(new FrameSlot());
+    private FrameSlot back = new FrameSlot(); // possédé par le producteur
+    private FrameSlot front = new FrameSlot(); // possédé par le consommateur
+
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public LatestFrameMailbox(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    /**
+     * La fonction beginPost() permet au producteur de récupérer le slot à remplir avec la nouvelle frame.
+     * @return : le slot à remplir, ou null si la frame doit être ignorée (DROP_NEWEST et frame en attente)
+     */
+    public FrameSlot beginPost() {
+        if (dropPolicy == DropPolicy.DROP_NEWEST && middle.get().fresh) {
+            dropped.incrementAndGet();
+            return null;
+        }
+        return back;
+    }
+
+    /**
+     * La fonction commitPost() permet au producteur de publier le slot rempli après beginPost().
+     */
+    public void commitPost() {
+        back.fresh = true;
+        FrameSlot previous = middle.getAndSet(back);
+        posted.incrementAndGet();
+        if (previous.fresh) {
+            // la frame en attente n'a jamais été consommée
+            previous.fresh = false;
+            dropped.incrementAndGet();
+        }
+        back = previous;
+    }
+
+    /**
+     * La fonction take() permet au consommateur de récupérer la frame en attente.
+     * Le slot retourné reste valide jusqu'au prochain appel à take().
+     * @return : la frame la plus récente, ou null si aucune nouvelle frame n'est en attente
+     */
+    public FrameSlot take() {
+        if (!middle.get().fresh) return null;
+        FrameSlot taken = middle.getAndSet(front);
+        taken.fresh = false;
+        front = taken;
+        return taken;
+    }
+
+    /**
+     * @return : le nombre de frames en attente (0 ou 1)
+     */
+    public int getDepth() {
+        return middle.get().fresh ? 1 : 0;
+    }
+
+    public long getPosted() {
+        return posted.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
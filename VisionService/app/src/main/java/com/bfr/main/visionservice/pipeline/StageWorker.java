@@ -0,0 +1,118 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * La classe StageWorker exécute un étage du pipeline (détection, streaming...) à son propre rythme,
+ * sur un Executor, à partir des frames déposées dans sa LatestFrameMailbox par le thread de capture.
+ * Le thread de capture ne fait que copier la frame dans la boîte aux lettres : il n'attend jamais l'étage.
+ *
+ * Chaque étage compte les frames reçues, traitées, ignorées (drop) et le temps de traitement.
+ */
+public class StageWorker {
+
+    private static final String TAG = "SERVICE_VISION_StageWorker";
+
+    /**
+     * Le traitement d'un étage, appelé sur le thread de l'Executor
+     */
+    public interface Stage {
+        void process(FrameSlot slot);
+    }
+
+    private final String name;
+    private final LatestFrameMailbox mailbox;
+    private final Stage stage;
+    private final Executor executor;
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false); // une exécution de l'étage est programmée
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong processingNs = new AtomicLong();
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param name : le nom de l'étage (logs et dump)
+     * @param dropPolicy : la politique de drop de la boîte aux lettres de l'étage
+     * @param stage : le traitement de l'étage
+     * @param executor : l'Executor sur lequel l'étage s'exécute
+     */
+    public StageWorker(String name, LatestFrameMailbox.DropPolicy dropPolicy, Stage stage, Executor executor) {
+        this.name = name;
+        this.mailbox = new LatestFrameMailbox(dropPolicy);
+        this.stage = stage;
+        this.executor = executor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * La fonction beginSubmit() permet au thread de capture de récupérer le slot à remplir.
+     * @return : le slot à remplir, ou null si la frame est ignorée par la politique de drop
+     */
+    public FrameSlot beginSubmit() {
+        return mailbox.beginPost();
+    }
+
+    /**
+     * La fonction commitSubmit() permet au thread de capture de publier le slot rempli et de réveiller l'étage.
+     */
+    public void commitSubmit() {
+        mailbox.commitPost();
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * Traitement de la frame en attente (une frame par exécution, pour ne pas monopoliser l'Executor)
+     */
+    private void drain() {
+        FrameSlot slot = mailbox.take();
+        if (slot != null) {
+            long start = System.nanoTime();
+            try {
+                stage.process(slot);
+                processed.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                Log.e(TAG, "Erreur dans l'étage " + name + " (frame " + slot.frameNumber + ") : " + e);
+            }
+            processingNs.addAndGet(System.nanoTime() - start);
+        }
+        scheduled.set(false);
+        // une frame a pu arriver pendant le traitement
+        if (mailbox.getDepth() > 0) schedule();
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs de l'étage
+     */
+    public void dump(PrintWriter writer) {
+        long count = processed.get();
+        writer.println("    [" + name + "] policy=" + mailbox.getDropPolicy()
+                + " depth=" + mailbox.getDepth()
+                + " posted=" + mailbox.getPosted()
+                + " processed=" + count
+                + " dropped=" + mailbox.getDropped()
+                + " failed=" + failed.get()
+                + " avgMs=" + (count > 0 ? String.format("%.2f", processingNs.get() / 1e6 / count) : "-"));
+    }
+}
@@ -0,0 +1,197 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.os.IBinder;
+
+import com.bfr.main.visionservice.models.StreamSpec;
+import com.bfr.main.visionservice.sharedmemory.FrameRingBuffer;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * La classe StreamGroup regroupe les clients d'une caméra qui ont demandé le même stream (StreamSpec égales).
+ * Chaque frame retenue par la cadence du groupe est réduite / convertie une seule fois au format de la spécification,
+ * puis écrite sur le buffer circulaire propre au groupe (sa région de mémoire partagée).
+ *
+ * Les Mat de conversion sont possédées par le groupe et réutilisées d'une frame à l'autre. Les frames d'entrée sont en RGBA.
+ */
+public class StreamGroup {
+
+    private final StreamSpec spec;
+    private final String regionName;
+    private final FrameRingBuffer frameRingBuffer;
+    private final Set<IBinder> clients = new HashSet<>();
+
+    private final long minIntervalNs;
+    private long nextDueNs = 0; // timestamp capteur à partir duquel la prochaine frame est retenue
+
+    private final Mat resized = new Mat();
+    private final Mat converted = new Mat();
+    private final Mat nv21 = new Mat();
+    private final List<Mat> vuPlanes = new ArrayList<>(2); // vues sur les plans V et U de la conversion I420
+    private Mat i420Luma; // vue sur le plan Y de la conversion I420
+    private Mat nv21Luma; // vue sur le plan Y de nv21
+    private Mat nv21Vu; // vue (h/2 x w/2, 2 canaux) sur le plan VU entrelacé de nv21
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final EncodingFormat jpegFormat;
+
+    private boolean released = false;
+    private long written = 0;
+    private long skipped = 0;
+    private long failed = 0;
+
+    /**
+     * @param spec : la spécification du stream
+     * @param regionName : le nom de la région de mémoire partagée du groupe (renvoyé aux clients)
+     * @param frameRingBuffer : le buffer circulaire de la région du groupe
+     */
+    public StreamGroup(StreamSpec spec, String regionName, FrameRingBuffer frameRingBuffer) {
+        this.spec = spec;
+        this.regionName = regionName;
+        this.frameRingBuffer = frameRingBuffer;
+        this.minIntervalNs = spec.getMaxFps() > 0 ? (long) (1e9 / spec.getMaxFps()) : 0;
+        this.jpegFormat = spec.getFormat() == StreamSpec.FORMAT_JPEG
+                ? new EncodingFormat(EncodingFormat.Codec.JPEG, spec.getJpegQuality(), 1) : null;
+    }
+
+    public StreamSpec getSpec() {
+        return spec;
+    }
+
+    public String getRegionName() {
+        return regionName;
+    }
+
+    /**
+     * La fonction addClient() permet d'ajouter un client au groupe.
+     * @return : true si le client n'était pas encore dans le groupe
+     */
+    public synchronized boolean addClient(IBinder client) {
+        return clients.add(client);
+    }
+
+    /**
+     * La fonction removeClient() permet de retirer un client du groupe.
+     * @return : true si le client était dans le groupe
+     */
+    public synchronized boolean removeClient(IBinder client) {
+        return clients.remove(client);
+    }
+
+    public synchronized boolean hasClient(IBinder client) {
+        return clients.contains(client);
+    }
+
+    public synchronized boolean hasClients() {
+        return !clients.isEmpty();
+    }
+
+    /**
+     * La fonction write() permet d'écrire une frame sur le buffer circulaire du groupe, si la cadence du groupe le permet.
+     * Appelée par l'étage "stream" du pipeline.
+     * @param rgba : la frame (RGBA)
+     * @param frameNumber : le numéro de la frame dans le pipeline
+     * @param timestampNs : le timestamp capteur de la frame (ns)
+     * @return : la séquence attribuée à la frame, 0 si la frame n'est pas retenue, -1 si erreur
+     */
+    public synchronized long write(Mat rgba, long frameNumber, long timestampNs) {
+        if (released) return 0;
+        if (timestampNs < nextDueNs) {
+            skipped++;
+            return 0;
+        }
+        // tolérance d'un quart de période pour le jitter des timestamps
+        nextDueNs = timestampNs + minIntervalNs - minIntervalNs / 4;
+
+        Mat source = rgba;
+        if (spec.getWidth() > 0 && (spec.getWidth() != rgba.cols() || spec.getHeight() != rgba.rows())) {
+            Imgproc.resize(rgba, resized, new Size(spec.getWidth(), spec.getHeight()), 0, 0, Imgproc.INTER_AREA);
+            source = resized;
+        }
+
+        long sequence;
+        switch (spec.getFormat()) {
+            case StreamSpec.FORMAT_RGBA:
+                sequence = frameRingBuffer.write(source, timestampNs);
+                break;
+            case StreamSpec.FORMAT_GRAY:
+                Imgproc.cvtColor(source, converted, Imgproc.COLOR_RGBA2GRAY);
+                sequence = frameRingBuffer.write(converted, timestampNs);
+                break;
+            case StreamSpec.FORMAT_NV21:
+                toNv21(source);
+                sequence = frameRingBuffer.write(nv21, source.cols(), source.rows(), FrameRingBuffer.PIXEL_FORMAT_NV21, timestampNs);
+                break;
+            default:
+                EncodedFrame encodedFrame = encoder.encode(source, frameNumber, timestampNs, jpegFormat);
+                sequence = encodedFrame != null ? frameRingBuffer.write(encodedFrame) : -1;
+                break;
+        }
+        if (sequence > 0) written++;
+        else failed++;
+        return sequence;
+    }
+
+    /**
+     * Conversion RGBA -> NV21 : conversion I420 d'OpenCV, copie du plan Y puis entrelacement des plans V et U.
+     * Les vues sur les plans sont créées une seule fois par résolution.
+     */
+    private void toNv21(Mat rgba) {
+        int width = rgba.cols();
+        int height = rgba.rows();
+        Imgproc.cvtColor(rgba, converted, Imgproc.COLOR_RGBA2YUV_I420);
+
+        if (nv21.cols() != width || nv21.rows() != height * 3 / 2) {
+            nv21.create(height * 3 / 2, width, CvType.CV_8UC1);
+            int lumaSize = width * height;
+            int chromaSize = lumaSize / 4;
+            Mat i420 = converted.reshape(1, 1); // plans Y, U puis V consécutifs
+            i420Luma = converted.submat(0, height, 0, width);
+            nv21Luma = nv21.submat(0, height, 0, width);
+            vuPlanes.clear();
+            vuPlanes.add(i420.colRange(lumaSize + chromaSize, lumaSize + 2 * chromaSize).reshape(1, height / 2)); // V
+            vuPlanes.add(i420.colRange(lumaSize, lumaSize + chromaSize).reshape(1, height / 2)); // U
+            nv21Vu = nv21.submat(height, height * 3 / 2, 0, width).reshape(2, height / 2);
+        }
+        i420Luma.copyTo(nv21Luma);
+        Core.merge(vuPlanes, nv21Vu);
+    }
+
+    /**
+     * La fonction release() permet de libérer les Mat du groupe et sa région de mémoire partagée, une fois le groupe retiré du pipeline.
+     * Une écriture en cours sur l'étage "stream" se termine avant la libération (write() et release() sont exclusifs).
+     */
+    public synchronized void release() {
+        if (released) return;
+        released = true;
+        frameRingBuffer.close();
+        resized.release();
+        converted.release();
+        nv21.release();
+        for (Mat view : vuPlanes) view.release(); // les vues gardent une référence sur les données de leur Mat
+        if (i420Luma != null) i420Luma.release();
+        if (nv21Luma != null) nv21Luma.release();
+        if (nv21Vu != null) nv21Vu.release();
+        encoder.release();
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs du groupe
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("    [stream " + spec + "] region=" + regionName
+                + " clients=" + clients.size()
+                + " written=" + written
+                + " skipped=" + skipped
+                + " failed=" + failed);
+    }
+}
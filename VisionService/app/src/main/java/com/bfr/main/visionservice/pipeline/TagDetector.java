@@ -0,0 +1,568 @@
+package com.bfr.main.visionservice.pipeline;
+
+import android.util.Log;
+
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import org.opencv.aruco.Aruco;
+import org.opencv.aruco.DetectorParameters;
+import org.opencv.aruco.Dictionary;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe TagDetector est le moteur de détection des tags (DICT_APRILTAG_36h11) d'une caméra.
+ * Le dictionnaire et les paramètres natifs d'OpenCV sont créés une seule fois, pour toute la vie du moteur.
+ *
+ * Entre deux scans de l'image entière, les tags de la frame précédente sont retrouvés :
+ *      - par suivi (tracking = true) : les 4 coins de chaque tag sont suivis d'une frame à l'autre par flot optique
+ *        (Lucas-Kanade pyramidal), sans nouvelle détection. Un tag suivi est rejeté si le suivi retour ne revient pas
+ *        au point de départ (erreur aller-retour > maxForwardBackwardError) ou si son quadrilatère n'est plus plausible
+ *        (non convexe, trop petit, aire trop différente de la frame précédente).
+ *      - sinon par recherche "ROI d'abord" : les tags sont recherchés dans des fenêtres agrandies autour de leur position
+ *        (les fenêtres qui se chevauchent sont fusionnées).
+ * Un scan de l'image entière est fait :
+ *      - toutes les fullScanInterval frames (pour trouver les nouveaux tags et recaler les coins suivis),
+ *      - quand aucun tag n'est suivi,
+ *      - quand un tag de la frame précédente n'est pas retrouvé (tag perdu ou suivi rejeté), dans la même frame.
+ *
+ * Scan "grossier puis fin" : avec un facteur de décimation > 1, le scan complet cherche les tags sur l'image réduite
+ * (facteur 2 ou 4, par caméra), puis seuls les coins trouvés sont affinés à pleine résolution (Imgproc.cornerSubPix).
+ * Les fenêtres autour des tags précédents sont petites et restent cherchées à pleine résolution.
+ *
+ * Scan découpé : avec tileThreads > 1, l'image du scan complet est découpée en tuiles qui se chevauchent de la taille
+ * du plus grand tag attendu (maxTagSize), pour que chaque tag soit entier dans au moins une tuile. Les tuiles sont
+ * traitées en parallèle par le thread appelant et par jusqu'à tileThreads - 1 tâches sur l'Executor des tuiles
+ * (le budget CPU de la caméra, partagé avec les étages du pipeline) ; l'appelant traite lui-même les tuiles non encore prises,
+ * il n'attend donc jamais une tâche restée dans la file du pool. Un tag vu dans deux tuiles (même valeur, coins proches)
+ * n'est gardé qu'une fois.
+ *
+ * Les sorties ont le format de Aruco.detectMarkers() (coins en coordonnées de l'image entière).
+ * Le moteur n'est pas thread-safe : il est utilisé par l'étage "detection" d'un seul pipeline.
+ */
+public class TagDetector {
+
+    private static final String TAG = "SERVICE_VISION_TagDetector";
+
+    private static final int MIN_WINDOW_SIZE = 32; // taille minimale d'une fenêtre de recherche (px)
+    private static final float DUPLICATE_DISTANCE = 4; // distance moyenne maximale entre les coins d'un même tag vu dans deux tuiles (px)
+    private static final TermCriteria REFINE_CRITERIA = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+    private static final TermCriteria TRACKING_CRITERIA = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 20, 0.03);
+    private static final Size TRACKING_WINDOW = new Size(21, 21);
+    private static final int TRACKING_PYRAMID_LEVELS = 3;
+    private static final float MIN_TRACKED_SIDE = 4; // côté minimal d'un tag suivi (px)
+    private static final float MAX_TRACKED_AREA_CHANGE = 1.5f; // rapport maximal entre les aires d'un tag suivi sur deux frames
+
+    private final Dictionary dictionary = Aruco.getPredefinedDictionary(Aruco.DICT_APRILTAG_36h11);
+    private final DetectorParameters parameters = DetectorParameters.create();
+    private final int fullScanInterval;
+    private final float roiMargin;
+    private final int decimation;
+    private final boolean tracking;
+    private final float maxForwardBackwardError;
+    private final Executor tileExecutor;
+    private final int tileThreads;
+    private final int maxTagSize;
+
+    private int[] previousIds = new int[0];
+    private float[] previousCorners = new float[0];
+    private int framesSinceFullScan = 0;
+
+    private final List<Mat> windowCorners = new ArrayList<>();
+    private final Mat windowIds = new Mat();
+    private final float[] cornerPoints = new float[DetectionResults.CORNERS_PER_TAG];
+    private int[] windowIdValues = new int[0];
+    private int[] foundIds = new int[0]; // valeurs des tags trouvés par fenêtres ou par tuiles
+    private int[] tileIdValues = new int[0];
+    private float[] foundPoints = new float[0]; // coins (dans l'image) des tags gardés par la fusion des tuiles
+    private final Mat decimated = new Mat(); // image réduite du scan complet
+    private final Mat refinedCorners = new Mat(); // coins de tous les tags du scan complet, affinés en un seul appel
+    private float[] refinedPoints = new float[0];
+    private final Mat previousGray = new Mat(); // frame précédente (suivi uniquement)
+    private final MatOfPoint2f trackedFrom = new MatOfPoint2f();
+    private final MatOfPoint2f trackedTo = new MatOfPoint2f();
+    private final MatOfPoint2f trackedBack = new MatOfPoint2f();
+    private final MatOfByte trackedStatus = new MatOfByte();
+    private final MatOfByte trackedBackStatus = new MatOfByte();
+    private final MatOfFloat trackedError = new MatOfFloat();
+    private float[] trackedPoints = new float[0];
+    private float[] trackedBackPoints = new float[0];
+    private byte[] trackedStatuses = new byte[0];
+    private byte[] trackedBackStatuses = new byte[0];
+
+    private long frames = 0;
+    private long fullScans = 0;
+    private long lostFallbacks = 0;
+    private long windowScans = 0;
+    private long windowFrames = 0;
+    private long trackedFrames = 0;
+    private long trackingRejects = 0;
+    private long trackingNs = 0;
+    private double windowAreaRatioSum = 0; // part de l'image couverte par les fenêtres, sommée sur les frames de recherche par fenêtres
+    private long fullScanNs = 0;
+    private long tiledScans = 0;
+    private long mergedDuplicates = 0;
+    private int tileColumns = 1;
+    private int tileRows = 1;
+
+    /**
+     * @param fullScanInterval : le nombre maximal de frames entre deux scans complets (1 = scan complet à chaque frame)
+     * @param roiMargin : l'agrandissement de la fenêtre d'un tag, de chaque côté, en proportion de sa taille
+     * @param decimation : le facteur de réduction de l'image du scan complet (1 = pleine résolution, 2 ou 4)
+     * @param tracking : true pour suivre les coins par flot optique entre deux scans complets, false pour la recherche par fenêtres
+     * @param maxForwardBackwardError : l'erreur aller-retour maximale d'un coin suivi (px)
+     * @param tileExecutor : l'Executor des tuiles du scan complet (null = scan complet sur le seul thread appelant)
+     * @param tileThreads : le nombre de threads utilisés en parallèle par le scan complet, appelant compris (1 = pas de découpage)
+     * @param maxTagSize : le côté du plus grand tag attendu, à pleine résolution (px) : c'est le chevauchement des tuiles
+     */
+    public TagDetector(int fullScanInterval, float roiMargin, int decimation, boolean tracking, float maxForwardBackwardError,
+                       Executor tileExecutor, int tileThreads, int maxTagSize) {
+        this.fullScanInterval = Math.max(1, fullScanInterval);
+        this.roiMargin = roiMargin;
+        this.decimation = Math.max(1, decimation);
+        this.tracking = tracking;
+        this.maxForwardBackwardError = maxForwardBackwardError;
+        this.tileExecutor = tileExecutor;
+        this.tileThreads = tileExecutor != null ? Math.max(1, tileThreads) : 1;
+        this.maxTagSize = maxTagSize;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    /**
+     * La fonction detect() permet de détecter les tags d'une frame.
+     * @param gray : l'image en niveaux de gris
+     * @param corners : [sortie] les coins des tags détectés (une Mat 1x4 CV_32FC2 par tag). La liste peut être réutilisée
+     *                d'une frame à l'autre : les Mat qu'elle contient encore sont libérées avant d'être remplacées.
+     * @param ids : [sortie] les valeurs lues sur les tags (Mat Nx1 CV_32S)
+     */
+    public void detect(Mat gray, List<Mat> corners, Mat ids) {
+        frames++;
+        releaseAll(corners);
+
+        boolean fullScan = previousIds.length == 0 || ++framesSinceFullScan >= fullScanInterval;
+        if (!fullScan) {
+            boolean found = tracking ? track(gray, corners, ids) : detectInWindows(gray, corners, ids);
+            if (!found) {
+                lostFallbacks++;
+                fullScan = true;
+            }
+        }
+        if (fullScan) {
+            long startNs = System.nanoTime();
+            releaseAll(corners); // tags des fenêtres ou du suivi, remplacés par ceux du scan complet
+            scanFullImage(gray, corners, ids);
+            framesSinceFullScan = 0;
+            fullScans++;
+            fullScanNs += System.nanoTime() - startNs;
+        }
+
+        remember(corners, ids);
+        if (tracking) gray.copyTo(previousGray);
+    }
+
+    /**
+     * Scan complet : à pleine résolution, ou sur l'image réduite puis affinage des coins à pleine résolution
+     */
+    private void scanFullImage(Mat gray, List<Mat> corners, Mat ids) {
+        if (decimation == 1) {
+            detectMarkers(gray, corners, ids, maxTagSize);
+            return;
+        }
+
+        Imgproc.resize(gray, decimated, new Size(), 1.0 / decimation, 1.0 / decimation, Imgproc.INTER_AREA);
+        detectMarkers(decimated, corners, ids, (maxTagSize + decimation - 1) / decimation);
+        int count = corners.size();
+        if (count == 0) return;
+
+        // coins de l'image réduite -> pleine résolution (centre du pixel réduit = centre du bloc decimation x decimation)
+        int points = count * DetectionResults.CORNERS_PER_TAG;
+        if (refinedPoints.length != points) refinedPoints = new float[points];
+        ArucoOutputs.readCorners(corners, refinedPoints, count);
+        for (int c = 0; c < points; c++) refinedPoints[c] = (refinedPoints[c] + 0.5f) * decimation - 0.5f;
+
+        // affinage de tous les coins en un seul appel, dans une fenêtre qui couvre l'erreur de la réduction
+        refinedCorners.create(points / 2, 1, CvType.CV_32FC2);
+        refinedCorners.put(0, 0, refinedPoints);
+        Imgproc.cornerSubPix(gray, refinedCorners, new Size(decimation + 1, decimation + 1), new Size(-1, -1), REFINE_CRITERIA);
+        refinedCorners.get(0, 0, refinedPoints);
+        for (int k = 0; k < count; k++) ArucoOutputs.writeTagCorners(refinedPoints, k * DetectionResults.CORNERS_PER_TAG, corners.get(k));
+    }
+
+    /**
+     * Détection des tags sur toute une image : directement, ou par tuiles en parallèle si le scan est découpé
+     * @param overlap : le chevauchement des tuiles, à l'échelle de l'image (px)
+     */
+    private void detectMarkers(Mat image, List<Mat> corners, Mat ids, int overlap) {
+        List<Rect> tiles = tileThreads > 1 ? tiles(image.cols(), image.rows(), overlap) : null;
+        if (tiles == null || tiles.size() <= 1) {
+            Aruco.detectMarkers(image, dictionary, corners, ids, parameters);
+            return;
+        }
+        tiledScans++;
+
+        final int count = tiles.size();
+        final Mat[] tileImages = new Mat[count];
+        final List<List<Mat>> tileCorners = new ArrayList<>(count);
+        final Mat[] tileIds = new Mat[count];
+        for (int t = 0; t < count; t++) {
+            tileImages[t] = image.submat(tiles.get(t));
+            tileCorners.add(new ArrayList<Mat>());
+            tileIds[t] = new Mat();
+        }
+        final AtomicInteger nextTile = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(count);
+        Runnable scanTiles = new Runnable() {
+            @Override
+            public void run() {
+                int t;
+                while ((t = nextTile.getAndIncrement()) < count) {
+                    try {
+                        Aruco.detectMarkers(tileImages[t], dictionary, tileCorners.get(t), tileIds[t], parameters);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Erreur lors de la détection des tags sur une tuile : " + e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        for (int h = 1; h < Math.min(tileThreads, count); h++) tileExecutor.execute(scanTiles);
+        scanTiles.run(); // l'appelant traite les tuiles restantes : seules les tuiles déjà prises par un worker sont attendues
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Attente des tuiles interrompue : " + e);
+            Thread.currentThread().interrupt();
+        }
+
+        // fusion : coins ramenés dans l'image, doublons des zones de chevauchement écartés
+        int foundCount = 0;
+        for (int t = 0; t < count; t++) {
+            Rect tile = tiles.get(t);
+            List<Mat> found = tileCorners.get(t);
+            if (tileIdValues.length < found.size()) tileIdValues = new int[found.size()];
+            ArucoOutputs.readIds(tileIds[t], tileIdValues);
+            for (int k = 0; k < found.size(); k++) {
+                // coins lus directement à la place du prochain tag gardé : un doublon est simplement écrasé par le suivant
+                int offset = foundCount * DetectionResults.CORNERS_PER_TAG;
+                if (foundPoints.length < offset + DetectionResults.CORNERS_PER_TAG) {
+                    foundPoints = Arrays.copyOf(foundPoints, Math.max(8, 2 * (foundCount + 1)) * DetectionResults.CORNERS_PER_TAG);
+                }
+                ArucoOutputs.readTagCorners(found.get(k), foundPoints, offset);
+                for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+                    foundPoints[offset + c] += tile.x;
+                    foundPoints[offset + c + 1] += tile.y;
+                }
+                if (isDuplicate(tileIdValues[k], foundCount)) {
+                    mergedDuplicates++;
+                    found.get(k).release();
+                    continue;
+                }
+                ArucoOutputs.writeTagCorners(foundPoints, offset, found.get(k));
+                corners.add(found.get(k));
+                addFoundId(foundCount++, tileIdValues[k]);
+            }
+            tileImages[t].release();
+            tileIds[t].release();
+        }
+        ArucoOutputs.writeIds(foundIds, foundCount, ids);
+    }
+
+    /**
+     * Découpage d'une image en environ tileThreads tuiles qui se chevauchent de overlap pixels.
+     * Une tuile n'est jamais plus étroite que le chevauchement (sinon le découpage ne fait que dupliquer le travail).
+     */
+    private List<Rect> tiles(int width, int height, int overlap) {
+        int columns = Math.max(1, (int) Math.round(Math.sqrt(tileThreads * (double) width / height)));
+        columns = Math.max(1, Math.min(columns, width / Math.max(1, overlap)));
+        int rows = Math.max(1, Math.min((tileThreads + columns - 1) / columns, height / Math.max(1, overlap)));
+        tileColumns = columns;
+        tileRows = rows;
+
+        List<Rect> tiles = new ArrayList<>(columns * rows);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int x0 = Math.max(0, c * width / columns - overlap / 2);
+                int y0 = Math.max(0, r * height / rows - overlap / 2);
+                int x1 = Math.min(width, (c + 1) * width / columns + overlap / 2);
+                int y1 = Math.min(height, (r + 1) * height / rows + overlap / 2);
+                tiles.add(new Rect(x0, y0, x1 - x0, y1 - y0));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Un tag est un doublon s'il a déjà été trouvé (dans une autre tuile) avec la même valeur et des coins proches
+     */
+    private boolean isDuplicate(int id, int foundCount) {
+        int offset = foundCount * DetectionResults.CORNERS_PER_TAG; // le tag candidat, après les foundCount tags gardés
+        for (int k = 0; k < foundCount; k++) {
+            if (foundIds[k] != id) continue;
+            int other = k * DetectionResults.CORNERS_PER_TAG;
+            float distance = 0;
+            for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+                float dx = foundPoints[offset + c] - foundPoints[other + c], dy = foundPoints[offset + c + 1] - foundPoints[other + c + 1];
+                distance += (float) Math.sqrt(dx * dx + dy * dy);
+            }
+            if (distance / (DetectionResults.CORNERS_PER_TAG / 2) < DUPLICATE_DISTANCE) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Suivi des coins des tags de la frame précédente (aller puis retour), puis contrôle de chaque quadrilatère suivi
+     * @return : true si tous les tags sont suivis, false si au moins un est rejeté (scan complet)
+     */
+    private boolean track(Mat gray, List<Mat> corners, Mat ids) {
+        if (previousGray.empty() || previousGray.cols() != gray.cols() || previousGray.rows() != gray.rows()) return false;
+        long startNs = System.nanoTime();
+        trackedFrames++;
+        int points = previousCorners.length;
+        if (trackedPoints.length != points) {
+            trackedPoints = new float[points];
+            trackedBackPoints = new float[points];
+            trackedStatuses = new byte[points / 2];
+            trackedBackStatuses = new byte[points / 2];
+        }
+
+        trackedFrom.alloc(points / 2);
+        trackedFrom.put(0, 0, previousCorners);
+        Video.calcOpticalFlowPyrLK(previousGray, gray, trackedFrom, trackedTo, trackedStatus, trackedError,
+                TRACKING_WINDOW, TRACKING_PYRAMID_LEVELS, TRACKING_CRITERIA);
+        Video.calcOpticalFlowPyrLK(gray, previousGray, trackedTo, trackedBack, trackedBackStatus, trackedError,
+                TRACKING_WINDOW, TRACKING_PYRAMID_LEVELS, TRACKING_CRITERIA);
+        trackedTo.get(0, 0, trackedPoints);
+        trackedBack.get(0, 0, trackedBackPoints);
+        trackedStatus.get(0, 0, trackedStatuses);
+        trackedBackStatus.get(0, 0, trackedBackStatuses);
+
+        boolean accepted = true;
+        for (int k = 0; k < previousIds.length && accepted; k++) {
+            accepted = isTrackedTagValid(k);
+        }
+        trackingNs += System.nanoTime() - startNs;
+        if (!accepted) {
+            trackingRejects++;
+            return false;
+        }
+
+        for (int k = 0; k < previousIds.length; k++) {
+            Mat tagCorners = new Mat(1, DetectionResults.CORNERS_PER_TAG / 2, CvType.CV_32FC2);
+            ArucoOutputs.writeTagCorners(trackedPoints, k * DetectionResults.CORNERS_PER_TAG, tagCorners);
+            corners.add(tagCorners);
+        }
+        ArucoOutputs.writeIds(previousIds, previousIds.length, ids);
+        return true;
+    }
+
+    /**
+     * Contrôles d'un tag suivi : suivi aller-retour de ses 4 coins, quadrilatère convexe de même orientation,
+     * côtés assez longs et aire proche de celle de la frame précédente
+     */
+    private boolean isTrackedTagValid(int k) {
+        int first = k * DetectionResults.CORNERS_PER_TAG;
+        for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+            if (trackedStatuses[(first + c) / 2] == 0 || trackedBackStatuses[(first + c) / 2] == 0) return false;
+            float dx = trackedBackPoints[first + c] - previousCorners[first + c];
+            float dy = trackedBackPoints[first + c + 1] - previousCorners[first + c + 1];
+            if (dx * dx + dy * dy > maxForwardBackwardError * maxForwardBackwardError) return false;
+        }
+
+        float previousArea = signedArea(previousCorners, first);
+        float trackedArea = signedArea(trackedPoints, first);
+        if (previousArea == 0 || trackedArea / previousArea < 1 / MAX_TRACKED_AREA_CHANGE || trackedArea / previousArea > MAX_TRACKED_AREA_CHANGE) return false;
+        for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+            int next = (c + 2) % DetectionResults.CORNERS_PER_TAG;
+            int after = (c + 4) % DetectionResults.CORNERS_PER_TAG;
+            float ex = trackedPoints[first + next] - trackedPoints[first + c];
+            float ey = trackedPoints[first + next + 1] - trackedPoints[first + c + 1];
+            float fx = trackedPoints[first + after] - trackedPoints[first + next];
+            float fy = trackedPoints[first + after + 1] - trackedPoints[first + next + 1];
+            if (ex * ex + ey * ey < MIN_TRACKED_SIDE * MIN_TRACKED_SIDE) return false;
+            if ((ex * fy - ey * fx) * previousArea <= 0) return false; // coin rentrant ou quadrilatère retourné
+        }
+        return true;
+    }
+
+    /**
+     * Aire signée du quadrilatère d'un tag (formule du lacet), de signe fixé par l'ordre des coins
+     */
+    private static float signedArea(float[] points, int first) {
+        float area = 0;
+        for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+            int next = (c + 2) % DetectionResults.CORNERS_PER_TAG;
+            area += points[first + c] * points[first + next + 1] - points[first + next] * points[first + c + 1];
+        }
+        return area / 2;
+    }
+
+    /**
+     * Recherche des tags dans les fenêtres autour des tags de la frame précédente
+     * @return : true si tous les tags de la frame précédente sont retrouvés
+     */
+    private boolean detectInWindows(Mat gray, List<Mat> corners, Mat ids) {
+        windowFrames++;
+        List<Rect> windows = mergeWindows(windowsAroundPreviousTags(gray.cols(), gray.rows()));
+        int foundCount = 0;
+        double windowArea = 0;
+        for (Rect window : windows) {
+            windowArea += window.area();
+            windowCorners.clear();
+            Mat roi = gray.submat(window);
+            Aruco.detectMarkers(roi, dictionary, windowCorners, windowIds, parameters);
+            roi.release();
+            windowScans++;
+            if (windowIdValues.length < windowCorners.size()) windowIdValues = new int[windowCorners.size()];
+            ArucoOutputs.readIds(windowIds, windowIdValues);
+            for (int k = 0; k < windowCorners.size(); k++) {
+                Mat tagCorners = windowCorners.get(k);
+                ArucoOutputs.readTagCorners(tagCorners, cornerPoints, 0);
+                for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+                    cornerPoints[c] += window.x;
+                    cornerPoints[c + 1] += window.y;
+                }
+                ArucoOutputs.writeTagCorners(cornerPoints, 0, tagCorners);
+                corners.add(tagCorners);
+                addFoundId(foundCount++, windowIdValues[k]);
+            }
+        }
+        windowAreaRatioSum += windowArea / ((double) gray.cols() * gray.rows());
+
+        ArucoOutputs.writeIds(foundIds, foundCount, ids);
+        return foundCount >= previousIds.length && containsAll(foundIds, foundCount, previousIds);
+    }
+
+    /**
+     * Fenêtres agrandies (roiMargin de chaque côté) autour des tags de la frame précédente, limitées à l'image
+     */
+    private List<Rect> windowsAroundPreviousTags(int width, int height) {
+        List<Rect> windows = new ArrayList<>(previousIds.length);
+        for (int k = 0; k < previousIds.length; k++) {
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+            for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c += 2) {
+                float x = previousCorners[k * DetectionResults.CORNERS_PER_TAG + c];
+                float y = previousCorners[k * DetectionResults.CORNERS_PER_TAG + c + 1];
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+            float margin = roiMargin * Math.max(maxX - minX, maxY - minY);
+            float halfMin = MIN_WINDOW_SIZE / 2f;
+            float centerX = (minX + maxX) / 2f, centerY = (minY + maxY) / 2f;
+            int x0 = clamp((int) Math.floor(Math.min(minX - margin, centerX - halfMin)), 0, width);
+            int y0 = clamp((int) Math.floor(Math.min(minY - margin, centerY - halfMin)), 0, height);
+            int x1 = clamp((int) Math.ceil(Math.max(maxX + margin, centerX + halfMin)), 0, width);
+            int y1 = clamp((int) Math.ceil(Math.max(maxY + margin, centerY + halfMin)), 0, height);
+            if (x1 > x0 && y1 > y0) windows.add(new Rect(x0, y0, x1 - x0, y1 - y0));
+        }
+        return windows;
+    }
+
+    /**
+     * Fusion des fenêtres qui se chevauchent (un tag n'est alors cherché qu'une fois)
+     */
+    static List<Rect> mergeWindows(List<Rect> windows) {
+        List<Rect> merged = new ArrayList<>(windows);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < merged.size() && !changed; i++) {
+                for (int j = i + 1; j < merged.size() && !changed; j++) {
+                    Rect a = merged.get(i), b = merged.get(j);
+                    if (a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height) {
+                        int x0 = Math.min(a.x, b.x), y0 = Math.min(a.y, b.y);
+                        int x1 = Math.max(a.x + a.width, b.x + b.width), y1 = Math.max(a.y + a.height, b.y + b.height);
+                        merged.set(i, new Rect(x0, y0, x1 - x0, y1 - y0));
+                        merged.remove(j);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Mémorisation des tags de la frame (fenêtres de la frame suivante)
+     */
+    private void remember(List<Mat> corners, Mat ids) {
+        int count = corners.size();
+        if (previousIds.length != count) {
+            previousIds = new int[count];
+            previousCorners = new float[count * DetectionResults.CORNERS_PER_TAG];
+        }
+        ArucoOutputs.readIds(ids, previousIds);
+        ArucoOutputs.readCorners(corners, previousCorners, count);
+    }
+
+    private void addFoundId(int index, int id) {
+        if (foundIds.length <= index) foundIds = Arrays.copyOf(foundIds, Math.max(8, 2 * foundIds.length));
+        foundIds[index] = id;
+    }
+
+    private static void releaseAll(List<Mat> mats) {
+        for (Mat mat : mats) mat.release();
+        mats.clear();
+    }
+
+    private static boolean containsAll(int[] found, int foundCount, int[] expected) {
+        for (int id : expected) {
+            boolean present = false;
+            for (int k = 0; k < foundCount; k++) {
+                if (found[k] == id) {
+                    present = true;
+                    break;
+                }
+            }
+            if (!present) return false;
+        }
+        return true;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs du moteur
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("    [tags] frames=" + frames
+                + " fullScans=" + fullScans
+                + " lostFallbacks=" + lostFallbacks
+                + " windowScans=" + windowScans
+                + " trackedFrames=" + trackedFrames
+                + " trackingRejects=" + trackingRejects
+                + " trackingMs=" + (trackedFrames > 0 ? String.format("%.2f", trackingNs / 1e6 / trackedFrames) : "-")
+                + " windowArea=" + (windowFrames > 0 ? String.format("%.1f", 100 * windowAreaRatioSum / windowFrames) : "-") + "%"
+                + " fullScanMs=" + (fullScans > 0 ? String.format("%.2f", fullScanNs / 1e6 / fullScans) : "-")
+                + " decimation=" + decimation
+                + " tracking=" + tracking
+                + " tiledScans=" + tiledScans
+                + " tiles=" + tileColumns + "x" + tileRows
+                + " mergedDuplicates=" + mergedDuplicates
+                + " fullScanInterval=" + fullScanInterval
+                + " roiMargin=" + roiMargin);
+    }
+}
@@ -0,0 +1,72 @@
+package com.bfr.main.visionservice.pipeline;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * La classe VisionWorkerPool est le pool de threads partagé par les étages des pipelines de toutes les caméras.
+ * Chaque caméra y accède via un BudgetedExecutor qui limite le nombre de threads qu'elle peut occuper en parallèle,
+ * pour que les flux grand-angle et zoom ne se disputent pas les coeurs du robot sans contrôle.
+ */
+public class VisionWorkerPool {
+
+    private final ExecutorService pool;
+    private final int threadCount;
+    private final List<BudgetedExecutor> budgets = new ArrayList<>();
+    private final long createdNs = System.nanoTime();
+
+    /**
+     * @param threadCount : le nombre de threads du pool (0 = nombre de coeurs disponibles)
+     */
+    public VisionWorkerPool(int threadCount) {
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        this.pool = Executors.newFixedThreadPool(this.threadCount, new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "VisionWorker-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * La fonction newBudget() permet de créer l'Executor d'une caméra sur le pool.
+     * @param name : le nom de la caméra
+     * @param maxThreads : le budget CPU de la caméra, en nombre de threads du pool utilisés en parallèle
+     */
+    public synchronized BudgetedExecutor newBudget(String name, int maxThreads) {
+        BudgetedExecutor budget = new BudgetedExecutor(name, pool, Math.min(maxThreads, threadCount));
+        budgets.add(budget);
+        return budget;
+    }
+
+    /**
+     * La fonction shutdown() permet d'arrêter les threads du pool : les tâches en attente ne sont pas exécutées.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * La fonction dump() permet d'afficher l'utilisation du pool par chaque caméra
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("  VisionWorkerPool : " + threadCount + " thread(s)");
+        long uptimeNs = System.nanoTime() - createdNs;
+        for (BudgetedExecutor budget : budgets) {
+            budget.dump(writer, uptimeNs);
+        }
+    }
+}
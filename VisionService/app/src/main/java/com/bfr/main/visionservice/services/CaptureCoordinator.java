@@ -0,0 +1,286 @@
+package com.bfr.main.visionservice.services;
+
+import android.os.SharedMemory;
+import android.util.Log;
+
+import com.bfr.main.visionservice.R;
+import com.bfr.main.visionservice.application.VisionServiceApplication;
+import com.bfr.main.visionservice.pipeline.EncodedFrame;
+import com.bfr.main.visionservice.pipeline.FramePipeline;
+import com.bfr.main.visionservice.sharedmemory.CaptureImageMemory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * La classe CaptureCoordinator regroupe les demandes de capture concurrentes (getImageByteFilePath, captureImage, captureAsync, ...)
+ * d'une même caméra : les demandes arrivées avant que la frame soit capturée partagent une seule capture, un seul encodage
+ * (au format capture_encoding), un seul enregistrement du fichier de la caméra et une seule copie en mémoire anonyme.
+ * Le résultat est ensuite distribué à tous les demandeurs.
+ *
+ * L'encodage et la livraison (fichier, SharedMemory) sont faits sur l'Executor des captures, jamais sur les threads binder.
+ * Le nombre de demandes en attente est limité [capture_max_pending] : au-delà, les demandes sont refusées tout de suite,
+ * pour ne pas immobiliser tout le pool de threads binder sur des appels bloquants.
+ */
+public class CaptureCoordinator {
+
+    private static final String TAG = "SERVICE_VISION_CaptureCoordinator";
+
+    /**
+     * Résultat d'une capture, partagé par tous les demandeurs de la même capture
+     */
+    public static class CaptureResult {
+        private final long frameNumber;
+        private final long timestampNs;
+        private final String path; // chemin du fichier de la caméra (null si aucun demandeur ne l'a demandé, ou si erreur)
+        private final SharedMemory image; // image en mémoire anonyme (null si aucun demandeur ne l'a demandée, ou si erreur)
+        private int imageHolders; // demandeurs asynchrones de l'image qui ne l'ont pas encore relâchée (0 = jamais fermée ici)
+
+        CaptureResult(long frameNumber, long timestampNs, String path, SharedMemory image, int imageHolders) {
+            this.frameNumber = frameNumber;
+            this.timestampNs = timestampNs;
+            this.path = path;
+            this.image = image;
+            this.imageHolders = imageHolders;
+        }
+
+        public long getFrameNumber() {
+            return frameNumber;
+        }
+
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public SharedMemory getImage() {
+            return image;
+        }
+
+        /**
+         * La fonction releaseImage() est appelée par un demandeur asynchrone après l'envoi de l'image à son client
+         * (le descripteur est dupliqué lors de l'envoi). La mémoire est fermée quand tous les demandeurs l'ont relâchée ;
+         * les mémoires rendues par un appel bloquant (captureImage) ne sont pas relâchées et sont fermées par le GC.
+         */
+        public synchronized void releaseImage() {
+            if (image != null && imageHolders > 0 && --imageHolders == 0) image.close();
+        }
+    }
+
+    /**
+     * Capture en cours d'une caméra et ses demandeurs
+     */
+    private static class CoalescedCapture {
+        final String camera;
+        final FramePipeline pipeline;
+        final CompletableFuture<Long> frame; // capture de la prochaine frame par le pipeline
+        final CompletableFuture<CaptureResult> result = new CompletableFuture<>();
+        int waiters;
+        boolean wantsFile;
+        int imageHolders;
+        boolean wantsImage;
+        boolean imageReturned; // l'image est aussi rendue par un appel bloquant : elle ne doit pas être fermée après les envois asynchrones
+
+        CoalescedCapture(String camera, FramePipeline pipeline, CompletableFuture<Long> frame) {
+            this.camera = camera;
+            this.pipeline = pipeline;
+            this.frame = frame;
+        }
+    }
+
+    private final VisionServiceApplication application;
+    private final long timeoutMs;
+    private final int maxPending;
+
+    private final Map<String, CoalescedCapture> inFlight = new HashMap<>(); // capture en attente de frame, par caméra
+    private int pending = 0; // demandes admises et pas encore servies
+
+    private long requests = 0;
+    private long captures = 0;
+    private long rejected = 0;
+    private long failed = 0;
+
+    public CaptureCoordinator(VisionServiceApplication application, long timeoutMs, int maxPending) {
+        this.application = application;
+        this.timeoutMs = timeoutMs;
+        this.maxPending = maxPending;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * La fonction capture() permet de demander la capture de la prochaine frame d'une caméra.
+     * Si une capture de la même caméra attend déjà sa frame, la demande la rejoint.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param toSharedMemory : true pour recevoir l'image en mémoire anonyme (CaptureResult.getImage()),
+     *                         false pour l'enregistrer sur le fichier de la caméra (CaptureResult.getPath())
+     * @param blocking : true si le demandeur attend le résultat sur un thread binder (il ne relâchera pas l'image)
+     * @return : le future du résultat, complété sur l'Executor des captures (en erreur si la demande est refusée, ou si timeout)
+     */
+    public CompletableFuture<CaptureResult> capture(String camera, boolean toSharedMemory, boolean blocking) {
+        CoalescedCapture coalesced;
+        boolean created = false;
+        synchronized (this) {
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if (pipeline == null) return failedFuture(new IllegalArgumentException("Caméra inconnue"));
+            requests++;
+            if (pending >= maxPending) {
+                rejected++;
+                Log.e(TAG, "Capture " + camera + " refusée : " + pending + " demandes en attente");
+                return failedFuture(new RejectedExecutionException("Trop de captures en attente"));
+            }
+            pending++;
+
+            coalesced = inFlight.get(camera);
+            if (coalesced == null) {
+                coalesced = new CoalescedCapture(camera, pipeline, pipeline.requestCapture());
+                inFlight.put(camera, coalesced);
+                captures++;
+                created = true;
+            }
+            coalesced.waiters++;
+            if (toSharedMemory) {
+                coalesced.wantsImage = true;
+                if (blocking) coalesced.imageReturned = true;
+                else coalesced.imageHolders++;
+            } else {
+                coalesced.wantsFile = true;
+            }
+        }
+
+        if (created) start(coalesced);
+        return coalesced.result;
+    }
+
+    /**
+     * Démarrage d'une nouvelle capture : caméra, timeout, puis encodage et livraison sur l'Executor des captures
+     */
+    private void start(final CoalescedCapture coalesced) {
+        application.getCameraSessions().acquire(coalesced.camera); // relâchée à la fin de la capture : la caméra reste en veille pour les suivantes
+
+        application.getCaptureTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (coalesced.frame.completeExceptionally(new TimeoutException("aucune frame reçue"))) {
+                    coalesced.pipeline.cancelCapture(coalesced.frame);
+                }
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+
+        coalesced.frame.whenCompleteAsync(new BiConsumer<Long, Throwable>() {
+            @Override
+            public void accept(Long frameNumber, Throwable error) {
+                complete(coalesced, error);
+            }
+        }, application.getCaptureExecutor());
+    }
+
+    /**
+     * Encodage (une seule fois) et livraison de la frame capturée à tous les demandeurs (Executor des captures)
+     */
+    private void complete(CoalescedCapture coalesced, Throwable error) {
+        // plus aucune demande ne peut rejoindre cette capture : la liste des livraisons est figée
+        boolean wantsFile;
+        boolean wantsImage;
+        int imageHolders;
+        synchronized (this) {
+            if (inFlight.get(coalesced.camera) == coalesced) inFlight.remove(coalesced.camera);
+            pending -= coalesced.waiters;
+            wantsFile = coalesced.wantsFile;
+            wantsImage = coalesced.wantsImage;
+            imageHolders = coalesced.imageReturned ? 0 : coalesced.imageHolders;
+            if (error != null) failed++;
+        }
+        application.getCameraSessions().release(coalesced.camera);
+        if (error != null) {
+            Log.e(TAG, "Erreur lors de la capture " + coalesced.camera + " : " + error);
+            coalesced.result.completeExceptionally(error);
+            return;
+        }
+
+        try {
+            CaptureResult result;
+            synchronized (coalesced.pipeline.getEncoder()) { // l'image encodée est partagée avec le streaming
+                EncodedFrame capturedImage = coalesced.pipeline.encodeCapturedFrame(application.getCaptureEncoding());
+                if (capturedImage == null) throw new IllegalStateException("Erreur lors de l'encodage de l'image capturée");
+                String path = wantsFile ? saveCapturedImage(coalesced.camera, capturedImage) : null;
+                SharedMemory image = wantsImage ? CaptureImageMemory.create("Capture-" + coalesced.camera, capturedImage) : null;
+                result = new CaptureResult(capturedImage.getFrameNumber(), capturedImage.getTimestampNs(), path, image, imageHolders);
+            }
+            coalesced.result.complete(result);
+        } catch (Exception e) {
+            synchronized (this) {
+                failed++;
+            }
+            Log.e(TAG, "Erreur lors de la livraison de la capture " + coalesced.camera + " : " + e);
+            coalesced.result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * La fonction saveCapturedImage() permet d'enregistrer l'image capturée encodée sur le fichier de la caméra :
+     * [path_to_storage/image_bytes_directory/captured_image_*_bytes_file]
+     *
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param capturedImage : l'image capturée encodée
+     * @return : le chemin vers le fichier ou bien null si une erreur est survenue.
+     */
+    private String saveCapturedImage(String camera, EncodedFrame capturedImage) {
+
+        String fileName = null;
+        if(camera.equals("grand-angle")) fileName = application.getString(R.string.captured_image_grand_angle_bytes_file);
+        else if(camera.equals("zoom")) fileName = application.getString(R.string.captured_image_zoom_bytes_file);
+
+        String captured_image_bytes_file_path = application.getString(R.string.path_to_storage) + application.getString(R.string.image_bytes_directory) + "/" + fileName;
+
+        File image_bytes_directory = new File(application.getString(R.string.path_to_storage), application.getString(R.string.image_bytes_directory));
+        if(!image_bytes_directory.exists()){
+            image_bytes_directory.mkdir();
+        }
+        File captured_image_bytes_file  = new File(image_bytes_directory.getPath(),  fileName);
+        try {
+            FileOutputStream fos = new FileOutputStream(captured_image_bytes_file);
+            capturedImage.writeTo(fos);
+            fos.close();
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Erreur pendant l'enregistrement du byte[] sur le fichier [ "+captured_image_bytes_file_path+" ] : "+e);
+            return null;
+        }
+
+        Log.i(TAG,"Succès d'enregistrement du byte[] sur le fichier : [ "+captured_image_bytes_file_path+" ]");
+
+        return captured_image_bytes_file_path;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs des captures
+     */
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("CaptureCoordinator : requests=" + requests
+                + " captures=" + captures
+                + " coalesced=" + (requests - captures - rejected)
+                + " rejected=" + rejected
+                + " failed=" + failed
+                + " pending=" + pending + "/" + maxPending);
+    }
+}
@@ -0,0 +1,162 @@
+package com.bfr.main.visionservice.services;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.bfr.main.visionservice.IFrameListener;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * La classe FrameNotifier réveille directement les clients abonnés (IFrameListener oneway) à chaque frame traitée,
+ * à la place des broadcasts globaux NEW_FRAME_OPENCV_IS_WRITTEN_* et TAG_DETECTED_* qui passaient par l'ActivityManager.
+ *
+ * Les notifications sont envoyées par un thread dédié, jamais par le thread de la caméra.
+ * Chaque abonné a au plus une notification en attente : si de nouvelles frames arrivent avant son envoi
+ * (abonné en retard), elles sont fusionnées et seule la plus récente est notifiée, avec le nombre de frames fusionnées.
+ * Un abonné est identifié par (listener, caméra) : le même listener peut être abonné aux deux caméras.
+ */
+public class FrameNotifier {
+
+    private static final String TAG = "SERVICE_VISION_FrameNotifier";
+
+    private final SubscriberList<IFrameListener> listeners = new SubscriberList<>();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+
+    /**
+     * Etat et compteurs de livraison d'un abonné
+     */
+    private static class Subscriber extends SubscriberList.Subscription<IFrameListener> {
+        Runnable deliveryTask;
+
+        boolean scheduled; // une notification est en attente d'envoi
+        long sequence;
+        long timestampNs;
+        int numberOfTags;
+        int coalescedFrames;
+
+        long delivered;
+        long coalesced;
+        long failed;
+
+        Subscriber(String camera, IFrameListener listener) {
+            super(camera, listener);
+        }
+    }
+
+    /**
+     * La fonction register() permet d'abonner un client aux frames d'une caméra.
+     * Un nouvel abonnement du même listener à la même caméra remplace le précédent.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param listener : le callback du client
+     */
+    public void register(String camera, IFrameListener listener) {
+        final Subscriber subscriber = new Subscriber(camera, listener);
+        subscriber.deliveryTask = new Runnable() {
+            @Override
+            public void run() {
+                deliver(subscriber);
+            }
+        };
+        listeners.register(subscriber);
+    }
+
+    /**
+     * La fonction unregister() permet de désabonner un client (de toutes les caméras).
+     */
+    public void unregister(IFrameListener listener) {
+        listeners.unregister(listener);
+    }
+
+    /**
+     * La fonction notifyFrame() est appelée par le pipeline de la caméra après le traitement de chaque frame.
+     * Elle ne fait que mettre à jour l'état des abonnés et programmer l'envoi : elle ne bloque jamais sur un client.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param sequence : la séquence de la frame dans le buffer circulaire de streaming (0 si le stream n'est pas lancé)
+     * @param timestampNs : le timestamp capteur de la frame (ns)
+     * @param numberOfTags : le nombre de tags détectés sur la frame
+     */
+    public void notifyFrame(String camera, long sequence, long timestampNs, int numberOfTags) {
+        synchronized (listeners) {
+            int count = listeners.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    for (SubscriberList.Subscription<?> subscription : listeners.getBroadcastSubscriptions(i)) {
+                        if (!subscription.camera.equals(camera)) continue;
+                        Subscriber subscriber = (Subscriber) subscription;
+                        synchronized (subscriber) {
+                            subscriber.sequence = sequence;
+                            subscriber.timestampNs = timestampNs;
+                            subscriber.numberOfTags = numberOfTags;
+                            if (subscriber.scheduled) {
+                                subscriber.coalescedFrames++;
+                                subscriber.coalesced++;
+                            } else {
+                                subscriber.scheduled = true;
+                                dispatcher.execute(subscriber.deliveryTask);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+
+    /**
+     * Envoi de la notification la plus récente à un abonné (thread dispatcher)
+     */
+    private void deliver(Subscriber subscriber) {
+        long sequence;
+        long timestampNs;
+        int numberOfTags;
+        int coalescedFrames;
+        synchronized (subscriber) {
+            subscriber.scheduled = false;
+            sequence = subscriber.sequence;
+            timestampNs = subscriber.timestampNs;
+            numberOfTags = subscriber.numberOfTags;
+            coalescedFrames = subscriber.coalescedFrames;
+            subscriber.coalescedFrames = 0;
+        }
+        try {
+            subscriber.listener.onFrameReady(subscriber.camera, sequence, timestampNs, numberOfTags, coalescedFrames);
+            synchronized (subscriber) {
+                subscriber.delivered++;
+            }
+        } catch (RemoteException e) {
+            synchronized (subscriber) {
+                subscriber.failed++;
+            }
+            Log.e(TAG, "Erreur lors de la notification de la frame " + sequence + " (" + subscriber.camera + ") : " + e);
+        }
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les compteurs de livraison de chaque abonné [adb shell dumpsys activity service ...]
+     */
+    public void dump(PrintWriter writer) {
+        synchronized (listeners) {
+            int count = listeners.beginBroadcast();
+            try {
+                writer.println("FrameNotifier : " + count + " client(s)");
+                for (int i = 0; i < count; i++) {
+                    for (SubscriberList.Subscription<?> subscription : listeners.getBroadcastSubscriptions(i)) {
+                        Subscriber subscriber = (Subscriber) subscription;
+                        synchronized (subscriber) {
+                            writer.println("  [" + subscriber.camera + "] " + subscriber.listener.asBinder()
+                                    + " delivered=" + subscriber.delivered
+                                    + " coalesced=" + subscriber.coalesced
+                                    + " failed=" + subscriber.failed);
+                        }
+                    }
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.bfr.main.visionservice.services;
+
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bfr.main.visionservice.IVisionResultListener;
+import com.bfr.main.visionservice.models.DetectionResults;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La classe ResultNotifier pousse les résultats de détection (DetectionResults) aux clients abonnés (IVisionResultListener oneway),
+ * à la place du couple broadcast TAG_DETECTED_* + appel getTagsInfos() (deux passages IPC par résultat).
+ *
+ * Chaque abonné choisit :
+ *      - les types de résultats voulus (DetectionResults.RESULT_TAGS / RESULT_FACES),
+ *      - sa cadence maximale de livraison (transactions par seconde, 0 = pas de limite),
+ *      - s'il reçoit chaque frame ou seulement les changements (ensemble des tags / visages détectés).
+ *
+ * Les résultats d'un abonné s'accumulent dans un batch (au plus MAX_BATCH, les plus anciens sont écartés) envoyé en une
+ * seule transaction par un thread dédié : un client en retard ou limité en cadence reçoit plusieurs frames d'un coup.
+ * Avec onlyChanges, un batch plein écarte d'abord un changement remplacé plus loin par le même ensemble de tags / visages
+ * (seule l'occurrence la plus récente de cet ensemble est gardée) : le dernier ensemble reçu par le client est toujours
+ * l'ensemble courant, seuls des états intermédiaires peuvent manquer (comptés dans droppedResults).
+ * Un abonné est identifié par (listener, caméra) : le même listener peut être abonné aux deux caméras.
+ */
+public class ResultNotifier {
+
+    private static final String TAG = "SERVICE_VISION_ResultNotifier";
+
+    public static final int MAX_BATCH = 16;
+
+    private final SubscriberList<IVisionResultListener> listeners = new SubscriberList<>();
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Abonnement, batch en attente et compteurs de livraison d'un abonné
+     */
+    private static class Subscriber extends SubscriberList.Subscription<IVisionResultListener> {
+        final int kinds;
+        final long minIntervalNs;
+        final boolean onlyChanges;
+        Runnable deliveryTask;
+
+        final ArrayDeque<DetectionResults> batch = new ArrayDeque<>(MAX_BATCH);
+        boolean scheduled; // une livraison est programmée
+        int droppedSinceDelivery;
+        long lastDeliveryNs;
+        int[] lastTagIds; // dernier ensemble de tags envoyé (onlyChanges)
+        int[] lastFaceIds; // dernier ensemble de visages envoyé (onlyChanges)
+
+        long transactions;
+        long delivered;
+        long unchanged;
+        long dropped;
+        long failed;
+
+        Subscriber(String camera, int kinds, float maxRate, boolean onlyChanges, IVisionResultListener listener) {
+            super(camera, listener);
+            this.kinds = kinds;
+            this.minIntervalNs = maxRate > 0 ? (long) (1e9 / maxRate) : 0;
+            this.onlyChanges = onlyChanges;
+        }
+    }
+
+    /**
+     * La fonction register() permet d'abonner un client aux résultats de détection d'une caméra.
+     * Un nouvel abonnement du même listener à la même caméra remplace le précédent.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param kinds : les types de résultats voulus (masque DetectionResults.RESULT_*)
+     * @param maxRate : la cadence maximale de livraison en transactions par seconde (0 = pas de limite)
+     * @param onlyChanges : true pour ne recevoir que les résultats dont l'ensemble des tags / visages a changé
+     * @param listener : le callback du client
+     */
+    public void register(String camera, int kinds, float maxRate, boolean onlyChanges, IVisionResultListener listener) {
+        final Subscriber subscriber = new Subscriber(camera, kinds, maxRate, onlyChanges, listener);
+        subscriber.deliveryTask = new Runnable() {
+            @Override
+            public void run() {
+                deliver(subscriber);
+            }
+        };
+        listeners.register(subscriber);
+    }
+
+    /**
+     * La fonction unregister() permet de désabonner un client (de toutes les caméras).
+     */
+    public void unregister(IVisionResultListener listener) {
+        listeners.unregister(listener);
+    }
+
+    /**
+     * @return : true si au moins un client est abonné (sinon le pipeline ne construit pas les DetectionResults)
+     */
+    public boolean hasSubscribers() {
+        return listeners.getClientCount() > 0;
+    }
+
+    /**
+     * La fonction publish() est appelée par l'étage de détection du pipeline après chaque frame.
+     * Elle ne fait qu'ajouter les résultats aux batchs des abonnés et programmer les livraisons : elle ne bloque jamais sur un client.
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param results : les résultats de la frame (partagés entre les abonnés, à ne plus modifier)
+     */
+    public void publish(String camera, DetectionResults results) {
+        synchronized (listeners) {
+            int count = listeners.beginBroadcast();
+            try {
+                long now = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < count; i++) {
+                    for (SubscriberList.Subscription<?> subscription : listeners.getBroadcastSubscriptions(i)) {
+                        if (!subscription.camera.equals(camera)) continue;
+                        Subscriber subscriber = (Subscriber) subscription;
+                        DetectionResults view = results.withKinds(subscriber.kinds);
+                        synchronized (subscriber) {
+                            if (subscriber.onlyChanges && !hasChanged(subscriber, view)) {
+                                subscriber.unchanged++;
+                                continue;
+                            }
+                            if (subscriber.batch.size() == MAX_BATCH) {
+                                dropOne(subscriber, view);
+                                subscriber.droppedSinceDelivery++;
+                                subscriber.dropped++;
+                            }
+                            subscriber.batch.addLast(view);
+                            if (!subscriber.scheduled) {
+                                subscriber.scheduled = true;
+                                long delayNs = Math.max(0, subscriber.lastDeliveryNs + subscriber.minIntervalNs - now);
+                                dispatcher.schedule(subscriber.deliveryTask, delayNs, TimeUnit.NANOSECONDS);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+
+    /**
+     * Comparaison de l'ensemble des tags / visages avec le dernier résultat retenu pour l'abonné (indépendant de l'ordre de détection)
+     */
+    private static boolean hasChanged(Subscriber subscriber, DetectionResults results) {
+        int[] tagIds = sorted(results.getTagIds());
+        int[] faceIds = sorted(results.getFaceTrackingIds());
+        if (Arrays.equals(tagIds, subscriber.lastTagIds) && Arrays.equals(faceIds, subscriber.lastFaceIds)) return false;
+        subscriber.lastTagIds = tagIds;
+        subscriber.lastFaceIds = faceIds;
+        return true;
+    }
+
+    /**
+     * Batch plein : le résultat écarté est le plus ancien, sauf avec onlyChanges où un changement dont l'ensemble
+     * revient plus loin dans le batch (ou dans le nouveau résultat) est écarté en priorité (appelé sous le verrou de l'abonné)
+     */
+    private static void dropOne(Subscriber subscriber, DetectionResults incoming) {
+        if (subscriber.onlyChanges) {
+            DetectionResults[] queued = subscriber.batch.toArray(new DetectionResults[0]);
+            for (int i = 0; i < queued.length; i++) {
+                for (int j = i + 1; j <= queued.length; j++) {
+                    if (sameIds(queued[i], j < queued.length ? queued[j] : incoming)) {
+                        subscriber.batch.removeFirstOccurrence(queued[i]);
+                        return;
+                    }
+                }
+            }
+        }
+        subscriber.batch.pollFirst();
+    }
+
+    private static boolean sameIds(DetectionResults a, DetectionResults b) {
+        return Arrays.equals(sorted(a.getTagIds()), sorted(b.getTagIds()))
+                && Arrays.equals(sorted(a.getFaceTrackingIds()), sorted(b.getFaceTrackingIds()));
+    }
+
+    private static int[] sorted(int[] ids) {
+        int[] copy = ids.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Envoi du batch d'un abonné en une transaction (thread dispatcher)
+     */
+    private void deliver(Subscriber subscriber) {
+        DetectionResults[] results;
+        int droppedResults;
+        synchronized (subscriber) {
+            subscriber.scheduled = false;
+            subscriber.lastDeliveryNs = SystemClock.elapsedRealtimeNanos();
+            results = subscriber.batch.toArray(new DetectionResults[0]);
+            subscriber.batch.clear();
+            droppedResults = subscriber.droppedSinceDelivery;
+            subscriber.droppedSinceDelivery = 0;
+        }
+        if (results.length == 0) return;
+        try {
+            subscriber.listener.onResults(subscriber.camera, results, droppedResults);
+            synchronized (subscriber) {
+                subscriber.transactions++;
+                subscriber.delivered += results.length;
+            }
+        } catch (RemoteException e) {
+            synchronized (subscriber) {
+                subscriber.failed++;
+            }
+            Log.e(TAG, "Erreur lors de l'envoi de " + results.length + " résultat(s) (" + subscriber.camera + ") : " + e);
+        }
+    }
+
+    /**
+     * La fonction dump() permet d'afficher les abonnements et les compteurs de livraison de chaque abonné [adb shell dumpsys activity service ...]
+     */
+    public void dump(PrintWriter writer) {
+        synchronized (listeners) {
+            int count = listeners.beginBroadcast();
+            try {
+                writer.println("ResultNotifier : " + count + " client(s)");
+                for (int i = 0; i < count; i++) {
+                    for (SubscriberList.Subscription<?> subscription : listeners.getBroadcastSubscriptions(i)) {
+                        Subscriber subscriber = (Subscriber) subscription;
+                        synchronized (subscriber) {
+                            writer.println("  [" + subscriber.camera + "] " + subscriber.listener.asBinder()
+                                    + " kinds=" + subscriber.kinds
+                                    + " minIntervalMs=" + subscriber.minIntervalNs / 1000000
+                                    + " onlyChanges=" + subscriber.onlyChanges
+                                    + " transactions=" + subscriber.transactions
+                                    + " delivered=" + subscriber.delivered
+                                    + " unchanged=" + subscriber.unchanged
+                                    + " dropped=" + subscriber.dropped
+                                    + " failed=" + subscriber.failed);
+                        }
+                    }
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.bfr.main.visionservice.services;
+
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteCallbackList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * La classe SubscriberList enregistre les abonnés des notifiers par (binder du client, caméra).
+ * RemoteCallbackList ne garde qu'un enregistrement par binder : le cookie d'un binder est donc le tableau de ses abonnements,
+ * un par caméra, et un même listener peut être abonné aux deux caméras sans que le second abonnement remplace le premier.
+ *
+ * Le tableau d'un client est copié à chaque modification : les broadcasts le parcourent sans verrou.
+ */
+class SubscriberList<L extends IInterface> {
+
+    /**
+     * Abonnement d'un listener à une caméra (étendu par l'état de livraison propre à chaque notifier)
+     */
+    static class Subscription<L> {
+        final String camera;
+        final L listener;
+
+        Subscription(String camera, L listener) {
+            this.camera = camera;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Abonnements d'un client
+     */
+    private static class Client {
+        volatile Subscription<?>[] subscriptions = new Subscription<?>[0];
+    }
+
+    private final HashMap<IBinder, Client> clients = new HashMap<>();
+    private final RemoteCallbackList<L> callbacks = new RemoteCallbackList<L>() {
+        @Override
+        public void onCallbackDied(L listener, Object cookie) {
+            synchronized (clients) {
+                clients.remove(listener.asBinder(), cookie);
+            }
+        }
+    };
+
+    /**
+     * La fonction register() permet d'ajouter un abonnement. Il remplace l'abonnement du même listener à la même caméra.
+     * @return : false si le client est déjà mort
+     */
+    boolean register(Subscription<L> subscription) {
+        synchronized (clients) {
+            IBinder binder = subscription.listener.asBinder();
+            Client client = clients.get(binder);
+            if (client == null) {
+                client = new Client();
+                if (!callbacks.register(subscription.listener, client)) return false;
+                clients.put(binder, client);
+            }
+            Subscription<?>[] current = client.subscriptions;
+            int index = 0;
+            while (index < current.length && !current[index].camera.equals(subscription.camera)) index++;
+            Subscription<?>[] updated = Arrays.copyOf(current, Math.max(current.length, index + 1));
+            updated[index] = subscription;
+            client.subscriptions = updated;
+            return true;
+        }
+    }
+
+    /**
+     * La fonction unregister() permet de supprimer tous les abonnements d'un listener (toutes caméras).
+     */
+    void unregister(L listener) {
+        synchronized (clients) {
+            clients.remove(listener.asBinder());
+            callbacks.unregister(listener);
+        }
+    }
+
+    /**
+     * @return : le nombre de clients abonnés (à au moins une caméra)
+     */
+    int getClientCount() {
+        return callbacks.getRegisteredCallbackCount();
+    }
+
+    /**
+     * La fonction beginBroadcast() démarre un parcours des clients, comme RemoteCallbackList.beginBroadcast() :
+     * un seul parcours à la fois, terminé par finishBroadcast().
+     * @return : le nombre de clients à parcourir avec getBroadcastSubscriptions()
+     */
+    int beginBroadcast() {
+        return callbacks.beginBroadcast();
+    }
+
+    /**
+     * @return : les abonnements du client i du parcours en cours (un par caméra)
+     */
+    Subscription<?>[] getBroadcastSubscriptions(int i) {
+        return ((Client) callbacks.getBroadcastCookie(i)).subscriptions;
+    }
+
+    void finishBroadcast() {
+        callbacks.finishBroadcast();
+    }
+}
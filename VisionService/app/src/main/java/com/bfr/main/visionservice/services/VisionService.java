@@ -6,32 +6,48 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SharedMemory;
 import android.util.Log;
 
+import com.bfr.main.visionservice.ICaptureCallback;
+import com.bfr.main.visionservice.IFrameListener;
+import com.bfr.main.visionservice.IVisionResultListener;
 import com.bfr.main.visionservice.IVisionService;
 import com.bfr.main.visionservice.R;
-import com.bfr.main.visionservice.activities.CamViewGrandAngleActivity;
-import com.bfr.main.visionservice.activities.CamViewZoomActivity;
 import com.bfr.main.visionservice.application.VisionServiceApplication;
+import com.bfr.main.visionservice.models.DetectionResults;
 import com.bfr.main.visionservice.models.ObjectExample;
-import com.bfr.main.visionservice.utils.Utils;
+import com.bfr.main.visionservice.models.StreamSpec;
+import com.bfr.main.visionservice.pipeline.DetectionSnapshot;
+import com.bfr.main.visionservice.pipeline.EncodedFrame;
+import com.bfr.main.visionservice.pipeline.FrameEncoder;
+import com.bfr.main.visionservice.pipeline.FramePipeline;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.opencv.core.Mat;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
+import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 /**
  *  VisionService est le service objet de la demande VISION SERVICE.
  *  Il fournit les fonctions nécessaires pour :
  *      - Démarrer / Arrêter le streaming des images capturées depuis la caméra grand angle ou Zoom de Buddy (via OpenCV).
+ *      - Négocier un stream propre au client (résolution, cadence maximale, format JPEG / RGBA / GRAY / NV21), partagé entre les clients de même spécification.
  *      - Récupérer un objet Parcelable qui va contenir le résultat d'algorithmes de CV.
- *      - Capturer une image et récupérer le chemin vers le fichier contenant son byte[].
- *      - Récupérer les informations des tags détectés depuis la caméra Grand-Angle ou Zoom.
+ *      - Capturer une image et récupérer le chemin vers le fichier contenant son byte[] (appel bloquant, ou oneway avec ICaptureCallback).
+ *      - Capturer une image et la récupérer dans une mémoire partagée anonyme (SharedMemory), sans fichier intermédiaire.
+ *      - Récupérer les informations des tags détectés depuis la caméra Grand-Angle ou Zoom (JSON, ou DetectionResults compact).
+ *      - Récupérer l'historique récent des détections (depuis une séquence, ou entre deux timestamps).
+ *      - S'abonner aux notifications de nouvelles frames (IFrameListener).
+ *      - S'abonner aux résultats de détection poussés par lots, avec limite de cadence (IVisionResultListener).
  *
  *  Les autres applications peuvent se connecter à ce service par le bias d'AIDL pour appeler ces fonctions.
  */
@@ -41,37 +57,33 @@ public class VisionService extends Service {
 
     private VisionServiceApplication application;
 
+    private final FrameEncoder pictureTestEncoder = new FrameEncoder(); // encodage partagé de l'image de test de getObjectExample()
+    private Mat pictureTest; // l'image de test décodée (RGBA)
+
     private final IVisionService.Stub remoteBinder = new IVisionService.Stub(){
 
         /**
          * La fonction startFrameStream() permet de lancer l'écriture des frames sur la mémoire partagée
-         * via l'utilisation de l'activity CameraActivity de OpenCV.
+         * via l'utilisation de l'activity CameraActivity de OpenCV [frame_source = "camera_bridge"],
+         * ou via la capture headless du service [frame_source = "camera2" ou "file"].
          *
          * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
          * @throws RemoteException
          */
         @Override
         public void startFrameStream(String camera) throws RemoteException {
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if(pipeline == null) return;
 
-            if(camera.equals("grand-angle")){
-                /*
-                 * Ouverture de l'activity de camera Grand-Angle pour démarrer le stream Grand-Angle
-                 */
-                Intent intent = new Intent(VisionService.this, CamViewGrandAngleActivity.class);
-                intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                startActivity(intent);
-                application.notifyObservers("startStreamGrandAngle");
-            }
-
-            else if(camera.equals("zoom")) {
-                /*
-                 * Ouverture de l'activity de camera Zoom pour démarrer le stream Zoom
-                 */
-                Intent intent = new Intent(VisionService.this, CamViewZoomActivity.class);
-                intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                startActivity(intent);
-                application.notifyObservers("startStreamZoom");
+            /*
+             * Lancement du streaming sur le pipeline de la caméra : le streaming est un utilisateur de la caméra,
+             * dont la capture est démarrée si elle ne tourne pas déjà (voir CameraSessionManager)
+             */
+            synchronized (pipeline) {
+                if(pipeline.isStreaming()) return;
+                pipeline.setStreaming(true);
             }
+            application.getCameraSessions().acquire(camera);
         }
 
 
@@ -83,14 +95,13 @@ public class VisionService extends Service {
          */
         @Override
         public void stopFrameStream(String camera) throws RemoteException {
-            if(camera.equals("grand-angle")) {
-                application.notifyObservers("stopStreamGrandAngle");
-                application.notifyObservers("finishCamGrandAngle");
-            }
-            else if(camera.equals("zoom")) {
-                application.notifyObservers("stopStreamZoom");
-                application.notifyObservers("finishCamZoom");
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if(pipeline == null) return;
+            synchronized (pipeline) {
+                if(!pipeline.isStreaming()) return;
+                pipeline.setStreaming(false);
             }
+            application.getCameraSessions().release(camera); // la caméra reste ouverte pendant la veille, ou pour ses autres utilisateurs
         }
 
 
@@ -128,15 +139,19 @@ public class VisionService extends Service {
              * Image [2 méthodes : via la mémoire partagée ou via stockage locale ]
              */
 
-            //Récupération du byte[] de l'image de test [R.drawable.picture_test] :
-            Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.picture_test);
-            byte[] bitmapBytes = Utils.getBytesFromBitmap(bitmap);
+            //Récupération de l'image de test encodée [R.drawable.picture_test] (encodée une seule fois, puis partagée) :
+            EncodedFrame pictureTestEncoded = encodePictureTest();
+            if(pictureTestEncoded == null){
+                objectExample.setFrameIsWrittenInSharedMemory(false);
+                objectExample.setImageBytesFilePath("");
+                return objectExample;
+            }
 
 
             /*
              * méthode 1 : Ecriture du byte[] sur la mémoire partagée
              */
-            boolean success = application.writeCvResultingFrameInSharedMemory(bitmapBytes);
+            boolean success = application.writeCvResultingFrameInSharedMemory(pictureTestEncoded);
             objectExample.setFrameIsWrittenInSharedMemory(success);
 
 
@@ -151,7 +166,7 @@ public class VisionService extends Service {
             String cv_result_image_bytes_file_path = getString(R.string.path_to_storage) + getString(R.string.image_bytes_directory) + "/" + getString(R.string.cv_result_image_bytes_file);
             try {
                 FileOutputStream fos = new FileOutputStream(cv_result_image_bytes_file);
-                fos.write(bitmapBytes);
+                pictureTestEncoded.writeTo(fos);
                 fos.close();
                 objectExample.setImageBytesFilePath(cv_result_image_bytes_file_path);
             }
@@ -192,47 +207,58 @@ public class VisionService extends Service {
         public String getImageByteFilePath(String camera) throws RemoteException {
 
             /*
-             *  Prise de la photo et récupération du byte[]
-             */
-
-            byte[] capturedImageBytes = takePictureUsingCameraOpenCV(camera);
-
-            String fileName = null;
-            if(camera.equals("grand-angle")) fileName = getString(R.string.captured_image_grand_angle_bytes_file);
-            else if(camera.equals("zoom")) fileName = getString(R.string.captured_image_zoom_bytes_file);
-
-
-            /*
-             * Enregistrement du byte[] sur le fichier : [path_to_storage/image_bytes_directory/fileName]
+             *  Prise de la photo, encodage et enregistrement du byte[] sur le fichier : [path_to_storage/image_bytes_directory/fileName]
              *  NB : Nous ne pouvons pas envoyer le byte[] directement par AIDL lorsque sa taille est trés grande
              *  c'est pour ça nous avons opté pour l'enregistrement du byte[] dans un fichier et envoyer juste son path.
+             *  Les appels concurrents sur la même caméra partagent la même capture et le même fichier (voir CaptureCoordinator).
              */
 
-            if(capturedImageBytes != null){
-
-                String captured_image_bytes_file_path = getString(R.string.path_to_storage) + getString(R.string.image_bytes_directory) + "/" + fileName;
+            CaptureCoordinator.CaptureResult capturedImage = takePictureUsingCameraOpenCV(camera, false);
+            if(capturedImage != null && capturedImage.getPath() != null) return capturedImage.getPath();
+            else return "ERROR";
 
-                File image_bytes_directory = new File(getString(R.string.path_to_storage), getString(R.string.image_bytes_directory));
-                if(!image_bytes_directory.exists()){
-                    image_bytes_directory.mkdir();
-                }
-                File captured_image_bytes_file  = new File(image_bytes_directory.getPath(),  fileName);
-                try {
-                    FileOutputStream fos = new FileOutputStream(captured_image_bytes_file);
-                    fos.write(capturedImageBytes);
-                    fos.close();
-                }
-                catch (Exception e) {
-                    Log.e(TAG, "Erreur pendant l'enregistrement du byte[] sur le fichier [ "+captured_image_bytes_file_path+" ] : "+e);
-                    return "ERROR";
-                }
+        }
 
-                Log.i(TAG,"Succès d'enregistrement du byte[] sur le fichier : [ "+captured_image_bytes_file_path+" ]");
+        /**
+         * La fonction captureAsync() est la version oneway de getImageByteFilePath() : l'appel rend la main tout de suite,
+         * la capture est complétée par la prochaine frame de la caméra et le résultat est envoyé au callback.
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param callback : appelé avec le chemin vers le fichier contenant le byte[] de l'image capturée, ou en cas d'erreur
+         * @throws RemoteException
+         */
+        @Override
+        public void captureAsync(String camera, ICaptureCallback callback) throws RemoteException {
+            requestCaptureAsync(camera, callback, false);
+        }
 
-                return captured_image_bytes_file_path;
-            }
-            else return "ERROR";
+        /**
+         * La fonction captureImage() permet de capturer une image depuis la caméra grand angle ou zoom de Buddy et de la
+         * récupérer directement dans une mémoire anonyme en lecture seule (SharedMemory), sans passer par un fichier.
+         * La mémoire commence par un en-tête (format, taille, timestamp) décrit dans CaptureImageMemory.
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @return : la mémoire contenant l'image capturée encodée, ou null si une erreur est survenue.
+         * @throws RemoteException
+         */
+        @Override
+        public SharedMemory captureImage(String camera) throws RemoteException {
+            CaptureCoordinator.CaptureResult capturedImage = takePictureUsingCameraOpenCV(camera, true);
+            if(capturedImage == null) return null;
+            return capturedImage.getImage();
+        }
 
+        /**
+         * La fonction captureImageAsync() est la version oneway de captureImage() : la mémoire contenant l'image capturée
+         * est envoyée au callback [onCaptureImageReady()].
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param callback : appelé avec la mémoire contenant l'image capturée, ou en cas d'erreur
+         * @throws RemoteException
+         */
+        @Override
+        public void captureImageAsync(String camera, ICaptureCallback callback) throws RemoteException {
+            requestCaptureAsync(camera, callback, true);
         }
 
         /**
@@ -245,28 +271,20 @@ public class VisionService extends Service {
         @Override
         public String getTagsInfos(String camera) throws RemoteException {
 
-            List<Mat> arucoCorners;
-            Mat arucoIds;
-
             /*
-             * Récupération des informations arucoCorners et arucoIds pour la construction du JSON
+             * Récupération du snapshot des derniers tags détectés pour la construction du JSON (valeurs et nombre de tags de la même frame)
              */
-            if(camera.equals("grand-angle") && application.getArucoCornersGrandAngle().size()>0) {
-                arucoCorners = application.getArucoCornersGrandAngle();
-                arucoIds = application.getArucoIdsGrandAngle();
-            }
-            else if(camera.equals("zoom") && application.getArucoCornersZoom().size()>0) {
-                arucoCorners = application.getArucoCornersZoom();
-                arucoIds = application.getArucoIdsZoom();
-            }
-            else return null;
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if(pipeline == null) return null;
+            DetectionSnapshot snapshot = pipeline.getDetectionSnapshot();
+            if(snapshot.getNumberOfTags() == 0) return null;
 
             /*
              * Construction du JSON contenant les informations de tags :
              * Il est de la forme suivante :
              *  _____________________________________
              *  |   {                               |
-             *  |       "numberOfTags" : ... ,      | ----> Nombre de tags détectés [=arucoCorners.size()]
+             *  |       "numberOfTags" : ... ,      | ----> Nombre de tags détectés [=snapshot.getNumberOfTags()]
              *  |       "tags":                     | ----> Array contenant les informations sur les tags détectés
              *  |           [                       |
              *  |               {                   |
@@ -287,12 +305,12 @@ public class VisionService extends Service {
                 JSONObject tagsInfos = new JSONObject();
                 JSONArray arrayTags = new JSONArray();
 
-                tagsInfos.put("numberOfTags",arucoCorners.size());
+                tagsInfos.put("numberOfTags",snapshot.getNumberOfTags());
 
-                for (int k=0; k<arucoCorners.size(); k++){
+                for (int k=0; k<snapshot.getNumberOfTags(); k++){
                     JSONObject tag = new JSONObject();
                     tag.put("id",k);
-                    tag.put("value",arucoIds.get(k,0)[0]);
+                    tag.put("value",(double) snapshot.getTagId(k));
                     arrayTags.put(tag);
                 }
 
@@ -307,99 +325,228 @@ public class VisionService extends Service {
                 return null;
             }
         }
-    };
 
 
-    /**
-     * La fonction takePictureUsingCameraOpenCV() permet de capturer une image depuis la caméra de Buddy grand-angle ou zoom
-     * via l'utilisation de l'activity CameraActivity de OpenCV.
-     *
-     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
-     * @return : L'image sous format de byte[] ou bien null si une erreur est survenue.
-     */
-    private byte[] takePictureUsingCameraOpenCV(String camera){
+        /**
+         * La fonction getDetectionResults() permet de récupérer les résultats de détection de la dernière frame traitée
+         * de la caméra Grand-Angle ou Zoom : valeurs ET coins des tags (et visages), rangés dans des tableaux de primitives.
+         * Elle remplace getTagsInfos() (JSON reconstruit à chaque appel, sans les coins des tags).
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @return : les résultats de détection, ou null si la caméra est inconnue.
+         * @throws RemoteException
+         */
+        @Override
+        public DetectionResults getDetectionResults(String camera) throws RemoteException {
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if(pipeline == null) return null;
+            return pipeline.getDetectionResults();
+        }
 
-        if(camera.equals("grand-angle")) {
-            /*
-             * Initialisation (photo grand-angle pas encore capturée)
-             */
-            application.setFrameGrandAngleCaptured(false);
 
-            /*
-             * Ouverture de l'activity de camera grand-angle pour la capture de la photo
-             */
-            Intent intent = new Intent(VisionService.this, CamViewGrandAngleActivity.class);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(intent);
+        /**
+         * La fonction getDetectionsSince() permet de récupérer toutes les détections gardées dans l'historique de la caméra
+         * depuis une séquence : un client peut interroger le service à faible cadence sans perdre de détection.
+         * Seules les frames avec au moins un tag sont gardées, pendant detection_history_seconds au plus.
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param sequence : la séquence de la dernière détection déjà reçue (DetectionResults.getFrameSequence(), 0 pour tout l'historique)
+         * @return : les détections de la plus ancienne à la plus récente, ou null si la caméra est inconnue.
+         * @throws RemoteException
+         */
+        @Override
+        public DetectionResults[] getDetectionsSince(String camera, long sequence) throws RemoteException {
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if(pipeline == null) return null;
+            return pipeline.getDetectionHistory().getSince(camera, sequence);
+        }
 
-            /*
-             * Attendre que la photo grand-angle soit prise
-             */
-            while (!application.isFrameGrandAngleCaptured()){
-                try {
-                    Thread.sleep(300);
-                }
-                catch (InterruptedException ignored) {}
-            }
 
-            // la photo grand-angle est capturée
+        /**
+         * La fonction getDetectionsBetween() permet de récupérer les détections de l'historique de la caméra
+         * dont le timestamp capteur est compris entre t0 et t1.
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param t0Ns : le début de l'intervalle (ns, même base que DetectionResults.getTimestampNs())
+         * @param t1Ns : la fin de l'intervalle (ns, inclus)
+         * @return : les détections de la plus ancienne à la plus récente, ou null si la caméra est inconnue.
+         * @throws RemoteException
+         */
+        @Override
+        public DetectionResults[] getDetectionsBetween(String camera, long t0Ns, long t1Ns) throws RemoteException {
+            FramePipeline pipeline = application.getFramePipeline(camera);
+            if(pipeline == null) return null;
+            return pipeline.getDetectionHistory().getBetween(camera, t0Ns, t1Ns);
+        }
 
-            /*
-             * Conversion de la frame (Mat) en BitMap puis en byte[] pour envoi via AIDL
-             */
-            Bitmap bitmapGrandAngle;
-            try {
-                bitmapGrandAngle = Bitmap.createBitmap(application.getFrameGrandAngle().cols(), application.getFrameGrandAngle().rows(), Bitmap.Config.ARGB_8888);
-                org.opencv.android.Utils.matToBitmap(application.getFrameGrandAngle(), bitmapGrandAngle);
-            }
-            catch (Exception e){
-                Log.e(TAG, "Erreur lors de la création du bitmap grand-angle : "+e);
-                return null;
-            }
 
-            return Utils.getBytesFromBitmap(bitmapGrandAngle);
+        /**
+         * La fonction registerResultListener() permet à un client de s'abonner aux résultats de détection d'une caméra :
+         * les résultats sont poussés par lots (oneway), sans broadcast TAG_DETECTED_* ni appel getTagsInfos().
+         * Le même listener peut être abonné aux deux caméras (un appel par caméra).
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param kinds : les types de résultats voulus (masque DetectionResults.RESULT_TAGS / RESULT_FACES)
+         * @param maxRate : la cadence maximale de livraison en transactions par seconde (0 = pas de limite)
+         * @param onlyChanges : true pour ne recevoir que les changements de l'ensemble des tags / visages détectés
+         * @param listener : callback oneway qui reçoit les résultats
+         * @throws RemoteException
+         */
+        @Override
+        public void registerResultListener(String camera, int kinds, float maxRate, boolean onlyChanges, IVisionResultListener listener) throws RemoteException {
+            application.getResultNotifier().register(camera, kinds, maxRate, onlyChanges, listener);
         }
-        else if(camera.equals("zoom")) {
-            /*
-             * Initialisation (photo zoom pas encore capturée)
-             */
-            application.setFrameZoomCaptured(false);
 
-            /*
-             * Ouverture de l'activity de camera zoom pour la capture de la photo
-             */
-            Intent intent = new Intent(VisionService.this, CamViewZoomActivity.class);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(intent);
+        /**
+         * La fonction unregisterResultListener() permet à un client de se désabonner des résultats de détection (toutes caméras).
+         *
+         * @param listener : le callback enregistré avec registerResultListener()
+         * @throws RemoteException
+         */
+        @Override
+        public void unregisterResultListener(IVisionResultListener listener) throws RemoteException {
+            application.getResultNotifier().unregister(listener);
+        }
 
-            /*
-             * Attendre que la photo zoom soit prise
-             */
-            while (!application.isFrameZoomCaptured()){
+
+        /**
+         * La fonction startFrameStreamWithSpec() permet à un client de recevoir un stream à sa mesure : résolution, cadence maximale
+         * et format (StreamSpec.FORMAT_JPEG / FORMAT_RGBA / FORMAT_GRAY / FORMAT_NV21).
+         * Les frames sont réduites / converties une seule fois par spécification, et les clients qui demandent la même spécification
+         * lisent la même région de mémoire partagée (buffer circulaire, voir FrameRingBuffer).
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param spec : la spécification du stream (width x height = 0 x 0 pour la résolution de la caméra, maxFps = 0 pour sa cadence)
+         * @param client : un binder propre au client (sa mort arrête le stream pour ce client)
+         * @return : le nom de la région de mémoire partagée à lire, ou null si la demande est refusée
+         * @throws RemoteException
+         */
+        @Override
+        public String startFrameStreamWithSpec(String camera, StreamSpec spec, IBinder client) throws RemoteException {
+            return application.startStream(camera, spec, client);
+        }
+
+
+        /**
+         * La fonction stopFrameStreamWithSpec() permet à un client d'arrêter ses streams négociés sur une caméra.
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param client : le binder donné à startFrameStreamWithSpec()
+         * @throws RemoteException
+         */
+        @Override
+        public void stopFrameStreamWithSpec(String camera, IBinder client) throws RemoteException {
+            application.stopStream(camera, client);
+        }
+
+
+        /**
+         * La fonction registerFrameListener() permet à un client de s'abonner aux notifications de nouvelles frames
+         * (et du nombre de tags détectés) d'une caméra, à la place des broadcasts NEW_FRAME_OPENCV_IS_WRITTEN_* et TAG_DETECTED_*.
+         * Le même listener peut être abonné aux deux caméras (un appel par caméra).
+         *
+         * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+         * @param listener : callback oneway appelé après le traitement de chaque frame
+         * @throws RemoteException
+         */
+        @Override
+        public void registerFrameListener(String camera, IFrameListener listener) throws RemoteException {
+            application.getFrameNotifier().register(camera, listener);
+        }
+
+        /**
+         * La fonction unregisterFrameListener() permet à un client de se désabonner des notifications de nouvelles frames (toutes caméras).
+         *
+         * @param listener : le callback enregistré avec registerFrameListener()
+         * @throws RemoteException
+         */
+        @Override
+        public void unregisterFrameListener(IFrameListener listener) throws RemoteException {
+            application.getFrameNotifier().unregister(listener);
+        }
+    };
+
+
+    /**
+     * La fonction takePictureUsingCameraOpenCV() permet de capturer une image depuis la caméra de Buddy grand-angle ou zoom
+     * via l'utilisation de l'activity CameraActivity de OpenCV (ou de la source headless).
+     * Le thread binder attend seulement le résultat : la capture, l'encodage et la livraison sont faits sur l'Executor des captures,
+     * et partagés avec les demandes concurrentes de la même caméra. L'attente dure au plus [capture_timeout_ms] ms.
+     *
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param toSharedMemory : true pour l'image en mémoire anonyme, false pour l'image enregistrée sur le fichier de la caméra
+     * @return : Le résultat de la capture ou bien null si une erreur est survenue (ou si la demande est refusée).
+     */
+    private CaptureCoordinator.CaptureResult takePictureUsingCameraOpenCV(String camera, boolean toSharedMemory){
+        CaptureCoordinator captureCoordinator = application.getCaptureCoordinator();
+        CompletableFuture<CaptureCoordinator.CaptureResult> capture = captureCoordinator.capture(camera, toSharedMemory, true);
+        try {
+            // le timeout de la frame est géré par le CaptureCoordinator, la marge couvre l'encodage et l'enregistrement
+            return capture.get(2 * captureCoordinator.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Erreur lors de la capture " + camera + " : " + e);
+            return null;
+        }
+    }
+
+    /**
+     * La fonction requestCaptureAsync() permet de demander la capture de la prochaine frame d'une caméra sans bloquer l'appelant :
+     * l'image est encodée puis enregistrée sur le fichier de la caméra [toSharedMemory = false] ou copiée dans une mémoire
+     * anonyme [toSharedMemory = true], et le résultat est envoyé au callback.
+     *
+     * @param camera : Camera grand angle ["grand-angle"] ou Zoom ["zoom"]
+     * @param callback : le callback du client
+     * @param toSharedMemory : mode de livraison de l'image
+     */
+    private void requestCaptureAsync(final String camera, final ICaptureCallback callback, final boolean toSharedMemory) throws RemoteException {
+        application.getCaptureCoordinator().capture(camera, toSharedMemory, false).whenCompleteAsync(new BiConsumer<CaptureCoordinator.CaptureResult, Throwable>() {
+            @Override
+            public void accept(CaptureCoordinator.CaptureResult capturedImage, Throwable error) {
                 try {
-                    Thread.sleep(300);
+                    if(error != null){
+                        callback.onCaptureFailed(camera, String.valueOf(error.getMessage()));
+                    }
+                    else if(toSharedMemory){
+                        if(capturedImage.getImage() == null){
+                            callback.onCaptureFailed(camera, "Erreur lors de la copie de l'image capturée en mémoire partagée");
+                            return;
+                        }
+                        try {
+                            callback.onCaptureImageReady(camera, capturedImage.getImage());
+                        } finally {
+                            capturedImage.releaseImage(); // le descripteur a été dupliqué pour le client lors de l'envoi
+                        }
+                    }
+                    else {
+                        if(capturedImage.getPath() == null) callback.onCaptureFailed(camera, "Erreur lors de l'enregistrement de l'image capturée");
+                        else callback.onCaptureCompleted(camera, capturedImage.getPath(), capturedImage.getTimestampNs());
+                    }
+                }
+                catch (RemoteException e) {
+                    Log.e(TAG, "Erreur lors de l'envoi du résultat de la capture " + camera + " : " + e);
                 }
-                catch (InterruptedException ignored) {}
             }
+        }, application.getCaptureExecutor());
+    }
 
-            // la photo zoom est capturée
-
-            /*
-             * Conversion de la frame (Mat) en BitMap puis en byte[] pour envoi via AIDL
-             */
-            Bitmap bitmapZoom;
+    /**
+     * La fonction encodePictureTest() permet d'encoder l'image de test [R.drawable.picture_test] au format de capture.
+     * L'image est décodée et encodée une seule fois, puis le résultat est partagé par les appels suivants.
+     * @return : l'image de test encodée, ou null si une erreur est survenue
+     */
+    private synchronized EncodedFrame encodePictureTest(){
+        if(pictureTest == null){
             try {
-                bitmapZoom = Bitmap.createBitmap(application.getFrameZoom().cols(), application.getFrameZoom().rows(), Bitmap.Config.ARGB_8888);
-                org.opencv.android.Utils.matToBitmap(application.getFrameZoom(), bitmapZoom);
+                Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.drawable.picture_test);
+                Mat picture = new Mat();
+                org.opencv.android.Utils.bitmapToMat(bitmap, picture);
+                bitmap.recycle();
+                pictureTest = picture;
             }
             catch (Exception e){
-                Log.e(TAG, "Erreur lors de la création du bitmap zoom : "+e);
+                Log.e(TAG, "Erreur lors du chargement de l'image de test : "+e);
                 return null;
             }
-
-            return Utils.getBytesFromBitmap(bitmapZoom);
         }
-        else return null;
+        return pictureTestEncoder.encode(pictureTest, 1, 0, application.getCaptureEncoding());
     }
 
 
@@ -419,4 +566,12 @@ public class VisionService extends Service {
         return super.onUnbind(intent);
     }
 
+    /**
+     * Affichage des compteurs des étages du pipeline et des notifications [adb shell dumpsys activity service com.bfr.main.visionservice]
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        ((VisionServiceApplication) getApplicationContext()).dump(writer);
+    }
+
 }
@@ -0,0 +1,75 @@
+package com.bfr.main.visionservice.sharedmemory;
+
+import android.os.SharedMemory;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.bfr.main.visionservice.pipeline.EncodedFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * La classe CaptureImageMemory place une image capturée encodée (voir FrameEncoder) dans une mémoire anonyme
+ * (android.os.SharedMemory / ashmem) envoyée au client via AIDL, à la place d'un fichier à nom fixe sur le stockage.
+ * Le client mappe la mémoire en lecture seule : pas de passage par la flash, pas de course sur le fichier.
+ *
+ * Organisation de la mémoire (little-endian) :
+ *  _____________________________________________________________________________
+ *  |  En-tête [HEADER_SIZE octets]                                             |
+ *  |      0 : int   magic              ----> CAPTURE_MAGIC                     |
+ *  |      4 : int   layoutVersion      ----> LAYOUT_VERSION                    |
+ *  |      8 : int   pixelFormat        ----> FrameRingBuffer.PIXEL_FORMAT_*    |
+ *  |     12 : int   width                                                      |
+ *  |     16 : int   height                                                     |
+ *  |     20 : int   payloadLength      ----> nombre d'octets de l'image        |
+ *  |     24 : long  timestampNs        ----> timestamp capteur de la frame (ns)|
+ *  |     32 : long  frameNumber        ----> numéro de la frame dans le pipeline
+ *  |___________________________________________________________________________|
+ *  |  HEADER_SIZE : image (fichier JPEG / PNG complet, ou pixels bruts)        |
+ *  |___________________________________________________________________________|
+ */
+public class CaptureImageMemory {
+
+    private static final String TAG = "SERVICE_VISION_CaptureImageMemory";
+
+    public static final int CAPTURE_MAGIC = 0x42465243; // "BFRC"
+    public static final int LAYOUT_VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    /**
+     * La fonction create() permet de copier une image encodée dans une nouvelle mémoire anonyme, protégée en lecture seule.
+     * @param name : le nom de la mémoire (debug)
+     * @param encodedFrame : l'image encodée
+     * @return : la mémoire partagée à envoyer au client, ou null si une erreur est survenue
+     */
+    public static SharedMemory create(String name, EncodedFrame encodedFrame) {
+        SharedMemory sharedMemory = null;
+        synchronized (encodedFrame.getLock()) {
+            try {
+                int pixelFormat = FrameRingBuffer.pixelFormatOf(encodedFrame);
+                int length = encodedFrame.getLength();
+                sharedMemory = SharedMemory.create(name, HEADER_SIZE + length);
+                ByteBuffer buffer = sharedMemory.mapReadWrite();
+                buffer.order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(CAPTURE_MAGIC)
+                        .putInt(LAYOUT_VERSION)
+                        .putInt(pixelFormat)
+                        .putInt(encodedFrame.getWidth())
+                        .putInt(encodedFrame.getHeight())
+                        .putInt(length)
+                        .putLong(encodedFrame.getTimestampNs())
+                        .putLong(encodedFrame.getFrameNumber());
+                buffer.position(HEADER_SIZE);
+                buffer.put(encodedFrame.getData(), 0, length);
+                SharedMemory.unmap(buffer);
+                sharedMemory.setProtect(OsConstants.PROT_READ);
+                return sharedMemory;
+            } catch (Exception e) {
+                Log.e(TAG, "Erreur lors de la copie de l'image capturée en mémoire partagée [" + name + "] : " + e);
+                if (sharedMemory != null) sharedMemory.close();
+                return null;
+            }
+        }
+    }
+}
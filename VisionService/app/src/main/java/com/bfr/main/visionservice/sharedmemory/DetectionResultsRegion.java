@@ -0,0 +1,172 @@
+package com.bfr.main.visionservice.sharedmemory;
+
+import android.util.Log;
+
+import com.bfr.main.visionservice.models.DetectionResults;
+import com.bfr.main.visionservice.pipeline.ArucoOutputs;
+import com.newtronlabs.sharedmemory.prod.memory.ISharedMemory;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * La classe DetectionResultsRegion écrit les résultats de détection (tags, puis visages/objets) de chaque frame
+ * sous forme d'enregistrements binaires de taille fixe dans une région de mémoire partagée [CV-Detection-Results].
+ * Les clients peuvent ainsi lire les résultats sans appel AIDL ni JSON.
+ *
+ * Organisation de la région (little-endian) :
+ *  _____________________________________________________________________________
+ *  |  En-tête de région [REGION_HEADER_SIZE octets]                            |
+ *  |      0 : int   magic              ----> REGION_MAGIC                      |
+ *  |      4 : int   layoutVersion      ----> LAYOUT_VERSION                    |
+ *  |      8 : int   sectionCount       ----> une section par caméra            |
+ *  |     12 : int   sectionSize                                                |
+ *  |     16 : int   recordSize         ----> RECORD_SIZE                       |
+ *  |___________________________________________________________________________|
+ *  |  Section de la caméra c [à l'offset REGION_HEADER_SIZE + c*sectionSize]   |
+ *  |      0 : long  version            ----> compteur seqlock (impair = écriture en cours)
+ *  |      8 : long  frameSequence      ----> numéro de la frame dans le pipeline (corrélation avec le stream : timestampNs)
+ *  |     16 : long  timestampNs        ----> timestamp capteur de la frame (ns)
+ *  |     24 : int   recordCount                                                |
+ *  |     SECTION_HEADER_SIZE : recordCount enregistrements de RECORD_SIZE octets|
+ *  |___________________________________________________________________________|
+ *  |  Enregistrement                                                           |
+ *  |      0 : int   kind               ----> KIND_TAG / KIND_FACE / KIND_OBJECT|
+ *  |      4 : int   id                 ----> valeur lue sur le tag             |
+ *  |      8 : float score                                                      |
+ *  |     16 : float[8] points          ----> tag : 4 coins (x,y)               |
+ *  |                                         visage/objet : x1,y1,x2,y2        |
+ *  |___________________________________________________________________________|
+ *
+ * Protocole seqlock de lecture (côté client, implémenté par DetectionResultsReader dans l'application PocTestVisionService) :
+ *  1- lire version v1 ; si v1 est impair, une écriture est en cours : recommencer.
+ *  2- copier la section.
+ *  3- relire version v2 ; si v2 != v1, la copie est incohérente : recommencer.
+ * Les trois écritures (et les trois lectures côté client) sont séparées par des barrières mémoire (MemoryFence) :
+ * writeBytes() / readBytes() n'ordonnent pas les accès, un autre processus pourrait sinon voir la version paire
+ * avant les enregistrements.
+ */
+public class DetectionResultsRegion {
+
+    private static final String TAG = "SERVICE_VISION_DetectionResultsRegion";
+
+    public static final int REGION_MAGIC = 0x42465244; // "BFRD"
+    public static final int LAYOUT_VERSION = 1;
+    public static final int REGION_HEADER_SIZE = 64;
+    public static final int SECTION_HEADER_SIZE = 32;
+    public static final int RECORD_SIZE = 48;
+
+    public static final int CAMERA_GRAND_ANGLE = 0;
+    public static final int CAMERA_ZOOM = 1;
+    public static final int SECTION_COUNT = 2;
+
+    public static final int KIND_TAG = 1;
+    public static final int KIND_FACE = 2;
+    public static final int KIND_OBJECT = 3;
+
+    private final ISharedMemory sharedMemory;
+    private final int sectionSize;
+    private final int maxRecords;
+
+    private final long[] versions = new long[SECTION_COUNT];
+    private final byte[] versionBytes = new byte[8];
+    private final ByteBuffer version = ByteBuffer.wrap(versionBytes).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] sectionBytes;
+    private final ByteBuffer section;
+    private int[] ids = new int[0];
+    private float[] corners = new float[0];
+
+    /**
+     * @param sharedMemory : la région de mémoire partagée allouée pour les résultats de détection.
+     * @param regionSize : la taille en octets de la région.
+     */
+    public DetectionResultsRegion(ISharedMemory sharedMemory, int regionSize) {
+        this.sharedMemory = sharedMemory;
+        this.sectionSize = (regionSize - REGION_HEADER_SIZE) / SECTION_COUNT;
+        this.maxRecords = (sectionSize - SECTION_HEADER_SIZE) / RECORD_SIZE;
+        this.sectionBytes = new byte[sectionSize];
+        this.section = ByteBuffer.wrap(sectionBytes).order(ByteOrder.LITTLE_ENDIAN);
+        writeRegionHeader();
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * La fonction publishTags() permet de publier les tags détectés sur une frame.
+     * Elle est appelée à chaque frame, même sans détection, pour que les clients voient les tags disparaître.
+     * @param camera : CAMERA_GRAND_ANGLE ou CAMERA_ZOOM.
+     * @param frameSequence : le numéro de la frame dans le pipeline.
+     * @param timestampNs : le timestamp capteur de la frame (ns).
+     * @param arucoCorners : les coins des tags détectés (une Mat 1x4 CV_32FC2 par tag).
+     * @param arucoIds : les valeurs lues sur les tags (Mat Nx1 CV_32S).
+     * @return : - true : si succés de l'écriture
+     *           - false : si erreur
+     */
+    public synchronized boolean publishTags(int camera, long frameSequence, long timestampNs, List<Mat> arucoCorners, Mat arucoIds) {
+        int count = Math.min(arucoCorners.size(), maxRecords);
+        if (ids.length < count) {
+            ids = new int[count];
+            corners = new float[count * DetectionResults.CORNERS_PER_TAG];
+        }
+        ArucoOutputs.readIds(arucoIds, ids);
+        ArucoOutputs.readCorners(arucoCorners, corners, count);
+
+        section.clear();
+        section.putLong(0) // la version est écrite séparément
+                .putLong(frameSequence)
+                .putLong(timestampNs)
+                .putInt(count)
+                .putInt(0);
+        for (int k = 0; k < count; k++) {
+            section.putInt(KIND_TAG).putInt(ids[k]).putFloat(1f).putInt(0);
+            for (int c = 0; c < DetectionResults.CORNERS_PER_TAG; c++) section.putFloat(corners[k * DetectionResults.CORNERS_PER_TAG + c]);
+        }
+        return writeSection(camera, section.position());
+    }
+
+    /**
+     * Ecriture d'une section selon le protocole seqlock : version impaire, contenu, version paire,
+     * séparés par des barrières mémoire.
+     */
+    private boolean writeSection(int camera, int length) {
+        int sectionOffset = REGION_HEADER_SIZE + camera * sectionSize;
+        try {
+            version.putLong(0, ++versions[camera]);
+            sharedMemory.writeBytes(versionBytes, 0, sectionOffset, versionBytes.length);
+            MemoryFence.full(); // la version impaire est visible avant le contenu
+
+            sharedMemory.writeBytes(sectionBytes, 8, sectionOffset + 8, length - 8);
+            MemoryFence.full(); // le contenu est visible avant la version paire
+
+            version.putLong(0, ++versions[camera]);
+            sharedMemory.writeBytes(versionBytes, 0, sectionOffset, versionBytes.length);
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'écriture des résultats de détection sur la mémoire partagée : " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Ecriture de l'en-tête de région (une seule fois à la création)
+     */
+    private void writeRegionHeader() {
+        byte[] regionHeaderBytes = new byte[REGION_HEADER_SIZE];
+        ByteBuffer.wrap(regionHeaderBytes).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(REGION_MAGIC)
+                .putInt(LAYOUT_VERSION)
+                .putInt(SECTION_COUNT)
+                .putInt(sectionSize)
+                .putInt(RECORD_SIZE);
+        try {
+            sharedMemory.writeBytes(regionHeaderBytes, 0, 0, REGION_HEADER_SIZE);
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'écriture de l'en-tête de la région des résultats de détection : " + e);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.bfr.main.visionservice.sharedmemory;
+
+import android.util.Log;
+
+import com.bfr.main.visionservice.pipeline.EncodedFrame;
+import com.bfr.main.visionservice.pipeline.EncodingFormat;
+import com.newtronlabs.sharedmemory.prod.memory.ISharedMemory;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * La classe FrameRingBuffer organise une région de mémoire partagée [Stream-Frames-*] en un buffer circulaire de N slots.
+ * Chaque slot contient une frame brute (pixels non compressés) ou encodée (JPEG / PNG, voir FrameEncoder) précédée d'un en-tête fixe.
+ *
+ * Organisation de la région (little-endian) :
+ *  _____________________________________________________________________________
+ *  |  En-tête de région [REGION_HEADER_SIZE octets]                            |
+ *  |      0 : int   magic              ----> REGION_MAGIC                      |
+ *  |      4 : int   layoutVersion      ----> LAYOUT_VERSION                    |
+ *  |      8 : int   slotCount          ----> nombre de slots N                 |
+ *  |     12 : int   slotSize           ----> taille d'un slot (en-tête inclus) |
+ *  |     16 : long  latestSequence     ----> séquence de la dernière frame     |
+ *  |                                         complète (0 = aucune frame)       |
+ *  |___________________________________________________________________________|
+ *  |  Slot i [à l'offset REGION_HEADER_SIZE + i*slotSize]                      |
+ *  |      0 : long  sequence           ----> 0 pendant l'écriture du slot      |
+ *  |      8 : long  timestampNs        ----> timestamp capteur (ns)            |
+ *  |     16 : int   width                                                      |
+ *  |     20 : int   height                                                     |
+ *  |     24 : int   stride             ----> nombre d'octets par ligne (0 si encodée)
+ *  |     28 : int   pixelFormat        ----> PIXEL_FORMAT_*                    |
+ *  |     32 : int   payloadLength      ----> nombre d'octets de pixels         |
+ *  |     SLOT_HEADER_SIZE : pixels (ou fichier JPEG / PNG complet)             |
+ *  |___________________________________________________________________________|
+ *
+ * La frame de séquence S est écrite dans le slot (S-1) % N.
+ * Protocole de lecture (côté client) :
+ *  1- lire latestSequence, puis l'en-tête du slot correspondant et vérifier que sa séquence est égale à latestSequence.
+ *  2- barrière mémoire, copier les pixels.
+ *  3- barrière mémoire, relire la séquence du slot : si elle a changé, la frame a été écrasée pendant la copie et il faut recommencer.
+ * Côté service, les étapes d'écriture d'un slot sont séparées par des barrières mémoire (MemoryFence), et la séquence
+ * du slot est écrite seule, après le reste de l'en-tête : un en-tête qui porte la bonne séquence est complet.
+ */
+public class FrameRingBuffer {
+
+    private static final String TAG = "SERVICE_VISION_FrameRingBuffer";
+
+    public static final int REGION_MAGIC = 0x42465253; // "BFRS"
+    public static final int LAYOUT_VERSION = 1;
+    public static final int REGION_HEADER_SIZE = 64;
+    public static final int SLOT_HEADER_SIZE = 64;
+    public static final int OFFSET_LATEST_SEQUENCE = 16;
+
+    public static final int PIXEL_FORMAT_RGBA = 1;
+    public static final int PIXEL_FORMAT_RGB = 2;
+    public static final int PIXEL_FORMAT_GRAY = 3;
+    public static final int PIXEL_FORMAT_NV21 = 4;
+    public static final int PIXEL_FORMAT_JPEG = 5;
+    public static final int PIXEL_FORMAT_PNG = 6;
+
+    private final ISharedMemory sharedMemory;
+    private final int slotCount;
+    private final int slotSize;
+
+    private final byte[] headerBytes = new byte[SLOT_HEADER_SIZE];
+    private final ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] sequenceBytes = new byte[8];
+    private final ByteBuffer sequence = ByteBuffer.wrap(sequenceBytes).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] payload = new byte[0];
+
+    private long lastSequence = 0;
+
+    /**
+     * @param sharedMemory : la région de mémoire partagée allouée pour le streaming.
+     * @param regionSize : la taille en octets de la région.
+     * @param slotCount : le nombre de slots du buffer circulaire.
+     */
+    public FrameRingBuffer(ISharedMemory sharedMemory, int regionSize, int slotCount) {
+        this.sharedMemory = sharedMemory;
+        this.slotCount = slotCount;
+        this.slotSize = (regionSize - REGION_HEADER_SIZE) / slotCount;
+        writeRegionHeader();
+    }
+
+    /**
+     * La fonction close() permet de libérer la région de mémoire partagée du buffer : plus aucune frame ne peut y être écrite.
+     */
+    public synchronized void close() {
+        try {
+            sharedMemory.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de la libération de la mémoire partagée : " + e);
+        }
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * La fonction write() permet de copier les pixels bruts d'une frame dans le prochain slot du buffer circulaire.
+     * Le format de pixels est déduit du type de la Mat (CV_8UC4 : RGBA, CV_8UC3 : RGB, CV_8UC1 : GRAY).
+     * @param frame : la frame à écrire.
+     * @param timestampNs : le timestamp capteur de la frame (ns).
+     * @return : la séquence attribuée à la frame, ou -1 si une erreur est survenue.
+     */
+    public long write(Mat frame, long timestampNs) {
+        int pixelFormat = pixelFormatOf(frame.type());
+        if (pixelFormat < 0) {
+            Log.e(TAG, "Type de Mat non supporté pour le streaming : " + CvType.typeToString(frame.type()));
+            return -1;
+        }
+        return write(frame, frame.cols(), frame.rows(), pixelFormat, timestampNs);
+    }
+
+    /**
+     * La fonction write() permet d'écrire une frame encodée (voir FrameEncoder) dans le prochain slot du buffer circulaire.
+     * Les octets encodés sont écrits directement depuis le buffer de l'EncodedFrame, sans copie.
+     * @param encodedFrame : la frame encodée (RAW, JPEG ou PNG).
+     * @return : la séquence attribuée à la frame, ou -1 si une erreur est survenue.
+     */
+    public long write(EncodedFrame encodedFrame) {
+        synchronized (encodedFrame.getLock()) {
+            int pixelFormat = pixelFormatOf(encodedFrame);
+            if (pixelFormat < 0) {
+                Log.e(TAG, "Type de pixels non supporté pour le streaming : " + CvType.typeToString(encodedFrame.getType()));
+                return -1;
+            }
+            int stride = encodedFrame.getFormat().getCodec() == EncodingFormat.Codec.RAW ? encodedFrame.getWidth() * CvType.channels(encodedFrame.getType()) : 0;
+            return writeSlot(encodedFrame.getData(), encodedFrame.getLength(), encodedFrame.getWidth(), encodedFrame.getHeight(),
+                    stride, pixelFormat, encodedFrame.getTimestampNs());
+        }
+    }
+
+    /**
+     * La fonction pixelFormatOf() donne le PIXEL_FORMAT_* d'une frame encodée (JPEG, PNG, ou format des pixels bruts).
+     * @return : le format, ou -1 si les pixels bruts ne sont pas supportés
+     */
+    public static int pixelFormatOf(EncodedFrame encodedFrame) {
+        EncodingFormat.Codec codec = encodedFrame.getFormat().getCodec();
+        if (codec == EncodingFormat.Codec.JPEG) return PIXEL_FORMAT_JPEG;
+        if (codec == EncodingFormat.Codec.PNG) return PIXEL_FORMAT_PNG;
+        return pixelFormatOf(encodedFrame.getType());
+    }
+
+    /**
+     * Format de pixels correspondant au type d'une Mat (CV_8UC4 : RGBA, CV_8UC3 : RGB, CV_8UC1 : GRAY), -1 si non supporté
+     */
+    private static int pixelFormatOf(int type) {
+        if (type == CvType.CV_8UC4) return PIXEL_FORMAT_RGBA;
+        if (type == CvType.CV_8UC3) return PIXEL_FORMAT_RGB;
+        if (type == CvType.CV_8UC1) return PIXEL_FORMAT_GRAY;
+        return -1;
+    }
+
+    /**
+     * La fonction write() permet de copier les pixels bruts d'une frame dans le prochain slot du buffer circulaire,
+     * en précisant sa taille et son format (utile pour les Mat NV21 de hauteur h+h/2).
+     * @param frame : la Mat contenant les pixels (copiés en un seul appel Mat.get()).
+     * @param width : la largeur de l'image.
+     * @param height : la hauteur de l'image.
+     * @param pixelFormat : PIXEL_FORMAT_*.
+     * @param timestampNs : le timestamp capteur de la frame (ns).
+     * @return : la séquence attribuée à la frame, ou -1 si une erreur est survenue.
+     */
+    public synchronized long write(Mat frame, int width, int height, int pixelFormat, long timestampNs) {
+        int payloadLength = (int) (frame.total() * frame.elemSize());
+        if (payloadLength > slotSize - SLOT_HEADER_SIZE) {
+            Log.e(TAG, "Frame trop grande pour un slot (" + payloadLength + " > " + (slotSize - SLOT_HEADER_SIZE) + " octets)");
+            return -1;
+        }
+        if (payload.length != payloadLength) {
+            payload = new byte[payloadLength];
+        }
+        frame.get(0, 0, payload);
+        return writeSlot(payload, payloadLength, width, height, (int) (frame.cols() * frame.elemSize()), pixelFormat, timestampNs);
+    }
+
+    /**
+     * Ecriture d'un slot : invalidation, pixels, en-tête, puis publication de la séquence
+     */
+    private synchronized long writeSlot(byte[] payload, int payloadLength, int width, int height, int stride, int pixelFormat, long timestampNs) {
+        if (payloadLength > slotSize - SLOT_HEADER_SIZE) {
+            Log.e(TAG, "Frame trop grande pour un slot (" + payloadLength + " > " + (slotSize - SLOT_HEADER_SIZE) + " octets)");
+            return -1;
+        }
+
+        long seq = lastSequence + 1;
+        int slotOffset = REGION_HEADER_SIZE + (int) ((seq - 1) % slotCount) * slotSize;
+        try {
+            // Invalidation du slot pendant l'écriture des pixels
+            sequence.putLong(0, 0);
+            sharedMemory.writeBytes(sequenceBytes, 0, slotOffset, sequenceBytes.length);
+            MemoryFence.full();
+
+            sharedMemory.writeBytes(payload, 0, slotOffset + SLOT_HEADER_SIZE, payloadLength);
+
+            // En-tête sans la séquence, puis la séquence seule : le slot n'est valide qu'une fois l'en-tête complet
+            header.clear();
+            header.putLong(0)
+                    .putLong(timestampNs)
+                    .putInt(width)
+                    .putInt(height)
+                    .putInt(stride)
+                    .putInt(pixelFormat)
+                    .putInt(payloadLength);
+            sharedMemory.writeBytes(headerBytes, 8, slotOffset + 8, SLOT_HEADER_SIZE - 8);
+            MemoryFence.full();
+            sequence.putLong(0, seq);
+            sharedMemory.writeBytes(sequenceBytes, 0, slotOffset, sequenceBytes.length);
+            MemoryFence.full();
+
+            // Publication de la frame
+            sharedMemory.writeBytes(sequenceBytes, 0, OFFSET_LATEST_SEQUENCE, sequenceBytes.length);
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'écriture de la frame " + seq + " sur la mémoire partagée : " + e);
+            return -1;
+        }
+        lastSequence = seq;
+        return seq;
+    }
+
+    /**
+     * Ecriture de l'en-tête de région (une seule fois à la création)
+     */
+    private void writeRegionHeader() {
+        byte[] regionHeaderBytes = new byte[REGION_HEADER_SIZE];
+        ByteBuffer.wrap(regionHeaderBytes).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(REGION_MAGIC)
+                .putInt(LAYOUT_VERSION)
+                .putInt(slotCount)
+                .putInt(slotSize)
+                .putLong(0);
+        try {
+            sharedMemory.writeBytes(regionHeaderBytes, 0, 0, REGION_HEADER_SIZE);
+        } catch (Exception e) {
+            Log.e(TAG, "Erreur lors de l'écriture de l'en-tête du buffer circulaire : " + e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.bfr.main.visionservice.sharedmemory;
+
+/**
+ * La classe MemoryFence fournit une barrière mémoire complète entre deux accès à une région de mémoire partagée.
+ * ISharedMemory.writeBytes() / readBytes() ne sont que des copies mémoire, sans aucune garantie d'ordre : sur ARM
+ * (mémoire faiblement ordonnée), un autre processus peut voir les octets écrits dans un ordre différent.
+ *
+ * VarHandle.fullFence() n'existe qu'à partir de l'API 33 (minSdk 28) : la barrière est obtenue par une écriture
+ * volatile suivie d'une lecture volatile, que ART traduit par des instructions qui ordonnent tous les accès mémoire
+ * du thread, y compris ceux des copies natives (arm64 : stlr puis ldar ; arm : dmb ; x86 : lock / mfence).
+ */
+final class MemoryFence {
+
+    private static volatile int fence;
+
+    private MemoryFence() {
+    }
+
+    /**
+     * La fonction full() permet de garantir que les accès mémoire faits avant l'appel sont visibles avant ceux faits après.
+     */
+    static void full() {
+        fence = 0;
+        if (fence != 0) throw new IllegalStateException(); // lecture volatile, jamais vraie
+    }
+}
@@ -51,12 +51,29 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected boolean mCameraPermissionGranted = false;
     protected FpsMeter mFpsMeter = null;
 
+    private volatile int mRenderPolicy = RENDER_ALWAYS;
+    private int mRenderEveryNthFrame = 1;
+    private long mRenderMinIntervalNs = 0;
+    private long mFrameCounter = 0;
+    private long mLastRenderNs = 0;
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
+
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
     public static final int CAMERA_ID_FRONT = 98;
     public static final int RGBA = 1;
     public static final int GRAY = 2;
 
+    /** Draw every delivered frame (default OpenCV behaviour). */
+    public static final int RENDER_ALWAYS = 0;
+    /** Never draw: frames are delivered to the listener but never converted to a bitmap. */
+    public static final int RENDER_NEVER = 1;
+    /** Draw one frame out of N. */
+    public static final int RENDER_EVERY_NTH_FRAME = 2;
+    /** Draw at most N frames per second. */
+    public static final int RENDER_MAX_FPS = 3;
+
     public CameraBridgeViewBase(Context context, int cameraId) {
         super(context);
         mCameraIndex = cameraId;
@@ -271,6 +288,49 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * This method sets how often delivered frames are drawn on the surface.
+     * The listener callback always runs at full camera rate: the policy only decides whether the
+     * returned frame is converted to the cache bitmap and drawn.
+     * @param policy - RENDER_ALWAYS, RENDER_NEVER, RENDER_EVERY_NTH_FRAME or RENDER_MAX_FPS
+     * @param value - N for RENDER_EVERY_NTH_FRAME and RENDER_MAX_FPS, ignored otherwise
+     */
+    public void setRenderPolicy(int policy, int value) {
+        if ((policy == RENDER_EVERY_NTH_FRAME || policy == RENDER_MAX_FPS) && value <= 0) {
+            Log.e(TAG, "Invalid render policy value: " + value + ", frames will not be drawn");
+            policy = RENDER_NEVER;
+        }
+        mRenderEveryNthFrame = policy == RENDER_EVERY_NTH_FRAME ? value : 1;
+        mRenderMinIntervalNs = policy == RENDER_MAX_FPS ? 1000000000L / value : 0;
+        mFrameCounter = 0;
+        mLastRenderNs = 0;
+        mRenderPolicy = policy;
+    }
+
+    public int getRenderPolicy() {
+        return mRenderPolicy;
+    }
+
+    /**
+     * Decides, once per delivered frame, whether the frame has to be drawn.
+     */
+    private boolean shouldRenderFrame() {
+        switch (mRenderPolicy) {
+            case RENDER_NEVER:
+                return false;
+            case RENDER_EVERY_NTH_FRAME:
+                return (mFrameCounter++ % mRenderEveryNthFrame) == 0;
+            case RENDER_MAX_FPS:
+                long now = System.nanoTime();
+                if (mLastRenderNs != 0 && now - mLastRenderNs < mRenderMinIntervalNs)
+                    return false;
+                mLastRenderNs = now;
+                return true;
+            default:
+                return true;
+        }
+    }
+
     /**
      *
      * @param listener
@@ -410,6 +470,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             modified = frame.rgba();
         }
 
+        if (!shouldRenderFrame())
+            return;
+
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -429,19 +492,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "mStretch value: " + mScale);
 
-                if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
-                         (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
-                } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
-                         (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
-                }
+                float scale = (mScale != 0) ? mScale : 1;
+                int left = (int)((canvas.getWidth() - scale*mCacheBitmap.getWidth()) / 2);
+                int top = (int)((canvas.getHeight() - scale*mCacheBitmap.getHeight()) / 2);
+                mSrcRect.set(0, 0, mCacheBitmap.getWidth(), mCacheBitmap.getHeight());
+                mDstRect.set(left, top,
+                        (int)(left + scale*mCacheBitmap.getWidth()),
+                        (int)(top + scale*mCacheBitmap.getHeight()));
+                canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
 
                 if (mFpsMeter != null) {
                     mFpsMeter.measure();
@@ -44,6 +44,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
     private static final String LOGTAG = "JavaCamera2View";
 
     protected ImageReader mImageReader;
+    private final JavaCamera2Frame mFrame = new JavaCamera2Frame(); // reused for every image of the stream
     protected int mPreviewFormat = ImageFormat.YUV_420_888;
 
     protected CameraDevice mCameraDevice;
@@ -183,9 +184,8 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    JavaCamera2Frame tempFrame = new JavaCamera2Frame(image);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.release();
+                    mFrame.setImage(image);
+                    deliverAndDrawFrame(mFrame);
                     image.close();
                 }
             }, mBackgroundHandler);
@@ -247,6 +247,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 mImageReader.close();
                 mImageReader = null;
             }
+            mFrame.release();
         }
         Log.i(LOGTAG, "camera closed!");
     }
@@ -327,121 +328,181 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
-    private class JavaCamera2Frame implements CvCameraViewFrame {
+    /**
+     * Frame wrapper around a YUV_420_888 {@link Image}. It is public so that headless capture
+     * code (without a bridge view) can reuse the same conversion.
+     *
+     * A single instance is meant to be reused for every frame of a stream: call
+     * {@link #setImage(Image)} for each new image. The planes are copied into a direct buffer
+     * owned by the frame (allocated once per resolution), which backs the YUV, gray and RGBA Mats,
+     * so the steady-state frame loop does not allocate on the Java heap. As a side effect, the
+     * returned Mats stay valid after the image is closed, until the next setImage() call.
+     */
+    public static class JavaCamera2Frame implements CvCameraViewFrame {
+        /**
+         * The Y plane is copied rather than wrapped: wrapping it would need a new Mat per image
+         * (the plane buffers change with each image), and the copy is shared with rgba(), which
+         * needs the whole frame in one contiguous buffer anyway.
+         */
         @Override
         public Mat gray() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            assert(planes[0].getPixelStride() == 1);
-            ByteBuffer y_plane = planes[0].getBuffer();
-            int y_plane_step = planes[0].getRowStride();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
+            copyLuma();
             return mGray;
         }
 
         @Override
         public Mat rgba() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            int chromaPixelStride = planes[1].getPixelStride();
-
-
-            if (chromaPixelStride == 2) { // Chroma channels are interleaved
-                assert(planes[0].getPixelStride() == 1);
-                assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
-                int y_plane_step = planes[0].getRowStride();
-                ByteBuffer uv_plane1 = planes[1].getBuffer();
-                int uv_plane1_step = planes[1].getRowStride();
-                ByteBuffer uv_plane2 = planes[2].getBuffer();
-                int uv_plane2_step = planes[2].getRowStride();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-                Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
-                Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
-                long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
-                if (addr_diff > 0) {
-                    assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
-                } else {
-                    assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
-                }
-                return mRgba;
-            } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
-                ByteBuffer y_plane = planes[0].getBuffer();
-                ByteBuffer u_plane = planes[1].getBuffer();
-                ByteBuffer v_plane = planes[2].getBuffer();
-
-                int yuv_bytes_offset = 0;
-
-                int y_plane_step = planes[0].getRowStride();
-                if (y_plane_step == w) {
-                    y_plane.get(yuv_bytes, 0, w*h);
-                    yuv_bytes_offset = w*h;
-                } else {
-                    int padding = y_plane_step - w;
-                    for (int i = 0; i < h; i++){
-                        y_plane.get(yuv_bytes, yuv_bytes_offset, w);
-                        yuv_bytes_offset += w;
-                        if (i < h - 1) {
-                            y_plane.position(y_plane.position() + padding);
-                        }
-                    }
-                    assert(yuv_bytes_offset == w * h);
-                }
-
-                int chromaRowStride = planes[1].getRowStride();
-                int chromaRowPadding = chromaRowStride - w/2;
-
-                if (chromaRowPadding == 0){
-                    // When the row stride of the chroma channels equals their width, we can copy
-                    // the entire channels in one go
-                    u_plane.get(yuv_bytes, yuv_bytes_offset, w*h/4);
-                    yuv_bytes_offset += w*h/4;
-                    v_plane.get(yuv_bytes, yuv_bytes_offset, w*h/4);
-                } else {
-                    // When not equal, we need to copy the channels row by row
-                    for (int i = 0; i < h/2; i++){
-                        u_plane.get(yuv_bytes, yuv_bytes_offset, w/2);
-                        yuv_bytes_offset += w/2;
-                        if (i < h/2-1){
-                            u_plane.position(u_plane.position() + chromaRowPadding);
-                        }
-                    }
-                    for (int i = 0; i < h/2; i++){
-                        v_plane.get(yuv_bytes, yuv_bytes_offset, w/2);
-                        yuv_bytes_offset += w/2;
-                        if (i < h/2-1){
-                            v_plane.position(v_plane.position() + chromaRowPadding);
-                        }
-                    }
-                }
-
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
-                yuv_mat.put(0, 0, yuv_bytes);
-                Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
-                return mRgba;
+            if (!mRgbaReady) {
+                copyLuma();
+                copyChroma();
+                Imgproc.cvtColor(mYuvMat, mRgba, mChromaOrder == CHROMA_NV12 ? Imgproc.COLOR_YUV2RGBA_NV12
+                        : mChromaOrder == CHROMA_NV21 ? Imgproc.COLOR_YUV2RGBA_NV21 : Imgproc.COLOR_YUV2RGBA_I420, 4);
+                mRgbaReady = true;
             }
+            return mRgba;
         }
 
+        public JavaCamera2Frame() {
+            super();
+        }
 
         public JavaCamera2Frame(Image image) {
-            super();
-            mImage = image;
-            mRgba = new Mat();
-            mGray = new Mat();
+            this();
+            setImage(image);
+        }
+
+        /**
+         * Attaches the next image to this frame. Buffers are only reallocated when the resolution changes.
+         */
+        public void setImage(Image image) {
+            mPlanes = image.getPlanes(); // getPlanes() returns a new array on each call
+            mLumaReady = false;
+            mRgbaReady = false;
+            int w = image.getWidth();
+            int h = image.getHeight();
+            if (w != mWidth || h != mHeight) {
+                releaseBuffers();
+                mWidth = w;
+                mHeight = h;
+                mChromaOrder = CHROMA_UNKNOWN;
+                mYuvBuffer = ByteBuffer.allocateDirect(w * (h + h / 2));
+                mYuvMat = new Mat(h + h / 2, w, CvType.CV_8UC1, mYuvBuffer);
+                mGray = mYuvMat.submat(0, h, 0, w);
+            }
         }
 
         public void release() {
+            mPlanes = null;
+            releaseBuffers();
             mRgba.release();
-            mGray.release();
         }
 
-        private Image mImage;
-        private Mat mRgba;
+        private void releaseBuffers() {
+            if (mGray != null) mGray.release();
+            if (mYuvMat != null) mYuvMat.release();
+            mGray = null;
+            mYuvMat = null;
+            mYuvBuffer = null;
+            mWidth = 0;
+            mHeight = 0;
+        }
+
+        /**
+         * Copies the Y plane (without row padding) at the beginning of the YUV buffer.
+         */
+        private void copyLuma() {
+            if (mLumaReady)
+                return;
+            Image.Plane[] planes = mPlanes;
+            assert(planes[0].getPixelStride() == 1);
+            mYuvBuffer.clear();
+            copyPlane(planes[0].getBuffer(), planes[0].getRowStride(), mWidth, mHeight, mYuvBuffer);
+            mLumaReady = true;
+        }
+
+        /**
+         * Copies the chroma planes after the Y plane, in their memory order when the chroma
+         * channels are interleaved (NV12: UVUV..., NV21: VUVU...), as I420 (U plane then V plane)
+         * otherwise.
+         */
+        private void copyChroma() {
+            Image.Plane[] planes = mPlanes;
+            int w = mWidth;
+            int h = mHeight;
+            mYuvBuffer.clear();
+            mYuvBuffer.position(w * h);
+            if (mChromaOrder == CHROMA_UNKNOWN)
+                mChromaOrder = chromaOrder(planes);
+            if (mChromaOrder == CHROMA_I420) {
+                copyPlane(planes[1].getBuffer(), planes[1].getRowStride(), w / 2, h / 2, mYuvBuffer);
+                copyPlane(planes[2].getBuffer(), planes[2].getRowStride(), w / 2, h / 2, mYuvBuffer);
+                return;
+            }
+            // The plane that comes first in memory reads as the whole interleaved plane,
+            // except for its last sample, which is the last byte of the other plane.
+            Image.Plane first = mChromaOrder == CHROMA_NV12 ? planes[1] : planes[2];
+            Image.Plane second = mChromaOrder == CHROMA_NV12 ? planes[2] : planes[1];
+            copyPlane(first.getBuffer(), first.getRowStride(), w, h / 2, mYuvBuffer);
+            ByteBuffer last = second.getBuffer();
+            mYuvBuffer.put(last.get(last.capacity() - 1));
+        }
+
+        /**
+         * Memory layout of the chroma planes. It does not change during a stream, so it is only
+         * computed on the first frame of each resolution (it allocates two Mat headers).
+         */
+        private static int chromaOrder(Image.Plane[] planes) {
+            if (planes[1].getPixelStride() != 2)
+                return CHROMA_I420;
+            assert(planes[2].getPixelStride() == 2);
+            Mat u = new Mat(1, 1, CvType.CV_8UC1, planes[1].getBuffer());
+            Mat v = new Mat(1, 1, CvType.CV_8UC1, planes[2].getBuffer());
+            long addr_diff = v.dataAddr() - u.dataAddr();
+            u.release();
+            v.release();
+            if (addr_diff > 0) {
+                assert(addr_diff == 1);
+                return CHROMA_NV12;
+            }
+            assert(addr_diff == -1);
+            return CHROMA_NV21;
+        }
+
+        /**
+         * Bulk copy of rows of a plane, dropping the row padding. The last row of a plane may be
+         * shorter than rowLength (interleaved chroma planes): it is truncated to the buffer size.
+         */
+        private static void copyPlane(ByteBuffer src, int rowStride, int rowLength, int rows, ByteBuffer dst) {
+            int capacity = src.capacity();
+            if (rowStride == rowLength) {
+                src.limit(Math.min(capacity, rowLength * rows));
+                src.position(0);
+                dst.put(src);
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    int start = i * rowStride;
+                    src.limit(Math.min(capacity, start + rowLength));
+                    src.position(start);
+                    dst.put(src);
+                }
+            }
+            src.clear();
+        }
+
+        private Image.Plane[] mPlanes;
+        private int mWidth;
+        private int mHeight;
+        private ByteBuffer mYuvBuffer;
+        private Mat mYuvMat;
         private Mat mGray;
+        private final Mat mRgba = new Mat();
+        private boolean mLumaReady;
+        private boolean mRgbaReady;
+        private int mChromaOrder = CHROMA_UNKNOWN;
+
+        private static final int CHROMA_UNKNOWN = 0;
+        private static final int CHROMA_I420 = 1;
+        private static final int CHROMA_NV12 = 2;
+        private static final int CHROMA_NV21 = 3;
     };
 }